@@ -0,0 +1,251 @@
+package ci.controller;
+
+import ci.util.BuildRequest;
+import ci.util.SignatureVerifier;
+import ci.util.Validation;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import org.apache.tomcat.util.buf.HexUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares the ingress of a push webhook in {@link CiWebhookController} before and after the
+ * checks were reordered.
+ *
+ * <p>The tree path is the previous ingress: a new ObjectMapper per request reads the whole body
+ * into a tree before the event type and the signature are checked, and the signature is computed
+ * with a new HMAC engine and compared as a hex string. The streaming path checks the
+ * event type and the signature first, with the precomputed engine of the {@link
+ * SignatureVerifier}, and only then reads the fields of the build in a single streaming pass. Both
+ * are measured for a correctly signed push and for a forged one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WebhookIngressBenchmark {
+
+  private static final String SECRET = "benchmark-secret";
+  private static final String REPO_NAME = "daDevBoat/ContinuousIntegration";
+
+  /** Number of commits in the push, GitHub sends at most 2048. */
+  @Param({"1", "20", "200"})
+  public int commits;
+
+  private final SignatureVerifier verifier = new SignatureVerifier();
+  private byte[] body;
+  private String signature;
+  private String forgedSignature;
+
+  /**
+   * Builds a push payload shaped like the ones GitHub sends and signs it.
+   *
+   * @throws Exception if the payload cannot be signed
+   */
+  @Setup
+  public void setUp() throws Exception {
+    StringBuilder json = new StringBuilder();
+    json.append("{\"ref\":\"refs/heads/main\",")
+        .append("\"before\":\"1111111111111111111111111111111111111111\",")
+        .append("\"after\":\"2222222222222222222222222222222222222222\",")
+        .append("\"repository\":{\"id\":1142,\"name\":\"ContinuousIntegration\",")
+        .append("\"full_name\":\"")
+        .append(REPO_NAME)
+        .append("\",\"private\":false,\"owner\":")
+        .append(user("daDevBoat"))
+        .append(",\"description\":\"A small CI server\",\"fork\":false,")
+        .append("\"url\":\"https://github.com/daDevBoat/ContinuousIntegration\",")
+        .append("\"topics\":[\"ci\",\"gradle\",\"spring\"],\"default_branch\":\"main\"},")
+        .append("\"pusher\":{\"name\":\"daDevBoat\",\"email\":\"dev@example.com\"},")
+        .append("\"sender\":")
+        .append(user("daDevBoat"))
+        .append(",\"created\":false,\"deleted\":false,\"forced\":false,\"commits\":[");
+    for (int i = 0; i < commits; i++) {
+      if (i > 0) {
+        json.append(',');
+      }
+      json.append(commit(i));
+    }
+    json.append("],\"head_commit\":").append(commit(commits)).append('}');
+    body = json.toString().getBytes(StandardCharsets.UTF_8);
+
+    Mac mac = Mac.getInstance("HmacSHA256");
+    mac.init(new SecretKeySpec(SECRET.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+    signature = "sha256=" + HexUtils.toHexString(mac.doFinal(body));
+    forgedSignature = "sha256=" + "0".repeat(64);
+    verifier.rotate(SECRET);
+  }
+
+  /**
+   * Returns the JSON of a GitHub user object.
+   *
+   * @param login the login of the user
+   * @return the user object
+   */
+  private static String user(String login) {
+    String url = "https://api.github.com/users/" + login;
+    return "{\"name\":\"%s\",\"login\":\"%s\",\"id\":5512,\"url\":\"%s\",\"html_url\":\"%s\","
+            .formatted(login, login, url, url)
+        + "\"followers_url\":\"%s/followers\",\"repos_url\":\"%s/repos\",\"type\":\"User\"}"
+            .formatted(url, url);
+  }
+
+  /**
+   * Returns the JSON of a commit of a push.
+   *
+   * @param i the index of the commit
+   * @return the commit object
+   */
+  private static String commit(int i) {
+    String id = "%040x".formatted(i);
+    return ("{\"id\":\"%s\",\"tree_id\":\"%s\",\"distinct\":true,"
+            + "\"message\":\"Change number %d of the push, with a message of a few words\","
+            + "\"timestamp\":\"2026-01-01T12:00:00+01:00\","
+            + "\"url\":\"https://github.com/daDevBoat/ContinuousIntegration/commit/%s\","
+            + "\"author\":{\"name\":\"Someone\",\"email\":\"someone@example.com\","
+            + "\"username\":\"someone\"},"
+            + "\"committer\":{\"name\":\"Someone\",\"email\":\"someone@example.com\","
+            + "\"username\":\"someone\"},"
+            + "\"added\":[\"src/main/java/ci/File%d.java\"],\"removed\":[],"
+            + "\"modified\":[\"README.md\",\"build.gradle\"]}")
+        .formatted(id, id, i, id, i);
+  }
+
+  /**
+   * The previous ingress, which parses the whole body before it checks anything.
+   *
+   * @param signature the signature sent with the body
+   * @return the build request, or {@code null} if the webhook is rejected
+   * @throws Exception if the signature cannot be computed
+   */
+  private BuildRequest treeThenSignature(String signature) throws Exception {
+    JsonNode payload = new ObjectMapper().readTree(body);
+    if (!Validation.validatePushEvent("push")
+        || !treeSignature(SECRET, body, signature)
+        || !treeRepoName(payload).equals(REPO_NAME)) {
+      return null;
+    }
+    return treeRequest(payload, "delivery");
+  }
+
+  /**
+   * Validates the signature the way the previous ingress did, with a new HMAC engine per call and
+   * a string comparison of the hex digest.
+   *
+   * @param sharedKey the shared key between Github and the server
+   * @param payloadBody the body sent by the webhook
+   * @param signature the signature sent by the webhook
+   * @return true if the signature and computed HMAC is equal
+   * @throws Exception if the HMAC cannot be computed
+   */
+  private static boolean treeSignature(String sharedKey, byte[] payloadBody, String signature)
+      throws Exception {
+    if (payloadBody == null || payloadBody.length == 0 || sharedKey == null) {
+      throw new IllegalArgumentException("payloadBody was empty or null.");
+    }
+    Mac sha256HMAC = Mac.getInstance("HmacSHA256");
+    SecretKeySpec secretKey = new SecretKeySpec(sharedKey.getBytes("UTF-8"), "HmacSHA256");
+    sha256HMAC.init(secretKey);
+    return ("sha256=" + HexUtils.toHexString(sha256HMAC.doFinal(payloadBody))).equals(signature);
+  }
+
+  /**
+   * Reads the repository name the way the previous ingress validated it, from the parsed tree.
+   *
+   * @param payload the parsed body of the webhook
+   * @return the full name of the repository
+   */
+  private static String treeRepoName(JsonNode payload) {
+    return payload.get("repository").get("full_name").asText().trim();
+  }
+
+  /**
+   * Extracts the build request the way the previous ingress did, from the parsed tree.
+   *
+   * @param payload the parsed body of the webhook
+   * @param deliveryId the delivery id of the webhook
+   * @return the build request of the push, missing fields are empty strings
+   */
+  private static BuildRequest treeRequest(JsonNode payload, String deliveryId) {
+    JsonNode repository = payload.path("repository");
+    JsonNode owner = repository.path("owner");
+    return new BuildRequest(
+        owner.path("name").asText(owner.path("login").asText("")),
+        repository.path("name").asText(""),
+        repository.path("full_name").asText(""),
+        payload.path("ref").asText(""),
+        payload.path("after").asText(""),
+        payload.path("before").asText(""),
+        deliveryId);
+  }
+
+  /**
+   * The current ingress, which only parses a body with a valid signature, in a single streaming
+   * pass.
+   *
+   * @param signature the signature sent with the body
+   * @return the build request, or {@code null} if the webhook is rejected
+   * @throws Exception if the signature cannot be computed
+   */
+  private BuildRequest signatureThenStream(String signature) throws Exception {
+    if (!Validation.validatePushEvent("push") || !verifier.verify(body, signature)) {
+      return null;
+    }
+    BuildRequest request = BuildRequest.parsePush(body, "delivery");
+    return Validation.validateRepoName(request, REPO_NAME) ? request : null;
+  }
+
+  /**
+   * Measures the previous ingress of a correctly signed push.
+   *
+   * @return the build request
+   * @throws Exception if the signature cannot be computed
+   */
+  @Benchmark
+  public BuildRequest treeSigned() throws Exception {
+    return treeThenSignature(signature);
+  }
+
+  /**
+   * Measures the current ingress of a correctly signed push.
+   *
+   * @return the build request
+   * @throws Exception if the signature cannot be computed
+   */
+  @Benchmark
+  public BuildRequest streamSigned() throws Exception {
+    return signatureThenStream(signature);
+  }
+
+  /**
+   * Measures the previous ingress of a push with a forged signature.
+   *
+   * @return {@code null}, as the push is rejected
+   * @throws Exception if the signature cannot be computed
+   */
+  @Benchmark
+  public BuildRequest treeForged() throws Exception {
+    return treeThenSignature(forgedSignature);
+  }
+
+  /**
+   * Measures the current ingress of a push with a forged signature.
+   *
+   * @return {@code null}, as the push is rejected
+   * @throws Exception if the signature cannot be computed
+   */
+  @Benchmark
+  public BuildRequest streamForged() throws Exception {
+    return signatureThenStream(forgedSignature);
+  }
+}
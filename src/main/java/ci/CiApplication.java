@@ -3,10 +3,12 @@ package ci;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.scheduling.annotation.EnableAsync;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 /** CiApplication is the main entry point for the Continuous Integration Spring Boot application */
 @SpringBootApplication
 @EnableAsync
+@EnableScheduling
 public class CiApplication {
 
   /**
@@ -0,0 +1,113 @@
+package ci.controller;
+
+import ci.service.BuildCache;
+import jakarta.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * BuildCacheController is a REST controller implementing the Gradle HTTP build cache protocol.
+ *
+ * <p>Gradle loads an entry with {@code GET /cache/{key}}, where a 404 is a cache miss, and stores
+ * an entry with {@code PUT /cache/{key}}, where a 413 tells Gradle the entry is too large.
+ *
+ * <p>Only the builds of this server may use the cache, as a poisoned entry would be restored into
+ * every later build. Requests that do not come from the loopback interface or do not carry the
+ * credentials of the init script are answered with 403.
+ */
+@RestController
+public class BuildCacheController {
+
+  private final BuildCache buildCache;
+
+  /**
+   * Constructs a BuildCacheController with the specified BuildCache
+   *
+   * @param buildCache the BuildCache storing the entries on disk
+   */
+  public BuildCacheController(BuildCache buildCache) {
+    this.buildCache = buildCache;
+  }
+
+  /**
+   * Mapping for GET requests to the /cache/{key} url, returns the content of a cache entry.
+   *
+   * @param key the cache key
+   * @param request the request, which has to come from a build of this server
+   * @return the entry with status OK, status NOT_FOUND on a cache miss, status FORBIDDEN if the
+   *     request is not from a build, or status BAD_REQUEST if the key is not a valid cache key
+   * @throws IOException if the entry cannot be read
+   */
+  @GetMapping("/cache/{key}")
+  public ResponseEntity<Resource> load(@PathVariable String key, HttpServletRequest request)
+      throws IOException {
+    if (!isFromBuild(request)) {
+      return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+    }
+    if (!BuildCache.isValidKey(key)) {
+      return ResponseEntity.badRequest().build();
+    }
+    InputStream in = buildCache.load(key);
+    if (in == null) {
+      return ResponseEntity.notFound().build();
+    }
+    return ResponseEntity.ok()
+        .contentType(MediaType.APPLICATION_OCTET_STREAM)
+        .body(new InputStreamResource(in));
+  }
+
+  /**
+   * Mapping for PUT requests to the /cache/{key} url, stores the request body as a cache entry.
+   *
+   * @param key the cache key
+   * @param request the request whose body is the content of the entry
+   * @return status OK if the entry was stored, status PAYLOAD_TOO_LARGE if it was too large,
+   *     status FORBIDDEN if the request is not from a build, or status BAD_REQUEST if the key is
+   *     not a valid cache key
+   * @throws IOException if the entry cannot be written
+   */
+  @PutMapping("/cache/{key}")
+  public ResponseEntity<Void> store(@PathVariable String key, HttpServletRequest request)
+      throws IOException {
+    if (!isFromBuild(request)) {
+      return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+    }
+    if (!BuildCache.isValidKey(key)) {
+      return ResponseEntity.badRequest().build();
+    }
+    if (!buildCache.store(key, request.getInputStream(), request.getContentLengthLong())) {
+      return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).build();
+    }
+    return ResponseEntity.ok().build();
+  }
+
+  /**
+   * Returns whether a request comes from a build of this server, which runs on the same host and
+   * authenticates with the credentials of its init script.
+   *
+   * @param request the request
+   * @return {@code true} if the request is from the loopback interface and carries the credentials
+   */
+  private boolean isFromBuild(HttpServletRequest request) {
+    try {
+      // The remote address is a literal ip, so no name is looked up
+      if (!InetAddress.getByName(request.getRemoteAddr()).isLoopbackAddress()) {
+        return false;
+      }
+    } catch (UnknownHostException e) {
+      return false;
+    }
+    return buildCache.isAuthorized(request.getHeader("Authorization"));
+  }
+}
@@ -1,9 +1,11 @@
 package ci.controller;
 
-import ci.service.CiService;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import ci.service.BuildScheduler;
+import ci.util.BuildRequest;
+import ci.util.SignatureVerifier;
+import java.io.IOException;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -25,10 +27,6 @@ import org.springframework.web.bind.annotation.RestController;
 @RestController
 public class CiWebhookController {
 
-  /** Shared secret key used to validate Github webhook signatures. */
-  @Value("${sharedKey:xxxxxxxx}")
-  private String sharedKey;
-
   /** Full GitHub repository name expected in the webhokk payload. */
   @Value("${git.repoName:daDevBoat/ContinuousIntegration}")
   private String repoName;
@@ -53,15 +51,19 @@ public class CiWebhookController {
   @Value("${local.url:Invalid target url}")
   private String targetUrl;
 
-  private final CiService ciService;
+  private final BuildScheduler buildScheduler;
+  private final SignatureVerifier signatureVerifier;
 
   /**
-   * Contructs a CiWebhookController with the specified CiService
+   * Contructs a CiWebhookController with the specified BuildScheduler and SignatureVerifier
    *
-   * @param ciService the CiService used to handle CI operations triggered by webhook events
+   * @param buildScheduler the BuildScheduler that admits and runs the builds triggered by webhook
+   *     events
+   * @param signatureVerifier the SignatureVerifier checking the signatures of the webhooks
    */
-  public CiWebhookController(CiService ciService) {
-    this.ciService = ciService;
+  public CiWebhookController(BuildScheduler buildScheduler, SignatureVerifier signatureVerifier) {
+    this.buildScheduler = buildScheduler;
+    this.signatureVerifier = signatureVerifier;
   }
 
   /**
@@ -81,8 +83,18 @@ public class CiWebhookController {
    * repository information. - Fetches and updates the repository. - Triggers the compilation
    * process. - Stores and reports the build result.
    *
+   * <p>The checks run from cheapest to most expensive. The body is only parsed once its signature
+   * is verified, so a request that is not from GitHub never costs any JSON work, and it is then
+   * read in a single streaming pass by {@link BuildRequest#parsePush(byte[], String)}.
+   *
+   * <p>If the build queue is full the webhook is answered with 503 and a {@code Retry-After}
+   * header instead of being accepted. Only the {@link BuildRequest} extracted from the payload is
+   * queued, the payload itself is dropped once the webhook is answered. A push deleting a branch is
+   * accepted without queueing a build.
+   *
    * @param event the GitHub event type (expected to be {@code push}).
    * @param signature the SHA-256 signature sent by GitHub.
+   * @param delivery the GitHub delivery id of the webhook.
    * @param body the raw JSON payload of the webhook request.
    * @return ResponseEntity indicating success or the reason for failure.
    */
@@ -90,18 +102,9 @@ public class CiWebhookController {
   public ResponseEntity<?> githubWebhook(
       @RequestHeader(value = "X-GitHub-Event", required = true) String event,
       @RequestHeader(value = "X-Hub-Signature-256", required = true) String signature,
+      @RequestHeader(value = "X-GitHub-Delivery", required = false) String delivery,
       @RequestBody(required = false) byte[] body) {
 
-    /* Convert the body[] into a json object */
-    ObjectMapper mapper = new ObjectMapper();
-    JsonNode payload = null;
-    try {
-      payload = mapper.readTree(body);
-    } catch (Exception e) {
-      // Add other error handling here with website
-      System.out.println(e);
-    }
-
     /* Checking for correct event type */
     if (!ci.util.Validation.validatePushEvent(event)) {
       return ResponseEntity.badRequest()
@@ -111,7 +114,7 @@ public class CiWebhookController {
     /* Verify signature */
     boolean signatureValid;
     try {
-      signatureValid = ci.util.Validation.validateSignature(sharedKey, body, signature);
+      signatureValid = signatureVerifier.verify(body, signature);
     } catch (IllegalArgumentException e) {
       return ResponseEntity.badRequest().body(e.getMessage());
     } catch (Exception e) {
@@ -122,19 +125,35 @@ public class CiWebhookController {
       return ResponseEntity.badRequest().body("Signature was invalid");
     }
 
+    /* Extract the fields of the build, only once the body is known to come from GitHub */
+    BuildRequest request;
+    try {
+      request = BuildRequest.parsePush(body, delivery);
+    } catch (IOException e) {
+      return ResponseEntity.badRequest().body("The payload is not valid JSON");
+    }
+
     /* Checking for correct repository */
-    if (!ci.util.Validation.validateRepoName(payload, repoName)) {
+    if (!ci.util.Validation.validateRepoName(request, repoName)) {
       return ResponseEntity.badRequest()
           .body("The repo name is not: " + repoName + ", while it is required to be so");
     }
 
-    /* Extract commit SHA */
-    String sha = payload.path("after").asText("");
-    if (sha.isBlank()) {
+    /* Checking for the commit SHA */
+    if (request.after().isBlank()) {
       return ResponseEntity.badRequest().body("Missing commit sha");
     }
 
-    ciService.runBuild(payload);
+    /* A deleted branch has no commit to build, and must not supersede the builds of its ref */
+    if (request.isDeletion()) {
+      return ResponseEntity.accepted().body("Branch deleted, nothing to build.");
+    }
+
+    if (!buildScheduler.submit(request)) {
+      return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+          .header(HttpHeaders.RETRY_AFTER, String.valueOf(buildScheduler.getRetryAfterSeconds()))
+          .body("The build queue is full, try again later.");
+    }
 
     return ResponseEntity.accepted().body("Build and test process started in the background.");
   }
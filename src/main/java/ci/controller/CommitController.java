@@ -1,29 +1,52 @@
 package ci.controller;
 
+import ci.service.BuildLogs;
 import ci.service.Status;
+import ci.service.Status.CommitRecord;
+import ci.util.BuildLog;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Optional;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 /** CommitController is a Spring MVC controller for handling commit detail requests */
 @Controller
 public class CommitController {
 
+  /** How long a live log stream stays open before the browser has to reconnect. */
+  private static final long STREAM_TIMEOUT_MILLIS = 30 * 60 * 1000;
+
+  /** How long a live log stream may be silent before a keep-alive comment is sent. */
+  private static final long KEEP_ALIVE_MILLIS = 15 * 1000;
+
   private final Status status;
+  private final BuildLogs buildLogs;
 
   /**
-   * Constructs a CommitController with the specified Status service
+   * Constructs a CommitController with the specified Status service and BuildLogs
    *
    * @param status the Status service used to retrieve the commit information
+   * @param buildLogs the BuildLogs service resolving the log files of the builds
    */
-  public CommitController(Status status) {
+  public CommitController(Status status, BuildLogs buildLogs) {
     this.status = status;
+    this.buildLogs = buildLogs;
   }
 
   /**
    * Mapping for the /commit url, returns information about the latest commit if no commit was
-   * specified.
+   * specified. The page of a commit that is being built follows the build output live.
    *
    * @param sha commit to be checked out (if entered)
    * @param model attributes to be sent to the view
@@ -34,8 +57,115 @@ public class CommitController {
     if (sha == null) {
       model.addAttribute("latestCommit", status.getLatest().orElse(null));
     } else {
-      model.addAttribute("latestCommit", status.getCommitsMap().get(sha));
+      model.addAttribute("latestCommit", status.get(sha).orElse(null));
+      model.addAttribute("sha", sha);
+      model.addAttribute("running", buildLogs.running(sha).isPresent());
     }
     return "commit";
   }
+
+  /**
+   * Mapping for the /commit/{sha}/log url, returns the complete build log of a commit as plain
+   * text. Falls back to the stored tail of the output when the log file no longer exists.
+   *
+   * @param sha the commit sha
+   * @return the build log with status OK, or status NOT_FOUND if the commit is unknown
+   */
+  @GetMapping("/commit/{sha}/log")
+  public ResponseEntity<Resource> log(@PathVariable String sha) {
+    CommitRecord record = status.get(sha).orElse(null);
+    if (record == null) {
+      return ResponseEntity.notFound().build();
+    }
+    Optional<Path> file = buildLogs.resolve(record.logFile());
+    Resource body;
+    if (file.isPresent()) {
+      body = new FileSystemResource(file.get());
+    } else {
+      String tail = record.logs() == null ? "" : String.join("\n", record.logs()) + "\n";
+      body = new ByteArrayResource(tail.getBytes(StandardCharsets.UTF_8));
+    }
+    return ResponseEntity.ok()
+        .contentType(new MediaType(MediaType.TEXT_PLAIN, StandardCharsets.UTF_8))
+        .body(body);
+  }
+
+  /**
+   * Mapping for the /commit/{sha}/log/stream url, streams the output of the running build of a
+   * commit as Server-Sent Events. Every event carries one line and has the byte offset in the log
+   * file right after that line as its id, so a browser that reconnects with {@code Last-Event-ID}
+   * resumes where it left off. An {@code end} event is sent when the build is finished.
+   *
+   * @param sha the commit sha
+   * @param lastEventId the offset of the last line the browser has received, if it reconnects
+   * @return the event stream with status OK, or status NOT_FOUND if the commit is unknown
+   */
+  @GetMapping(value = "/commit/{sha}/log/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+  public ResponseEntity<SseEmitter> stream(
+      @PathVariable String sha,
+      @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId) {
+    Optional<BuildLog> log = buildLogs.running(sha);
+    if (log.isEmpty() && status.get(sha).isEmpty()) {
+      return ResponseEntity.notFound().build();
+    }
+    SseEmitter emitter = new SseEmitter(STREAM_TIMEOUT_MILLIS);
+    long offset = lastEventId == null ? 0 : lastEventId;
+    if (log.isEmpty()) {
+      // The build has finished, the complete log is available from /commit/{sha}/log
+      sendEnd(emitter);
+    } else {
+      Thread.ofVirtual().name("log-stream-" + sha).start(() -> follow(log.get(), offset, emitter));
+    }
+    return ResponseEntity.ok(emitter);
+  }
+
+  /**
+   * Sends the lines of a running build to a live viewer until the build is finished or the viewer
+   * goes away. The viewer only keeps its offset and reads the new lines from the shared tail.
+   *
+   * @param log the log of the running build
+   * @param offset byte offset of the last line the viewer has received
+   * @param emitter the event stream of the viewer
+   */
+  private static void follow(BuildLog log, long offset, SseEmitter emitter) {
+    try {
+      while (true) {
+        BuildLog.Batch batch = log.await(offset, KEEP_ALIVE_MILLIS);
+        if (batch.skipped()) {
+          emitter.send(SseEmitter.event().comment("earlier lines are only in the full log"));
+        }
+        for (BuildLog.Line line : batch.lines()) {
+          emitter.send(SseEmitter.event().id(Long.toString(line.offset())).data(line.text()));
+          offset = line.offset();
+        }
+        if (batch.closed()) {
+          sendEnd(emitter);
+          return;
+        }
+        if (batch.lines().isEmpty()) {
+          emitter.send(SseEmitter.event().comment("keep-alive"));
+        }
+      }
+    } catch (IOException | IllegalStateException e) {
+      // The viewer closed the connection or the stream timed out
+      emitter.completeWithError(e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      emitter.complete();
+    }
+  }
+
+  /**
+   * Sends the {@code end} event that tells the viewer the build is finished and closes the stream.
+   *
+   * @param emitter the event stream of the viewer
+   */
+  private static void sendEnd(SseEmitter emitter) {
+    try {
+      emitter.send(SseEmitter.event().name("end").data("finished"));
+      emitter.complete();
+    } catch (IOException | IllegalStateException e) {
+      emitter.completeWithError(e);
+    }
+  }
 }
@@ -1,14 +1,29 @@
 package ci.controller;
 
 import ci.service.Status;
+import jakarta.servlet.http.HttpServletResponse;
+import java.time.Duration;
+import java.time.Instant;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 
 /** HistoryController is a Spring MVC controller for handling commit history requests */
 @Controller
 public class HistoryController {
 
+  /** Number of commits on a page when the request does not ask for another number. */
+  private static final int DEFAULT_LIMIT = 50;
+
+  /** Largest number of commits on a page. */
+  private static final int MAX_LIMIT = 500;
+
+  /** Seconds after which a client should ask again while the history is loading. */
+  private static final int LOADING_RETRY_SECONDS = 5;
+
   private final Status status;
 
   /**
@@ -21,14 +36,64 @@ public class HistoryController {
   }
 
   /**
-   * Mapping for the /history url, returns a page with a list of all commits.
+   * Mapping for the /history url, returns a page with the newest commits, or with the commits older
+   * than the cursor of the previous page. The commits can be filtered by state, branch, sha prefix
+   * and age, like {@code /history?state=FAILURE&branch=main&days=7}. While the history is still
+   * loading on startup the page says so with status SERVICE_UNAVAILABLE, instead of showing an
+   * incomplete history.
    *
+   * @param before cursor of the previous page (if entered)
+   * @param limit maximum number of commits on the page
+   * @param state only commits in this state (if entered)
+   * @param branch only commits pushed to this branch (if entered)
+   * @param sha only commits whose sha starts with this prefix (if entered)
+   * @param days only commits of the last number of days (if entered)
    * @param model attributes to be sent to the view
+   * @param response the response, whose status is set while the history is loading
    * @return view name
    */
   @GetMapping("/history")
-  public String history(Model model) {
-    model.addAttribute("historyList", status.getCommits());
+  public String history(
+      @RequestParam(required = false) String before,
+      @RequestParam(defaultValue = "" + DEFAULT_LIMIT) int limit,
+      @RequestParam(required = false) String state,
+      @RequestParam(required = false) String branch,
+      @RequestParam(required = false) String sha,
+      @RequestParam(required = false) Integer days,
+      Model model,
+      HttpServletResponse response) {
+    if (status.isLoading()) {
+      response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+      response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(LOADING_RETRY_SECONDS));
+      model.addAttribute("loading", true);
+      return "history";
+    }
+    int pageSize = Math.clamp(limit, 1, MAX_LIMIT);
+    Status.HistoryFilter filter =
+        new Status.HistoryFilter(
+            blankToNull(state),
+            blankToNull(branch),
+            blankToNull(sha),
+            days == null || days <= 0 ? null : Instant.now().minus(Duration.ofDays(days)));
+    Status.HistoryPage page = status.getCommits(filter, before, pageSize);
+    model.addAttribute("historyList", page.commits());
+    model.addAttribute("nextCursor", page.next());
+    model.addAttribute("limit", pageSize);
+    model.addAttribute("state", filter.state());
+    model.addAttribute("branch", filter.branch());
+    model.addAttribute("sha", filter.shaPrefix());
+    model.addAttribute("days", days);
     return "history";
   }
+
+  /**
+   * Returns a request parameter with blank values treated as missing, as an empty field of the
+   * filter form sends them.
+   *
+   * @param value the request parameter
+   * @return the value, or {@code null} if it is missing or blank
+   */
+  private static String blankToNull(String value) {
+    return value == null || value.isBlank() ? null : value.strip();
+  }
 }
@@ -0,0 +1,158 @@
+package ci.controller;
+
+import ci.integration.GithubClient;
+import ci.integration.StatusOutbox;
+import ci.service.BuildCache;
+import ci.service.BuildScheduler;
+import ci.service.MirrorRefresher;
+import ci.service.Status;
+import ci.service.WorkspacePool;
+import ci.service.WorkspaceReaper;
+import ci.util.ProcessRunner;
+import java.util.Map;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/** MetricsController is a REST controller exposing runtime statistics of the CI server */
+@RestController
+public class MetricsController {
+
+  private final BuildScheduler buildScheduler;
+  private final WorkspacePool workspacePool;
+  private final WorkspaceReaper workspaceReaper;
+  private final MirrorRefresher mirrorRefresher;
+  private final BuildCache buildCache;
+  private final Status status;
+  private final GithubClient githubClient;
+  private final StatusOutbox statusOutbox;
+
+  /**
+   * Constructs a MetricsController with the specified services
+   *
+   * @param buildScheduler the BuildScheduler whose queue statistics are exposed
+   * @param workspacePool the WorkspacePool whose pool statistics are exposed
+   * @param workspaceReaper the WorkspaceReaper whose pending deletions are exposed
+   * @param mirrorRefresher the MirrorRefresher whose refreshes and prefetches are exposed
+   * @param buildCache the BuildCache whose hit rate and size are exposed
+   * @param status the Status service whose journal writes are exposed
+   * @param githubClient the GithubClient whose requests and connections are exposed
+   * @param statusOutbox the StatusOutbox whose waiting and retried statuses are exposed
+   */
+  public MetricsController(
+      BuildScheduler buildScheduler,
+      WorkspacePool workspacePool,
+      WorkspaceReaper workspaceReaper,
+      MirrorRefresher mirrorRefresher,
+      BuildCache buildCache,
+      Status status,
+      GithubClient githubClient,
+      StatusOutbox statusOutbox) {
+    this.buildScheduler = buildScheduler;
+    this.workspacePool = workspacePool;
+    this.workspaceReaper = workspaceReaper;
+    this.mirrorRefresher = mirrorRefresher;
+    this.buildCache = buildCache;
+    this.status = status;
+    this.githubClient = githubClient;
+    this.statusOutbox = statusOutbox;
+  }
+
+  /**
+   * Mapping for the /metrics/builds url, returns the queue depth, wait times and rejections of the
+   * build queue.
+   *
+   * @return the current build queue statistics as JSON
+   */
+  @GetMapping("/metrics/builds")
+  public BuildScheduler.Stats builds() {
+    return buildScheduler.getStats();
+  }
+
+  /**
+   * Mapping for the /metrics/workspaces url, returns the size and reuse statistics of the
+   * workspace pool.
+   *
+   * @return the current workspace pool statistics as JSON
+   */
+  @GetMapping("/metrics/workspaces")
+  public WorkspacePool.Stats workspaces() {
+    return workspacePool.getStats();
+  }
+
+  /**
+   * Mapping for the /metrics/reaper url, returns the space still pending deletion and the space
+   * already reclaimed by the workspace reaper.
+   *
+   * @return the current reaper statistics as JSON
+   */
+  @GetMapping("/metrics/reaper")
+  public WorkspaceReaper.Stats reaper() {
+    return workspaceReaper.getStats();
+  }
+
+  /**
+   * Mapping for the /metrics/mirror url, returns the background refreshes and prefetches of the
+   * repository mirror.
+   *
+   * @return the current mirror refresher statistics as JSON
+   */
+  @GetMapping("/metrics/mirror")
+  public MirrorRefresher.Stats mirror() {
+    return mirrorRefresher.getStats();
+  }
+
+  /**
+   * Mapping for the /metrics/buildcache url, returns the hits, misses and size of the Gradle build
+   * cache served by this server.
+   *
+   * @return the current build cache statistics as JSON
+   */
+  @GetMapping("/metrics/buildcache")
+  public BuildCache.Stats buildCache() {
+    return buildCache.getStats();
+  }
+
+  /**
+   * Mapping for the /metrics/status url, returns the batch sizes and flush latencies of the writes
+   * to the build history journal.
+   *
+   * @return the current persistence statistics as JSON
+   */
+  @GetMapping("/metrics/status")
+  public Status.Stats status() {
+    return status.getStats();
+  }
+
+  /**
+   * Mapping for the /metrics/github url, returns the requests in flight and the connection reuse of
+   * the client posting commit statuses to GitHub.
+   *
+   * @return the current GitHub client statistics as JSON
+   */
+  @GetMapping("/metrics/github")
+  public GithubClient.Stats github() {
+    return githubClient.getStats();
+  }
+
+  /**
+   * Mapping for the /metrics/outbox url, returns the commit statuses waiting to be posted to GitHub
+   * and how often they were retried, collapsed or held back by the rate limit.
+   *
+   * @return the current status outbox statistics as JSON
+   */
+  @GetMapping("/metrics/outbox")
+  public StatusOutbox.Stats outbox() {
+    return statusOutbox.getStats();
+  }
+
+  /**
+   * Mapping for the /metrics/phases url, returns how often each phase of the build pipeline ran,
+   * how long it took and how often it was killed because of a timeout.
+   *
+   * @return the aggregated timings per pipeline phase as JSON
+   */
+  @GetMapping("/metrics/phases")
+  public Map<String, ProcessRunner.PhaseStats> phases() {
+    return ProcessRunner.getPhaseStats();
+  }
+}
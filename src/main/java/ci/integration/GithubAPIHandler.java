@@ -1,80 +1,59 @@
 package ci.integration;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import java.util.HashMap;
-import java.util.Map;
-import org.springframework.http.MediaType;
-import org.springframework.web.reactive.function.client.WebClient;
-import org.springframework.web.reactive.function.client.WebClientResponseException;
-import reactor.core.publisher.Mono;
+import ci.util.BuildRequest;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * GithubAPIHandler is class for sending commit status updates to GitHub
  *
  * <p>This class uses the GitHub REST API to post commit statuses back to GitHub repositories. It
- * authenticates, request formats, and does the error handling for the commit status updates.
+ * authenticates, request formats, and does the error handling for the commit status updates. The
+ * statuses are handed to the {@link StatusOutbox}, which posts them in the background and retries
+ * them until GitHub has accepted them, so the caller never waits for GitHub.
  */
 public class GithubAPIHandler {
-  private final JsonNode payload;
+  private final BuildRequest request;
+  private final StatusOutbox outbox;
 
-  public GithubAPIHandler(JsonNode payload) {
-    this.payload = payload;
+  /**
+   * Constructs a GithubAPIHandler for a push.
+   *
+   * @param request the build request of the push
+   * @param outbox the outbox the statuses are posted through
+   */
+  public GithubAPIHandler(BuildRequest request, StatusOutbox outbox) {
+    this.request = request;
+    this.outbox = outbox;
   }
 
   /**
-   * Method to send commit status POST request
+   * Method to send commit status POST request. The status replaces a status of the same commit
+   * that is still waiting in the outbox, so only the latest state is posted.
    *
    * @param token Github auth token saved in application-local.properties
    * @param targetUrl Target url made by ngrok saved in application-local.properties
    * @param state Can be one of: error, failure, pending, success
    * @param desc The text to be displayed in the status
+   * @return a future completed once GitHub has accepted the status or it was replaced by a newer
+   *     one, it fails with a {@link
+   *     org.springframework.web.reactive.function.client.WebClientResponseException} for 4xx
+   *     errors and once the retries of 5xx errors are used up
    */
-  public void sendPost(String token, String targetUrl, String state, String desc)
-      throws WebClientResponseException {
+  public CompletableFuture<Void> sendPost(
+      String token, String targetUrl, String state, String desc) {
 
     /* The branch was deleted no status should be sent */
-    if (payload.get("after").asText().equals("0000000000000000000000000000000000000000")) {
-      return;
+    if (request.isDeletion()) {
+      return CompletableFuture.completedFuture(null);
     }
 
-    Map<String, String> bodyMap = new HashMap<>();
-    bodyMap.put("state", state);
-    bodyMap.put("description", desc);
-    bodyMap.put("context", "ci/server");
-    bodyMap.put("target_url", targetUrl + "/history");
-
-    // System.out.println("SHA: " + payload.get("after").asText());
-    // System.out.println("Auth: " + token);
-    // System.out.println(bodyMap.toString());
-
-    WebClient client = WebClient.create("");
-
-    Mono<String> responseMono =
-        client
-            .post()
-            .uri(
-                "https://api.github.com/repos/{owner}/{repo}/statuses/{sha}",
-                payload.get("repository").get("owner").get("name").asText(), // daDevBoat
-                payload.get("repository").get("name").asText(),
-                payload.get("after").asText())
-            .header("Accept", "application/vnd.github+json")
-            .header("Authorization", "Bearer " + token)
-            .contentType(MediaType.APPLICATION_JSON)
-            .bodyValue(bodyMap)
-            .retrieve()
-            .bodyToMono(String.class);
-
-    try {
-      String response = responseMono.block();
-      // System.out.println("Response: " + response);
-    } catch (WebClientResponseException e) { // Wrong formating, sha, etc. 4xx and 5xx errors
-      System.err.println("API Call Failed!");
-      System.err.println("Status Code: " + e.getStatusCode());
-      System.err.println("Error Body: " + e.getResponseBodyAsString());
-      throw e;
-    } catch (Exception e) { // Something else went wrong (internet connection etc)
-      System.err.println(e.getMessage());
-      throw e;
-    }
+    return outbox.enqueue(
+        token,
+        request.owner(), // daDevBoat
+        request.repo(),
+        request.after(),
+        state,
+        desc,
+        targetUrl + "/history");
   }
 }
@@ -0,0 +1,170 @@
+package ci.integration;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import reactor.netty.ConnectionObserver;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+/**
+ * GithubClient is the one HTTP client the CI server uses to talk to the GitHub REST API.
+ *
+ * <p>All requests share a pool of at most {@code ci.github.maxConnections} connections, so the TLS
+ * handshake with GitHub is paid once per connection instead of once per request. Over https the
+ * client negotiates HTTP/2, which lets concurrent requests share a single connection. Requests are
+ * non-blocking and return a {@link Mono}, so no build thread waits for GitHub.
+ */
+@Component
+public class GithubClient {
+
+  /** Base url of the GitHub REST API. */
+  @Value("${ci.github.apiUrl:https://api.github.com}")
+  private String apiUrl = "https://api.github.com";
+
+  /** Largest number of pooled connections to GitHub. */
+  @Value("${ci.github.maxConnections:16}")
+  private int maxConnections = 16;
+
+  /** How long an idle connection stays in the pool before it is closed. */
+  @Value("${ci.github.idleSeconds:60}")
+  private long idleSeconds = 60;
+
+  /** How long a request waits for the response before it fails. */
+  @Value("${ci.github.timeoutSeconds:30}")
+  private long timeoutSeconds = 30;
+
+  private ConnectionProvider connections;
+  private WebClient webClient;
+
+  private final AtomicLong requests = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final AtomicLong maxInFlight = new AtomicLong();
+  private final AtomicLong connectionsOpened = new AtomicLong();
+  private final AtomicLong connectionsClosed = new AtomicLong();
+  private final AtomicLong connectionsReused = new AtomicLong();
+
+  /**
+   * Snapshot of the client counters.
+   *
+   * @param requests total number of requests sent
+   * @param failures total number of requests that failed or were rejected by GitHub
+   * @param inFlight number of requests waiting for their response
+   * @param maxInFlight largest number of requests that waited for their response at once
+   * @param connectionsOpened total number of connections opened to GitHub
+   * @param openConnections number of connections currently open, in use or idle in the pool
+   * @param reusedConnections total number of requests that acquired an open connection from the
+   *     pool instead of connecting
+   */
+  public record Stats(
+      long requests,
+      long failures,
+      int inFlight,
+      long maxInFlight,
+      long connectionsOpened,
+      long openConnections,
+      long reusedConnections) {}
+
+  /** Instructions for Springboot when initiating the GithubClient, creates the connection pool. */
+  @PostConstruct
+  public void init() {
+    connections =
+        ConnectionProvider.builder("github")
+            .maxConnections(maxConnections)
+            .maxIdleTime(Duration.ofSeconds(idleSeconds))
+            .build();
+    HttpClient http =
+        HttpClient.create(connections)
+            .responseTimeout(Duration.ofSeconds(timeoutSeconds))
+            .doOnConnected(connection -> connectionsOpened.incrementAndGet())
+            .doOnDisconnected(connection -> connectionsClosed.incrementAndGet())
+            .observe(
+                (connection, state) -> {
+                  // A new connection is CONNECTED, one taken from the pool is ACQUIRED
+                  if (state == ConnectionObserver.State.ACQUIRED) {
+                    connectionsReused.incrementAndGet();
+                  }
+                });
+    if (apiUrl.startsWith("https:")) {
+      // HTTP/2 is negotiated during the TLS handshake, plain http stays on HTTP/1.1
+      http = http.protocol(HttpProtocol.H2, HttpProtocol.HTTP11);
+    }
+    webClient =
+        WebClient.builder()
+            .baseUrl(apiUrl)
+            .clientConnector(new ReactorClientHttpConnector(http))
+            .defaultHeader("Accept", "application/vnd.github+json")
+            .build();
+  }
+
+  /** Instructions for Springboot when shutting down, closes the pooled connections. */
+  @PreDestroy
+  public void shutdown() {
+    if (connections != null) {
+      connections.dispose();
+    }
+  }
+
+  /**
+   * Posts a commit status. Nothing is sent until the returned Mono is subscribed.
+   *
+   * @param token GitHub auth token
+   * @param owner the owner of the repository
+   * @param repo the name of the repository
+   * @param sha the commit SHA hash
+   * @param body the state, description, context and target url of the status
+   * @return a Mono of the response once GitHub has accepted the status, whose headers carry the
+   *     rate limit, or failing with a {@link
+   *     org.springframework.web.reactive.function.client.WebClientResponseException} for 4xx and
+   *     5xx responses
+   */
+  public Mono<ResponseEntity<Void>> postStatus(
+      String token, String owner, String repo, String sha, Map<String, String> body) {
+    return webClient
+        .post()
+        .uri("/repos/{owner}/{repo}/statuses/{sha}", owner, repo, sha)
+        .header("Authorization", "Bearer " + token)
+        .contentType(MediaType.APPLICATION_JSON)
+        .bodyValue(body)
+        .retrieve()
+        .toBodilessEntity()
+        .doOnSubscribe(subscription -> started())
+        .doOnError(e -> failures.incrementAndGet())
+        .doFinally(signal -> inFlight.decrementAndGet());
+  }
+
+  /**
+   * Returns a snapshot of the client counters.
+   *
+   * @return the current client statistics
+   */
+  public Stats getStats() {
+    long opened = connectionsOpened.get();
+    return new Stats(
+        requests.get(),
+        failures.get(),
+        inFlight.get(),
+        maxInFlight.get(),
+        opened,
+        opened - connectionsClosed.get(),
+        connectionsReused.get());
+  }
+
+  /** Counts a request that is sent. */
+  private void started() {
+    requests.incrementAndGet();
+    maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+  }
+}
@@ -0,0 +1,613 @@
+package ci.integration;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+/**
+ * StatusOutbox holds the commit statuses that still have to be posted to GitHub, and posts them
+ * from a background dispatcher thread with the {@link GithubClient}.
+ *
+ * <p>The outbox is written to {@code ci.github.outboxFile} by a writer thread of its own, so
+ * statuses survive a restart. Changes made while a write is running are written together by the
+ * next one, and neither the thread sending a status nor a slow post to GitHub delays the write. A
+ * status replaces the status of the same commit that is still waiting, so a pending status that was
+ * never sent is collapsed into the final one. The dispatcher posts one status at a time, as GitHub
+ * asks for requests of one token to be sent serially. A status that failed with a 5xx response or a
+ * network error is retried with jittered exponential backoff, up to {@code ci.github.maxAttempts}
+ * times. When GitHub reports that the rate limit is exhausted, through {@code Retry-After} or
+ * {@code X-RateLimit-Remaining} and {@code X-RateLimit-Reset}, the dispatcher pauses until the
+ * limit is reset. Other 4xx responses are not retried.
+ */
+@Component
+public class StatusOutbox {
+
+  /** Context of the statuses posted by the CI server. */
+  static final String CONTEXT = "ci/server";
+
+  /** Wait after a secondary rate limit without a reset time, as recommended by GitHub. */
+  private static final long SECONDARY_LIMIT_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+  private static final TypeReference<List<Update>> UPDATES = new TypeReference<>() {};
+
+  /** File the outbox is persisted in. */
+  @Value("${ci.github.outboxFile:build/status-outbox.json}")
+  private String outboxFile = "build/status-outbox.json";
+
+  /** Backoff before the first retry of a failed status, doubled for every further retry. */
+  @Value("${ci.github.retryBaseMillis:1000}")
+  private long retryBaseMillis = 1000;
+
+  /** Longest backoff between two retries of a failed status. */
+  @Value("${ci.github.retryMaxMillis:300000}")
+  private long retryMaxMillis = 300000;
+
+  /** Number of attempts after which a failing status is given up. */
+  @Value("${ci.github.maxAttempts:10}")
+  private int maxAttempts = 10;
+
+  /** Authentication token used for statuses recovered from the outbox file after a restart. */
+  @Value("${server.auth:Invalid auth token}")
+  private String authToken;
+
+  private final ObjectMapper mapper = new ObjectMapper();
+  private final GithubClient client;
+
+  // Statuses waiting to be posted by their key, guarded by this
+  private final LinkedHashMap<String, Entry> waiting = new LinkedHashMap<>();
+  // The status being posted, guarded by this
+  private Entry posting;
+  // Time until which the rate limit of GitHub is exhausted, guarded by this
+  private long pausedUntil;
+  private long nextSeq;
+  // Whether the outbox changed since it was last written to the file, guarded by this
+  private boolean dirty;
+  private Thread dispatcher;
+  private Thread writer;
+  private boolean stopped;
+  // Whether the writer stops once the outbox is written, set after the dispatcher stopped
+  private boolean writerStopped;
+
+  private final AtomicLong posted = new AtomicLong();
+  private final AtomicLong retried = new AtomicLong();
+  private final AtomicLong collapsed = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+  private final AtomicLong rateLimited = new AtomicLong();
+
+  /**
+   * A commit status as it is persisted in the outbox. The token is never written to disk.
+   *
+   * @param owner the owner of the repository
+   * @param repo the name of the repository
+   * @param sha the commit SHA hash
+   * @param state Can be one of: error, failure, pending, success
+   * @param description The text to be displayed in the status
+   * @param targetUrl the url the status links to
+   * @param attempts the number of failed attempts to post the status
+   */
+  record Update(
+      String owner,
+      String repo,
+      String sha,
+      String state,
+      String description,
+      String targetUrl,
+      int attempts) {
+
+    /**
+     * Returns the key of the commit status, a newer update with the same key replaces this one.
+     *
+     * @return the repository, sha and context of the status
+     */
+    String key() {
+      return owner + "/" + repo + "@" + sha + "#" + CONTEXT;
+    }
+
+    /**
+     * Returns the body of the status request.
+     *
+     * @return the state, description, context and target url
+     */
+    Map<String, String> body() {
+      Map<String, String> body = new LinkedHashMap<>();
+      body.put("state", state);
+      body.put("description", description);
+      body.put("context", CONTEXT);
+      body.put("target_url", targetUrl);
+      return body;
+    }
+
+    /**
+     * Returns this update after one more failed attempt.
+     *
+     * @return the update with the attempt counted
+     */
+    Update failedOnce() {
+      return new Update(owner, repo, sha, state, description, targetUrl, attempts + 1);
+    }
+  }
+
+  /**
+   * A status in the outbox with the state that is only kept in memory.
+   *
+   * @param update the persisted status
+   * @param token the token the status is posted with
+   * @param seq the order in which the statuses were sent
+   * @param notBefore the time before which the status is not posted
+   * @param done completed once the status was posted or replaced by a newer one
+   */
+  private record Entry(
+      Update update, String token, long seq, long notBefore, CompletableFuture<Void> done) {}
+
+  /**
+   * Snapshot of the outbox counters.
+   *
+   * @param waiting number of statuses waiting to be posted, including the one being posted
+   * @param posted total number of statuses posted to GitHub
+   * @param retried total number of failed attempts that were retried
+   * @param collapsed total number of waiting statuses replaced by a newer status of their commit
+   * @param failed total number of statuses given up
+   * @param rateLimited total number of times the dispatcher paused for the rate limit
+   * @param pausedMillis time left until the rate limit is reset, 0 if it is not exhausted
+   */
+  public record Stats(
+      int waiting,
+      long posted,
+      long retried,
+      long collapsed,
+      long failed,
+      long rateLimited,
+      long pausedMillis) {}
+
+  /**
+   * Constructs a StatusOutbox posting with the given client.
+   *
+   * @param client the shared client the statuses are posted with
+   */
+  public StatusOutbox(GithubClient client) {
+    this.client = client;
+  }
+
+  /**
+   * Instructions for Springboot when initiating the StatusOutbox. Loads the statuses a previous run
+   * left in the outbox file and starts the dispatcher and the writer.
+   */
+  @PostConstruct
+  public void init() {
+    Path path = Paths.get(outboxFile);
+    if (Files.exists(path)) {
+      try {
+        List<Update> updates = mapper.readValue(path.toFile(), UPDATES);
+        synchronized (this) {
+          for (Update update : updates) {
+            waiting.put(update.key(), newEntry(update, authToken, 0));
+          }
+        }
+        System.out.println("[OUTBOX] Recovered " + updates.size() + " statuses");
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+    synchronized (this) {
+      dispatcher =
+          Thread.ofPlatform().name("status-dispatcher").daemon().start(this::dispatchLoop);
+      writer = Thread.ofPlatform().name("status-outbox-writer").daemon().start(this::writeLoop);
+    }
+  }
+
+  /**
+   * Instructions for Springboot when shutting down, stops the dispatcher and then the writer once
+   * it wrote the last changes. Statuses that were not posted stay in the outbox file for the next
+   * start.
+   */
+  @PreDestroy
+  public void shutdown() {
+    Thread current;
+    synchronized (this) {
+      stopped = true;
+      current = dispatcher;
+      notifyAll();
+    }
+    join(current);
+    synchronized (this) {
+      writerStopped = true;
+      current = writer;
+      notifyAll();
+    }
+    join(current);
+  }
+
+  /**
+   * Waits for a thread of the outbox to end, at most 10 seconds.
+   *
+   * @param thread the thread, or {@code null} if it was never started
+   */
+  private static void join(Thread thread) {
+    if (thread != null) {
+      try {
+        thread.join(TimeUnit.SECONDS.toMillis(10));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Adds a status to the outbox. A status of the same commit that is still waiting is replaced,
+   * and its future completes right away.
+   *
+   * @param token GitHub auth token
+   * @param owner the owner of the repository
+   * @param repo the name of the repository
+   * @param sha the commit SHA hash
+   * @param state Can be one of: error, failure, pending, success
+   * @param description The text to be displayed in the status
+   * @param targetUrl the url the status links to
+   * @return a future completed once the status was posted or replaced by a newer one, it fails
+   *     with the {@link WebClientResponseException} of GitHub if the status was given up
+   */
+  public synchronized CompletableFuture<Void> enqueue(
+      String token,
+      String owner,
+      String repo,
+      String sha,
+      String state,
+      String description,
+      String targetUrl) {
+    Update update = new Update(owner, repo, sha, state, description, targetUrl, 0);
+    Entry entry = newEntry(update, token, 0);
+    Entry replaced = waiting.remove(update.key());
+    if (replaced != null) {
+      collapsed.incrementAndGet();
+      replaced.done().complete(null);
+    }
+    waiting.put(update.key(), entry);
+    markDirty();
+    return entry.done();
+  }
+
+  /**
+   * Returns a snapshot of the outbox counters.
+   *
+   * @return the current outbox statistics
+   */
+  public synchronized Stats getStats() {
+    return new Stats(
+        waiting.size() + (posting == null ? 0 : 1),
+        posted.get(),
+        retried.get(),
+        collapsed.get(),
+        failed.get(),
+        rateLimited.get(),
+        Math.max(0, pausedUntil - System.currentTimeMillis()));
+  }
+
+  /**
+   * Loop of the dispatcher thread. Takes the status that is due first, in the order the statuses
+   * were sent, waits until it is due and the rate limit allows it, and posts it. Ends once the
+   * outbox is shut down.
+   */
+  private void dispatchLoop() {
+    while (true) {
+      Entry next;
+      synchronized (this) {
+        next = dueEntry();
+        long wait =
+            next == null ? 0 : Math.max(next.notBefore(), pausedUntil) - System.currentTimeMillis();
+        if (stopped) {
+          return;
+        }
+        if (next == null || wait > 0) {
+          try {
+            wait(Math.max(wait, 0));
+          } catch (InterruptedException e) {
+            return;
+          }
+          continue;
+        }
+        waiting.remove(next.update().key());
+        posting = next;
+      }
+      post(next);
+    }
+  }
+
+  /**
+   * Loop of the writer thread. Waits until the outbox changed and writes it to the outbox file,
+   * outside the lock, so the outbox keeps changing while the file is written. Ends once the writer
+   * is stopped and the last changes are written.
+   */
+  private void writeLoop() {
+    while (true) {
+      List<Update> changed;
+      synchronized (this) {
+        while (!dirty && !writerStopped) {
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+        if (!dirty) {
+          return;
+        }
+        dirty = false;
+        changed = updates();
+      }
+      persist(changed);
+    }
+  }
+
+  /**
+   * Returns the waiting status that is due first, in the order the statuses were sent. Must be
+   * called while holding this.
+   *
+   * @return the status, or {@code null} if none is waiting
+   */
+  private Entry dueEntry() {
+    Entry next = null;
+    for (Entry entry : waiting.values()) {
+      if (next == null
+          || entry.notBefore() < next.notBefore()
+          || (entry.notBefore() == next.notBefore() && entry.seq() < next.seq())) {
+        next = entry;
+      }
+    }
+    return next;
+  }
+
+  /**
+   * Posts a status and decides from the response whether it is done, retried or given up.
+   *
+   * @param entry the status to post
+   */
+  private void post(Entry entry) {
+    Update update = entry.update();
+    try {
+      ResponseEntity<Void> response =
+          client
+              .postStatus(entry.token(), update.owner(), update.repo(), update.sha(), update.body())
+              .block();
+      pauseIfExhausted(response == null ? null : response.getHeaders(), 0);
+      finish(entry, null);
+    } catch (WebClientResponseException e) {
+      long limitMillis = rateLimitMillis(e.getStatusCode(), e.getHeaders());
+      if (limitMillis >= 0) {
+        System.out.println("[OUTBOX] Rate limit of GitHub exhausted for " + limitMillis + " ms");
+        rateLimited.incrementAndGet();
+        pauseIfExhausted(null, limitMillis);
+        retry(entry, false, e);
+      } else if (e.getStatusCode().is5xxServerError()) {
+        retry(entry, true, e);
+      } else {
+        System.err.println("API Call Failed!");
+        System.err.println("Status Code: " + e.getStatusCode());
+        System.err.println("Error Body: " + e.getResponseBodyAsString());
+        finish(entry, e);
+      }
+    } catch (RuntimeException e) {
+      // Timeouts and connection errors
+      retry(entry, true, e);
+    }
+  }
+
+  /**
+   * Returns how long the dispatcher has to wait because of a rate limit response. GitHub answers
+   * 403 or 429 and tells the wait with {@code Retry-After} in seconds, or with {@code
+   * X-RateLimit-Reset} in epoch seconds once {@code X-RateLimit-Remaining} is 0.
+   *
+   * @param status the status code of the response
+   * @param headers the headers of the response
+   * @return the wait in milliseconds, or -1 if the response is not about the rate limit
+   */
+  static long rateLimitMillis(HttpStatusCode status, HttpHeaders headers) {
+    if (status.value() != 403 && status.value() != 429) {
+      return -1;
+    }
+    String retryAfter = headers.getFirst("Retry-After");
+    if (retryAfter != null) {
+      try {
+        return TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim()));
+      } catch (NumberFormatException e) {
+        return SECONDARY_LIMIT_MILLIS;
+      }
+    }
+    long untilReset = untilReset(headers);
+    if (untilReset >= 0) {
+      return untilReset;
+    }
+    // A 429 is always a rate limit, a 403 without rate limit headers is a missing permission
+    return status.value() == 429 ? SECONDARY_LIMIT_MILLIS : -1;
+  }
+
+  /**
+   * Returns how long until the rate limit is reset, if it is exhausted.
+   *
+   * @param headers the headers of a response
+   * @return the wait in milliseconds, or -1 if there are requests remaining
+   */
+  private static long untilReset(HttpHeaders headers) {
+    String remaining = headers.getFirst("X-RateLimit-Remaining");
+    String reset = headers.getFirst("X-RateLimit-Reset");
+    if (!"0".equals(remaining) || reset == null) {
+      return -1;
+    }
+    try {
+      long resetMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(reset.trim()));
+      return Math.max(0, resetMillis - System.currentTimeMillis());
+    } catch (NumberFormatException e) {
+      return SECONDARY_LIMIT_MILLIS;
+    }
+  }
+
+  /**
+   * Pauses the dispatcher for the given time, or until the rate limit reported by a successful
+   * response is reset.
+   *
+   * @param headers the headers of a successful response, or {@code null}
+   * @param millis the time to pause if there are no headers
+   */
+  private synchronized void pauseIfExhausted(HttpHeaders headers, long millis) {
+    long wait = headers == null ? millis : untilReset(headers);
+    if (wait > 0) {
+      pausedUntil = Math.max(pausedUntil, System.currentTimeMillis() + wait);
+    }
+  }
+
+  /**
+   * Puts a failed status back into the outbox with a backoff, unless a newer status of its commit
+   * has been sent meanwhile or it has run out of attempts.
+   *
+   * @param entry the failed status
+   * @param counts whether the failure counts as an attempt, rate limits do not
+   * @param error the error of the attempt
+   */
+  private synchronized void retry(Entry entry, boolean counts, RuntimeException error) {
+    posting = null;
+    if (waiting.containsKey(entry.update().key())) {
+      entry.done().complete(null);
+      markDirty();
+      return;
+    }
+    Update update = counts ? entry.update().failedOnce() : entry.update();
+    if (update.attempts() >= maxAttempts) {
+      System.err.println(
+          "[OUTBOX] Giving up " + update.key() + " after " + update.attempts() + " attempts");
+      failed.incrementAndGet();
+      entry.done().completeExceptionally(error);
+      markDirty();
+      return;
+    }
+    retried.incrementAndGet();
+    long delay = counts ? backoffMillis(update.attempts()) : 0;
+    System.out.println(
+        "[OUTBOX] Retrying " + update.key() + " in " + delay + " ms: " + error.getMessage());
+    waiting.put(
+        update.key(),
+        new Entry(
+            update, entry.token(), entry.seq(), System.currentTimeMillis() + delay, entry.done()));
+    markDirty();
+  }
+
+  /**
+   * Removes a status that was posted or given up from the outbox.
+   *
+   * @param entry the status
+   * @param error the error it was given up with, or {@code null} if it was posted
+   */
+  private synchronized void finish(Entry entry, RuntimeException error) {
+    posting = null;
+    if (error == null) {
+      posted.incrementAndGet();
+      entry.done().complete(null);
+    } else {
+      failed.incrementAndGet();
+      entry.done().completeExceptionally(error);
+    }
+    markDirty();
+  }
+
+  /**
+   * Returns the backoff before the next attempt, a random time between half and all of the
+   * exponential backoff of the attempt, so statuses that failed together are not retried together.
+   *
+   * @param attempts the number of failed attempts
+   * @return the backoff in milliseconds
+   */
+  private long backoffMillis(int attempts) {
+    long cap = Math.min(retryMaxMillis, retryBaseMillis << Math.min(attempts - 1, 30));
+    return ThreadLocalRandom.current().nextLong(cap / 2, Math.max(cap, cap / 2 + 1));
+  }
+
+  /**
+   * Returns a new entry for a status. Must be called while holding this.
+   *
+   * @param update the status
+   * @param token the token the status is posted with
+   * @param notBefore the time before which the status is not posted
+   * @return the entry
+   */
+  private Entry newEntry(Update update, String token, long notBefore) {
+    return new Entry(update, token, nextSeq++, notBefore, new CompletableFuture<>());
+  }
+
+  /**
+   * Records that the outbox changed and wakes the writer, and the dispatcher waiting for statuses.
+   * Must be called while holding this.
+   */
+  private void markDirty() {
+    dirty = true;
+    notifyAll();
+  }
+
+  /**
+   * Returns the waiting statuses and the status being posted, as they are written to the outbox
+   * file. Must be called while holding this.
+   *
+   * @return the statuses in the outbox
+   */
+  private List<Update> updates() {
+    List<Update> updates = new ArrayList<>(waiting.size() + 1);
+    if (posting != null) {
+      updates.add(posting.update());
+    }
+    for (Entry entry : waiting.values()) {
+      updates.add(entry.update());
+    }
+    return updates;
+  }
+
+  /**
+   * Writes the statuses to the outbox file. Only the writer calls this, so one write runs at a
+   * time. The statuses are written and forced to a temporary file first, which then replaces the
+   * outbox file, so it is never left half written or empty after a crash.
+   *
+   * @param updates the statuses in the outbox
+   */
+  private void persist(List<Update> updates) {
+    Path path = Paths.get(outboxFile);
+    try {
+      Path parent = path.toAbsolutePath().getParent();
+      Files.createDirectories(parent);
+      Path tmp = parent.resolve(path.getFileName() + ".tmp");
+      ByteBuffer buffer = ByteBuffer.wrap(mapper.writeValueAsBytes(updates));
+      try (FileChannel channel =
+          FileChannel.open(
+              tmp,
+              StandardOpenOption.CREATE,
+              StandardOpenOption.TRUNCATE_EXISTING,
+              StandardOpenOption.WRITE)) {
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+        channel.force(true);
+      }
+      Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+}
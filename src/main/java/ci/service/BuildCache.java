@@ -0,0 +1,419 @@
+package ci.service;
+
+import jakarta.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * BuildCache is a Spring service storing the entries of a Gradle HTTP build cache on disk.
+ *
+ * <p>Every build started by the {@link CompilationService} gets an init script that points the
+ * Gradle remote build cache at this server, so task outputs are shared between all workspaces and
+ * unchanged tasks are restored {@code FROM-CACHE} instead of being run again. Entries are evicted
+ * least recently used first when their total size exceeds {@code ci.buildCache.maxSizeMb}.
+ *
+ * <p>The cache is served by the same server that receives the webhooks, so only the builds may use
+ * it. Every instance generates a random password, which is only written into the init script
+ * readable by the server user, and requests without it are refused.
+ */
+@Service
+public class BuildCache {
+
+  /** Keys Gradle uses for cache entries, which are hex encoded hashes. */
+  private static final Pattern KEY = Pattern.compile("[0-9a-f]{1,128}");
+
+  /** User name of the builds in the credentials of the init script. */
+  private static final String USERNAME = "ci";
+
+  /** Local parent directory where the mirror, workspaces and build cache are stored. */
+  @Value("${ci.repoParentDir:not a file}")
+  private String repoParentDir;
+
+  /** Whether builds use the build cache of this server. */
+  @Value("${ci.buildCache.enabled:true}")
+  private boolean enabled = true;
+
+  /** Disk budget for all cache entries together in megabytes. */
+  @Value("${ci.buildCache.maxSizeMb:1024}")
+  private long maxSizeMb = 1024;
+
+  /** Largest entry that is accepted in megabytes, larger ones are rejected. */
+  @Value("${ci.buildCache.maxEntryMb:100}")
+  private long maxEntryMb = 100;
+
+  /** Port this server listens on, used in the cache url handed to the builds. */
+  @Value("${server.port:8080}")
+  private int serverPort = 8080;
+
+  // Size of every entry in least recently used order, guarded by this
+  private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+  // Counters, guarded by this
+  private long totalBytes;
+  private long hits;
+  private long misses;
+  private long stores;
+  private long evicted;
+  private long rejected;
+  private Path initScript;
+
+  // Password of the builds, generated for every instance and never configured or logged
+  private final String password = newPassword();
+
+  /**
+   * Snapshot of the cache counters.
+   *
+   * @param entries number of entries on disk
+   * @param totalBytes size of all entries
+   * @param budgetBytes the configured disk budget
+   * @param hits total number of loads served from the cache
+   * @param misses total number of loads of entries that were not in the cache
+   * @param stores total number of stored entries
+   * @param evicted total number of entries evicted to stay within the budget
+   * @param rejected total number of entries rejected because they were too large
+   */
+  public record Stats(
+      int entries,
+      long totalBytes,
+      long budgetBytes,
+      long hits,
+      long misses,
+      long stores,
+      long evicted,
+      long rejected) {}
+
+  /**
+   * Instructions for Springboot when initiating the BuildCache. Entries left on disk by a previous
+   * run are adopted in the order they were last used.
+   */
+  @PostConstruct
+  public void init() {
+    Path dir = entriesDir();
+    if (!Files.isDirectory(dir)) {
+      return;
+    }
+    try (Stream<Path> files = Files.list(dir)) {
+      List<Path> sorted = files.sorted(Comparator.comparingLong(BuildCache::lastModified)).toList();
+      synchronized (this) {
+        for (Path file : sorted) {
+          long size = Files.size(file);
+          entries.put(file.getFileName().toString(), size);
+          totalBytes += size;
+        }
+      }
+    } catch (IOException | UncheckedIOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Returns whether a string is a valid cache key.
+   *
+   * @param key the key from the request url
+   * @return {@code true} if the key is a hex encoded hash
+   */
+  public static boolean isValidKey(String key) {
+    return key != null && KEY.matcher(key).matches();
+  }
+
+  /**
+   * Returns whether the Authorization header of a request carries the credentials of the init
+   * script. The comparison takes the same time however much of the header matches.
+   *
+   * @param authorization the Authorization header of the request, or {@code null} if it has none
+   * @return {@code true} if the request comes from a build of this server
+   */
+  public boolean isAuthorized(String authorization) {
+    if (authorization == null) {
+      return false;
+    }
+    String credentials = USERNAME + ":" + password;
+    String expected =
+        "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8));
+    return MessageDigest.isEqual(
+        expected.getBytes(StandardCharsets.UTF_8), authorization.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Opens a cache entry for reading and marks it as recently used.
+   *
+   * @param key the cache key
+   * @return a stream of the entry, or {@code null} if the entry is not in the cache
+   * @throws IOException if the entry exists but cannot be opened
+   */
+  public InputStream load(String key) throws IOException {
+    Long size;
+    synchronized (this) {
+      size = entries.get(key);
+      if (size == null) {
+        misses++;
+        return null;
+      }
+    }
+    Path file = entriesDir().resolve(key);
+    try {
+      InputStream in = Files.newInputStream(file);
+      Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+      synchronized (this) {
+        hits++;
+      }
+      return in;
+    } catch (NoSuchFileException e) {
+      // The file was evicted or deleted behind the back of the index
+      synchronized (this) {
+        if (entries.remove(key, size)) {
+          totalBytes -= size;
+        }
+        misses++;
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Stores a cache entry and evicts the least recently used entries while the cache is over its
+   * disk budget. The entry is written to a temporary file first and then renamed, so a concurrent
+   * load never sees a partial entry. An entry of unknown size is read at most one byte past the
+   * entry limit, so an upload without a length cannot fill the disk.
+   *
+   * @param key the cache key
+   * @param in the content of the entry
+   * @param contentLength the announced size of the entry, or a negative value if it is unknown
+   * @return {@code true} if the entry was stored, {@code false} if it was too large
+   * @throws IOException if the entry cannot be written
+   */
+  public boolean store(String key, InputStream in, long contentLength) throws IOException {
+    if (contentLength > maxEntryBytes()) {
+      synchronized (this) {
+        rejected++;
+      }
+      return false;
+    }
+    Path tmp = tmpDir().resolve(key + "-" + UUID.randomUUID());
+    Files.createDirectories(tmp.getParent());
+    Files.createDirectories(entriesDir());
+    long size;
+    try {
+      size = copyAtMost(in, tmp, maxEntryBytes() + 1);
+      if (size > maxEntryBytes()) {
+        synchronized (this) {
+          rejected++;
+        }
+        return false;
+      }
+      Files.move(
+          tmp,
+          entriesDir().resolve(key),
+          StandardCopyOption.ATOMIC_MOVE,
+          StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+
+    List<String> victims = new ArrayList<>();
+    synchronized (this) {
+      Long previous = entries.put(key, size);
+      totalBytes += size - (previous == null ? 0 : previous);
+      stores++;
+      Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+      while (totalBytes > budgetBytes() && it.hasNext()) {
+        Map.Entry<String, Long> oldest = it.next();
+        if (oldest.getKey().equals(key)) {
+          continue;
+        }
+        totalBytes -= oldest.getValue();
+        victims.add(oldest.getKey());
+        it.remove();
+        evicted++;
+      }
+    }
+    for (String victim : victims) {
+      Files.deleteIfExists(entriesDir().resolve(victim));
+    }
+    return true;
+  }
+
+  /**
+   * Copies a stream into a new file, stopping once the given number of bytes was copied.
+   *
+   * @param in the stream to copy
+   * @param target the file to create
+   * @param limit the largest number of bytes copied
+   * @return the number of bytes copied, equal to the limit if the stream was longer
+   * @throws IOException if the stream cannot be read or the file cannot be written
+   */
+  private static long copyAtMost(InputStream in, Path target, long limit) throws IOException {
+    byte[] buffer = new byte[8192];
+    long size = 0;
+    try (OutputStream out = Files.newOutputStream(target)) {
+      int read;
+      while (size < limit
+          && (read = in.read(buffer, 0, (int) Math.min(buffer.length, limit - size))) > 0) {
+        out.write(buffer, 0, read);
+        size += read;
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Returns the init script that points the Gradle build cache of a build at this server. The
+   * script is written on first use, and on POSIX file systems only the server user can read it, as
+   * it holds the password of the cache.
+   *
+   * @return path to the init script, or {@code null} if the build cache is disabled or the script
+   *     cannot be written
+   */
+  public synchronized Path initScript() {
+    if (!enabled) {
+      return null;
+    }
+    if (initScript != null && Files.exists(initScript)) {
+      return initScript;
+    }
+    Path script = cacheDir().resolve("ci-build-cache.init.gradle");
+    String url = "http://localhost:" + serverPort + "/cache/";
+    String content =
+        "gradle.settingsEvaluated { settings ->\n"
+            + "  settings.buildCache {\n"
+            + "    local { enabled = false }\n"
+            + "    remote(HttpBuildCache) {\n"
+            + "      url = '"
+            + url
+            + "'\n"
+            + "      allowInsecureProtocol = true\n"
+            + "      credentials {\n"
+            + "        username = '"
+            + USERNAME
+            + "'\n"
+            + "        password = '"
+            + password
+            + "'\n"
+            + "      }\n"
+            + "      push = true\n"
+            + "    }\n"
+            + "  }\n"
+            + "}\n";
+    try {
+      Files.createDirectories(script.getParent());
+      // Created again, so a script of a previous run never keeps looser permissions
+      Files.deleteIfExists(script);
+      if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+        Files.createFile(
+            script,
+            PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+      }
+      Files.writeString(script, content);
+      initScript = script;
+      return script;
+    } catch (IOException e) {
+      e.printStackTrace();
+      return null;
+    }
+  }
+
+  /**
+   * Generates a random password for the builds.
+   *
+   * @return 32 random bytes, hex encoded
+   */
+  private static String newPassword() {
+    byte[] bytes = new byte[32];
+    new SecureRandom().nextBytes(bytes);
+    return HexFormat.of().formatHex(bytes);
+  }
+
+  /**
+   * Returns a consistent snapshot of the cache counters.
+   *
+   * @return the current build cache statistics
+   */
+  public synchronized Stats getStats() {
+    return new Stats(
+        entries.size(), totalBytes, budgetBytes(), hits, misses, stores, evicted, rejected);
+  }
+
+  /**
+   * Returns the directory of the build cache.
+   *
+   * @return path to the build cache directory
+   */
+  private Path cacheDir() {
+    return Paths.get(repoParentDir, "build-cache");
+  }
+
+  /**
+   * Returns the directory the cache entries are stored in, one file per key.
+   *
+   * @return path to the entries directory
+   */
+  private Path entriesDir() {
+    return cacheDir().resolve("entries");
+  }
+
+  /**
+   * Returns the directory entries are written to before they are complete.
+   *
+   * @return path to the temporary directory
+   */
+  private Path tmpDir() {
+    return cacheDir().resolve("tmp");
+  }
+
+  /**
+   * Returns the disk budget in bytes.
+   *
+   * @return the disk budget
+   */
+  private long budgetBytes() {
+    return maxSizeMb * 1024 * 1024;
+  }
+
+  /**
+   * Returns the size limit of a single entry in bytes.
+   *
+   * @return the entry size limit
+   */
+  private long maxEntryBytes() {
+    return maxEntryMb * 1024 * 1024;
+  }
+
+  /**
+   * Returns the last modification time of a file, or 0 if it cannot be read.
+   *
+   * @param file the file to look at
+   * @return the modification time in milliseconds
+   */
+  private static long lastModified(Path file) {
+    try {
+      return Files.getLastModifiedTime(file).toMillis();
+    } catch (IOException e) {
+      return 0;
+    }
+  }
+}
@@ -0,0 +1,94 @@
+package ci.service;
+
+import ci.util.BuildLog;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * BuildLogs is a Spring service managing the log files of the builds.
+ *
+ * <p>Every build writes its output to its own file in the {@code logs} directory below the parent
+ * directory. The history only keeps the handle of that file and the last {@code ci.logs.tailLines}
+ * lines of the output. While a build is running its log can be looked up by commit sha, so live
+ * viewers follow the output as it is produced.
+ */
+@Service
+public class BuildLogs {
+
+  /** Handles of log files, which never contain a path separator. */
+  private static final Pattern HANDLE = Pattern.compile("[0-9A-Za-z_-]+\\.log");
+
+  /** Local parent directory where the mirror, workspaces and logs are stored. */
+  @Value("${ci.repoParentDir:not a file}")
+  private String repoParentDir;
+
+  /** Number of last output lines of a build that are kept in memory and in the history. */
+  @Value("${ci.logs.tailLines:200}")
+  private int tailLines = BuildLog.DEFAULT_TAIL_LINES;
+
+  // Logs of the builds that are running or finished since the last build was opened, by sha
+  private final ConcurrentHashMap<String, BuildLog> running = new ConcurrentHashMap<>();
+
+  /**
+   * Creates the log file of a new build.
+   *
+   * @param sha the commit sha of the build
+   * @return the log of the build, which must be closed when the build is finished
+   * @throws IOException if the log file cannot be created
+   */
+  public BuildLog open(String sha) throws IOException {
+    Files.createDirectories(logsDir());
+    String prefix = sha != null && sha.matches("[0-9a-f]+") ? sha : "build";
+    String handle = prefix + "-" + System.currentTimeMillis() + ".log";
+    BuildLog log = new BuildLog(logsDir().resolve(handle), handle, tailLines);
+    running.values().removeIf(BuildLog::isClosed);
+    if (sha != null) {
+      running.put(sha, log);
+    }
+    return log;
+  }
+
+  /**
+   * Returns the log of the running build of a commit.
+   *
+   * @param sha the commit sha
+   * @return the log of the build, or empty if no build of the commit is running
+   */
+  public Optional<BuildLog> running(String sha) {
+    BuildLog log = sha == null ? null : running.get(sha);
+    if (log == null || log.isClosed()) {
+      return Optional.empty();
+    }
+    return Optional.of(log);
+  }
+
+  /**
+   * Returns the log file referenced by a handle.
+   *
+   * @param handle the handle stored with the commit
+   * @return the log file, or empty if the handle is invalid or the file no longer exists
+   */
+  public Optional<Path> resolve(String handle) {
+    if (handle == null || !HANDLE.matcher(handle).matches()) {
+      return Optional.empty();
+    }
+    Path file = logsDir().resolve(handle);
+    return Files.isRegularFile(file) ? Optional.of(file) : Optional.empty();
+  }
+
+  /**
+   * Returns the directory the log files are stored in.
+   *
+   * @return path to the logs directory
+   */
+  private Path logsDir() {
+    return Paths.get(repoParentDir, "logs");
+  }
+}
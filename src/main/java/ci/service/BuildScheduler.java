@@ -0,0 +1,297 @@
+package ci.service;
+
+import ci.util.BuildCancellation;
+import ci.util.BuildRequest;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.stereotype.Service;
+
+/**
+ * BuildScheduler is a Spring service that admits webhook builds into a bounded queue.
+ *
+ * <p>At most {@code ci.scheduler.maxConcurrentBuilds} builds run at the same time, and at most
+ * {@code ci.scheduler.queueCapacity} builds wait for a free slot. When the queue is full the build
+ * is rejected so the caller can apply backpressure instead of piling up work on the host.
+ *
+ * <p>Builds are keyed by repository and ref. A newer push to a ref replaces a build of the same ref
+ * that is still waiting in the queue, and if {@code ci.scheduler.cancelRunning} is enabled it also
+ * cancels a build of that ref that is already running. Replaced builds are reported as superseded.
+ *
+ * <p>The commit of an admitted build is prefetched into the mirror right away, before a worker
+ * picks the build up.
+ */
+@Service
+public class BuildScheduler {
+
+  /** Maximum number of builds that are allowed to wait for a free build slot. */
+  @Value("${ci.scheduler.queueCapacity:16}")
+  private int queueCapacity;
+
+  /** Maximum number of builds that are allowed to run at the same time. */
+  @Value("${ci.scheduler.maxConcurrentBuilds:2}")
+  private int maxConcurrentBuilds;
+
+  /** Seconds a rejected client is asked to wait before retrying. */
+  @Value("${ci.scheduler.retryAfterSeconds:30}")
+  private int retryAfterSeconds;
+
+  /** Whether a newer push cancels the running build of the same ref. */
+  @Value("${ci.scheduler.cancelRunning:false}")
+  private boolean cancelRunning;
+
+  private final CiService ciService;
+  private final MirrorRefresher mirrorRefresher;
+  private final TaskExecutor taskExecutor;
+
+  // Builds that are admitted but not yet started in arrival order, keyed by repository and ref,
+  // guarded by this
+  private final LinkedHashMap<String, BuildJob> queue = new LinkedHashMap<>();
+  // Builds that are currently running, keyed by repository and ref, guarded by this
+  private final Map<String, BuildJob> runningJobs = new HashMap<>();
+  // Number of workers currently draining the queue, guarded by this
+  private int running;
+
+  // Counters, guarded by this
+  private long accepted;
+  private long rejected;
+  private long superseded;
+  private long cancelled;
+  private long started;
+  private long totalWaitMillis;
+  private long maxWaitMillis;
+
+  /**
+   * Constructs a BuildScheduler that runs builds through the given CiService.
+   *
+   * @param ciService the CiService that executes a single build
+   * @param mirrorRefresher the MirrorRefresher prefetching the commits of admitted builds
+   * @param taskExecutor the executor the build workers are started on
+   */
+  public BuildScheduler(
+      CiService ciService,
+      MirrorRefresher mirrorRefresher,
+      @Qualifier("taskExecutor") TaskExecutor taskExecutor) {
+    this.ciService = ciService;
+    this.mirrorRefresher = mirrorRefresher;
+    this.taskExecutor = taskExecutor;
+  }
+
+  /**
+   * A build waiting in the queue or running.
+   *
+   * @param key the repository and ref the build belongs to
+   * @param request the build request of the push
+   * @param enqueuedAt the time in milliseconds the build was admitted
+   * @param cancellation the handle used to cancel the build while it runs
+   */
+  private record BuildJob(
+      String key, BuildRequest request, long enqueuedAt, BuildCancellation cancellation) {}
+
+  /**
+   * Snapshot of the scheduler counters.
+   *
+   * @param queueDepth number of builds waiting for a slot
+   * @param running number of builds currently running
+   * @param queueCapacity maximum number of waiting builds
+   * @param maxConcurrentBuilds maximum number of running builds
+   * @param accepted total number of admitted builds
+   * @param rejected total number of builds rejected because the queue was full
+   * @param superseded total number of queued builds replaced by a newer push
+   * @param cancelled total number of running builds cancelled by a newer push
+   * @param averageWaitMillis average time a started build spent in the queue
+   * @param maxWaitMillis longest time a started build spent in the queue
+   */
+  public record Stats(
+      int queueDepth,
+      int running,
+      int queueCapacity,
+      int maxConcurrentBuilds,
+      long accepted,
+      long rejected,
+      long superseded,
+      long cancelled,
+      long averageWaitMillis,
+      long maxWaitMillis) {}
+
+  /**
+   * Tries to admit a build. A build of the same repository and ref that is still queued is
+   * replaced, and depending on the configuration a running one is cancelled. If a build slot is
+   * free a worker is started right away, otherwise the build waits in the queue until a running
+   * worker picks it up.
+   *
+   * @param request the build request of the push
+   * @return {@code true} if the build was admitted, {@code false} if the queue is full or no worker
+   *     could be started for it
+   */
+  public boolean submit(BuildRequest request) {
+    String key = keyOf(request);
+    BuildJob job = new BuildJob(key, request, System.currentTimeMillis(), new BuildCancellation());
+    BuildJob replaced;
+    BuildJob toCancel = null;
+    boolean startWorker;
+    synchronized (this) {
+      replaced = queue.get(key);
+      if (replaced == null && queue.size() >= queueCapacity) {
+        rejected++;
+        return false;
+      }
+      // Replacing an existing key keeps the position of the superseded build in the queue
+      queue.put(key, job);
+      accepted++;
+      if (replaced != null) {
+        superseded++;
+      }
+      if (cancelRunning && runningJobs.containsKey(key)) {
+        toCancel = runningJobs.remove(key);
+        cancelled++;
+      }
+      startWorker = running < maxConcurrentBuilds;
+      if (startWorker) {
+        running++;
+      }
+    }
+
+    if (startWorker && !tryStartWorker() && !withdraw(job, replaced)) {
+      return false;
+    }
+
+    String sha = request.after();
+    // Fetch the commit while the build waits, so its checkout does not have to
+    mirrorRefresher.prefetch(sha);
+    if (replaced != null) {
+      System.out.println("[SCHEDULER] Queued build of " + key + " superseded by " + sha);
+      try {
+        ciService.markSuperseded(replaced.request(), sha);
+      } catch (Exception e) {
+        e.printStackTrace();
+      }
+    }
+    if (toCancel != null) {
+      System.out.println("[SCHEDULER] Cancelling running build of " + key + " for " + sha);
+      toCancel.cancellation().cancel();
+    }
+    return true;
+  }
+
+  /**
+   * Starts a worker draining the queue on the task executor.
+   *
+   * @return {@code true} if the worker was started, {@code false} if the executor rejected it
+   */
+  private boolean tryStartWorker() {
+    try {
+      taskExecutor.execute(this::drain);
+      return true;
+    } catch (TaskRejectedException e) {
+      synchronized (this) {
+        running--;
+      }
+      e.printStackTrace();
+      return false;
+    }
+  }
+
+  /**
+   * Takes back a build whose worker could not be started, unless a running worker picks it up
+   * anyway. The build it superseded is queued again in its place.
+   *
+   * @param job the build that was queued
+   * @param replaced the queued build it superseded, or {@code null}
+   * @return {@code true} if a running worker picks up the build, {@code false} if it was withdrawn
+   */
+  private synchronized boolean withdraw(BuildJob job, BuildJob replaced) {
+    if (running > 0 || queue.get(job.key()) != job) {
+      return true;
+    }
+    if (replaced != null) {
+      queue.put(job.key(), replaced);
+      superseded--;
+    } else {
+      queue.remove(job.key());
+    }
+    accepted--;
+    rejected++;
+    return false;
+  }
+
+  /**
+   * Returns the number of seconds a rejected client should wait before retrying.
+   *
+   * @return the retry delay in seconds
+   */
+  public int getRetryAfterSeconds() {
+    return retryAfterSeconds;
+  }
+
+  /**
+   * Returns a consistent snapshot of the queue depth, wait times and rejections.
+   *
+   * @return the current scheduler statistics
+   */
+  public synchronized Stats getStats() {
+    return new Stats(
+        queue.size(),
+        running,
+        queueCapacity,
+        maxConcurrentBuilds,
+        accepted,
+        rejected,
+        superseded,
+        cancelled,
+        started == 0 ? 0 : totalWaitMillis / started,
+        maxWaitMillis);
+  }
+
+  /**
+   * Builds the coalescing key of a push, which is the full repository name and the ref. Pushes
+   * without a ref are keyed by their commit SHA and therefore never coalesced.
+   *
+   * @param request the build request of the push
+   * @return the key identifying the branch the push belongs to
+   */
+  static String keyOf(BuildRequest request) {
+    if (request.ref().isBlank()) {
+      return request.after();
+    }
+    return request.fullName() + ":" + request.ref();
+  }
+
+  /**
+   * Worker loop, runs queued builds one after another until the queue is empty and then releases
+   * its build slot.
+   */
+  private void drain() {
+    while (true) {
+      BuildJob job;
+      synchronized (this) {
+        Iterator<BuildJob> it = queue.values().iterator();
+        if (!it.hasNext()) {
+          running--;
+          return;
+        }
+        job = it.next();
+        it.remove();
+        runningJobs.put(job.key(), job);
+        long waited = System.currentTimeMillis() - job.enqueuedAt();
+        started++;
+        totalWaitMillis += waited;
+        maxWaitMillis = Math.max(maxWaitMillis, waited);
+      }
+      try {
+        ciService.runBuild(job.request(), job.cancellation());
+      } catch (Exception e) {
+        e.printStackTrace();
+      } finally {
+        synchronized (this) {
+          runningJobs.remove(job.key(), job);
+        }
+      }
+    }
+  }
+}
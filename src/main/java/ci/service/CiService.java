@@ -1,14 +1,15 @@
 package ci.service;
 
 import ci.integration.GithubAPIHandler;
+import ci.integration.StatusOutbox;
 import ci.service.Status.CommitRecord;
-import ci.util.RepoSetup;
-import com.fasterxml.jackson.databind.JsonNode;
+import ci.util.BuildCancellation;
+import ci.util.BuildLog;
+import ci.util.BuildRequest;
 import java.io.File;
 import java.io.IOException;
 import java.util.List;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 
 /** CiService is a Spring service for managing the continuous integration pipeline */
@@ -23,18 +24,6 @@ public class CiService {
   @Value("${git.repoName:daDevBoat/ContinuousIntegration}")
   private String repoName;
 
-  /** Local parent directory where the Git repository will be cloned. */
-  @Value("${ci.repoParentDir:not a file}")
-  private String repoParentDir;
-
-  /** SSH URL of the Git repository used for cloning and pulling updates. */
-  @Value("${ci.repoSsh:git-ssh}")
-  String repoSsh;
-
-  /** Local directory name of the repository. */
-  @Value("${ci.repoID:ContinuousIntegration}")
-  String repoID;
-
   /** Authentication token used when sending build status notifications. */
   @Value("${server.auth:Invalid auth token}")
   private String authToken;
@@ -44,41 +33,81 @@ public class CiService {
   private String targetUrl;
 
   private final Status status;
+  private final WorkspacePool workspacePool;
+  private final MirrorRefresher mirrorRefresher;
+  private final BuildLogs buildLogs;
+  private final StatusOutbox statusOutbox;
+
+  /** Service responsible for compiling the project. */
+  private CompilationService compilationService;
 
   /**
-   * Constructs a CiService with the specified Status service
+   * Constructs a CiService with the specified Status service, WorkspacePool, MirrorRefresher,
+   * CompilationService, BuildLogs and StatusOutbox
    *
    * @param status the Status service used to store and retrieve build history
+   * @param workspacePool the WorkspacePool providing the checkouts the builds run in
+   * @param mirrorRefresher the MirrorRefresher fetching the commit of a build into the mirror
+   * @param compilationService the CompilationService running the Gradle build
+   * @param buildLogs the BuildLogs service creating the log file of every build
+   * @param statusOutbox the outbox the commit statuses are posted through
    */
-  public CiService(Status status) {
+  public CiService(
+      Status status,
+      WorkspacePool workspacePool,
+      MirrorRefresher mirrorRefresher,
+      CompilationService compilationService,
+      BuildLogs buildLogs,
+      StatusOutbox statusOutbox) {
     this.status = status;
+    this.workspacePool = workspacePool;
+    this.mirrorRefresher = mirrorRefresher;
+    this.compilationService = compilationService;
+    this.buildLogs = buildLogs;
+    this.statusOutbox = statusOutbox;
   }
 
-  /** Service responsible for compiling the project. */
-  private CompilationService compilationService = new CompilationService();
+  /**
+   * Executes the CI build pipeline for a GitHub webhook push event. The call blocks until the build
+   * is finished, builds are started in the background by the {@link BuildScheduler}.
+   *
+   * @param request the build request of the push containing repository and commit information
+   */
+  public void runBuild(BuildRequest request) {
+    runBuild(request, new BuildCancellation());
+  }
 
   /**
-   * Executes the CI build pipeline for a GitHub webhook push event
+   * Executes the CI build pipeline for a GitHub webhook push event. If the given handle is
+   * cancelled while the build runs, the build is stopped and reported as superseded. The commit
+   * statuses are posted in the background, so the build never waits for GitHub.
    *
-   * @param payload the GitHub webhook payload containing repository and commit information
+   * @param request the build request of the push containing repository and commit information
+   * @param cancellation the handle used by the {@link BuildScheduler} to cancel the build
    */
-  @Async
-  public void runBuild(JsonNode payload) {
+  public void runBuild(BuildRequest request, BuildCancellation cancellation) {
 
     /* Sending pending status back to GitHub */
-    GithubAPIHandler apiHandler = new GithubAPIHandler(payload);
+    GithubAPIHandler apiHandler = new GithubAPIHandler(request, statusOutbox);
     apiHandler.sendPost(
         authToken, targetUrl, "pending", "Starting building and testing (cross your fingers)");
 
-    String sha = payload.path("after").asText("");
-    String runDir = repoParentDir + "/test/" + sha;
+    String sha = request.after();
+    String branch = request.branch();
+    System.out.println("[CI] Building " + sha + " of delivery " + request.deliveryId());
+    WorkspacePool.Workspace workspace;
 
-    /* Building the repo if it doesnt exist yet, and pulling newest changes */
+    /* Updating the shared mirror if the commit is missing, and leasing a workspace at the commit */
     try {
-      RepoSetup.createDir(runDir);
-      RepoSetup.cloneRepo(runDir, repoID, repoSsh);
-      RepoSetup.updateRepo(runDir, repoID, sha);
+      mirrorRefresher.fetch(sha, cancellation);
+      workspace = workspacePool.lease(sha, cancellation);
     } catch (Exception e) {
+      if (cancellation.isCancelled()) {
+        // The git command was killed because a newer push superseded the build
+        reportSuperseded(
+            apiHandler, sha, branch, List.of("Superseded before the build started"), null);
+        return;
+      }
       String errorMsg = "";
       switch (e) {
         case IllegalStateException is -> errorMsg = "Git error: Illegal State";
@@ -88,19 +117,21 @@ public class CiService {
       }
       e.printStackTrace();
       apiHandler.sendPost(authToken, targetUrl, "failure", errorMsg);
+      return;
+    }
 
-      try {
-        RepoSetup.removeDir(runDir);
-      } catch (Exception inner) {
-        inner.printStackTrace();
-      }
+    if (cancellation.isCancelled()) {
+      workspacePool.release(workspace);
+      reportSuperseded(
+          apiHandler, sha, branch, List.of("Superseded before the build started"), null);
       return;
     }
 
-    File dir = new File(runDir, repoID);
+    File dir = workspace.getDir();
 
     /* Check if the directory exists */
     if (!dir.isDirectory()) {
+      workspacePool.release(workspace);
       apiHandler.sendPost(
           authToken,
           targetUrl,
@@ -111,12 +142,19 @@ public class CiService {
     try {
       /* Starts the compilation */
       System.out.println("[CI] Starting Compilation...");
-      CompilationService.CompilationResult compilationResult = compilationService.compile(dir);
+      CompilationService.CompilationResult compilationResult;
+      String logFile;
+      try (BuildLog log = buildLogs.open(sha)) {
+        logFile = log.getHandle();
+        compilationResult = compilationService.compile(dir, cancellation, log);
+      } finally {
+        workspacePool.release(workspace);
+      }
 
-      try {
-        RepoSetup.removeDir(runDir);
-      } catch (Exception rm) {
-        rm.printStackTrace();
+      if (cancellation.isCancelled()) {
+        System.out.println("[CI] Build was superseded by a newer push");
+        reportSuperseded(apiHandler, sha, branch, compilationResult.getOutput(), logFile);
+        return;
       }
 
       if (!compilationResult.isSuccess()) {
@@ -124,7 +162,9 @@ public class CiService {
         System.out.println("[CI] Exit code: " + compilationResult.getExitCode());
 
         // Save the failed build
-        status.put(new CommitRecord(sha, "FAILURE", compilationResult.getOutput()));
+        status.put(
+            new CommitRecord(sha, "FAILURE", compilationResult.getOutput(), logFile)
+                .withBranch(branch));
         System.out.println("[CI] Output:\n" + compilationResult.getOutput());
 
         apiHandler.sendPost(
@@ -136,13 +176,16 @@ public class CiService {
       }
       System.out.println("[CI] Compilation SUCCEEDED");
 
-      status.put(new CommitRecord(sha, "SUCCESS", compilationResult.getOutput()));
+      status.put(
+          new CommitRecord(sha, "SUCCESS", compilationResult.getOutput(), logFile)
+              .withBranch(branch));
 
     } catch (IOException e) {
       /* Create a list with the exception message. */
       status.put(
           new CommitRecord(
-              sha, "ERROR", List.of("Failed to execute build process: " + e.getMessage())));
+                  sha, "ERROR", List.of("Failed to execute build process: " + e.getMessage()))
+              .withBranch(branch));
 
       e.printStackTrace();
       apiHandler.sendPost(
@@ -153,7 +196,8 @@ public class CiService {
       /* Create a list with the exception message. */
       status.put(
           new CommitRecord(
-              sha, "ERROR", List.of("Command execution was interrupted: " + e.getMessage())));
+                  sha, "ERROR", List.of("Command execution was interrupted: " + e.getMessage()))
+              .withBranch(branch));
 
       Thread.currentThread().interrupt();
       e.printStackTrace();
@@ -163,4 +207,36 @@ public class CiService {
 
     apiHandler.sendPost(authToken, targetUrl, "success", "Build was successful (somehow)!");
   }
+
+  /**
+   * Marks a queued build that was replaced by a newer push to the same branch as superseded,
+   * without building it.
+   *
+   * @param request the build request of the superseded push
+   * @param newerSha the commit SHA of the push that replaced it
+   */
+  public void markSuperseded(BuildRequest request, String newerSha) {
+    reportSuperseded(
+        new GithubAPIHandler(request, statusOutbox),
+        request.after(),
+        request.branch(),
+        List.of("Superseded by newer push " + newerSha),
+        null);
+  }
+
+  /**
+   * Stores a superseded build in the history and reports it to GitHub. GitHub has no commit status
+   * for superseded builds, so it is reported as an error with a describing message.
+   *
+   * @param apiHandler the handler used to post the commit status
+   * @param sha the commit SHA of the superseded build
+   * @param branch the branch of the superseded build, or {@code null} if it is unknown
+   * @param logs the last lines of the build logs to store with the commit
+   * @param logFile the handle of the complete build log, or {@code null} if the build never ran
+   */
+  private void reportSuperseded(
+      GithubAPIHandler apiHandler, String sha, String branch, List<String> logs, String logFile) {
+    status.put(new CommitRecord(sha, "SUPERSEDED", logs, logFile).withBranch(branch));
+    apiHandler.sendPost(authToken, targetUrl, "error", "Superseded by a newer push");
+  }
 }
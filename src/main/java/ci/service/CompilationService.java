@@ -1,13 +1,15 @@
 package ci.service;
 
-import java.io.BufferedReader;
+import ci.util.BuildCancellation;
+import ci.util.BuildLog;
+import ci.util.ProcessRunner;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 /**
@@ -16,10 +18,57 @@ import org.springframework.stereotype.Service;
  * <p>This CompilationService class executes Gradle build commands on project directories and
  * captures the build output and exit status. It uses the Gradle wrapper (gradlew) to ensure
  * consistent build execution.
+ *
+ * <p>A build that runs longer than {@code ci.build.timeoutMinutes} or produces no output for
+ * {@code ci.build.idleTimeoutMinutes} is killed together with its process tree and reported as
+ * failed.
+ *
+ * <p>With the default {@code ci.build.engine=cold} every build passes {@code --no-daemon}, so it
+ * runs in a fresh JVM that exits with the build, whatever {@code org.gradle.daemon} the project
+ * sets. With {@code ci.build.engine=daemon} the wrapper is started directly instead of through a
+ * login shell, and the build runs in a long-lived Gradle daemon. All builds share one Gradle user
+ * home, so the wrapper distribution is downloaded once and each build connects to an already warm
+ * daemon instead of starting a new JVM. Gradle starts another daemon when all compatible ones are
+ * busy, which keeps one warm daemon per concurrent build.
  */
 @Service
 public class CompilationService {
 
+  /** Maximum run time of a build in minutes, after which the build is killed. */
+  @Value("${ci.build.timeoutMinutes:60}")
+  private long timeoutMinutes = 60;
+
+  /** Maximum time in minutes a build may run without producing output. */
+  @Value("${ci.build.idleTimeoutMinutes:15}")
+  private long idleTimeoutMinutes = 15;
+
+  /** How the Gradle build is started: cold or daemon. */
+  @Value("${ci.build.engine:COLD}")
+  private Engine engine = Engine.COLD;
+
+  /** Gradle user home shared by daemon builds, empty for the default of the server user. */
+  @Value("${ci.build.gradleUserHome:}")
+  private String gradleUserHome = "";
+
+  private final BuildCache buildCache;
+
+  /**
+   * Constructs a CompilationService whose builds use the given build cache.
+   *
+   * @param buildCache the BuildCache of this server, shared by all builds
+   */
+  public CompilationService(BuildCache buildCache) {
+    this.buildCache = buildCache;
+  }
+
+  /** How the Gradle build of a project is started. */
+  public enum Engine {
+    /** Start {@code ./gradlew --no-daemon build} through a login shell, as a fresh JVM. */
+    COLD,
+    /** Start {@code ./gradlew --daemon build} directly and reuse the warm Gradle daemons. */
+    DAEMON
+  }
+
   /**
    * Compiles a Java project using Gradle by executing the {@code gradlew build} command
    *
@@ -32,6 +81,45 @@ public class CompilationService {
    *     directory.
    */
   public CompilationResult compile(File projectDir) throws IOException, InterruptedException {
+    return compile(projectDir, new BuildCancellation());
+  }
+
+  /**
+   * Compiles a Java project using Gradle by executing the {@code gradlew build} command. The build
+   * process is attached to the given cancellation handle, so cancelling it kills the whole {@code
+   * gradlew} process tree.
+   *
+   * @param projectDir the directory containing the Gradle project to compile.
+   * @param cancellation the handle used to cancel the running build
+   * @return a {@link CompilationResult} containing the build status, output, and exit code.
+   * @throws IOException if an I/O error occurs while reading the process output.
+   * @throws InterruptedException if the current thread is interrupted while waiting for the build
+   *     process to compile.
+   * @throws IllegalArgumentException if projectDir is null, does not exists, or it is not a
+   *     directory.
+   */
+  public CompilationResult compile(File projectDir, BuildCancellation cancellation)
+      throws IOException, InterruptedException {
+    return compile(projectDir, cancellation, BuildLog.inMemory(BuildLog.DEFAULT_TAIL_LINES));
+  }
+
+  /**
+   * Compiles a Java project using Gradle by executing the {@code gradlew build} command. The output
+   * is streamed into the given log as it is produced, and the result only carries the tail of the
+   * log.
+   *
+   * @param projectDir the directory containing the Gradle project to compile.
+   * @param cancellation the handle used to cancel the running build
+   * @param log the log receiving the build output
+   * @return a {@link CompilationResult} containing the build status, output tail, and exit code.
+   * @throws IOException if an I/O error occurs while reading the process output.
+   * @throws InterruptedException if the current thread is interrupted while waiting for the build
+   *     process to compile.
+   * @throws IllegalArgumentException if projectDir is null, does not exists, or it is not a
+   *     directory.
+   */
+  public CompilationResult compile(File projectDir, BuildCancellation cancellation, BuildLog log)
+      throws IOException, InterruptedException {
     if (projectDir == null) {
       throw new IllegalArgumentException("Project directory cannot be null.");
     }
@@ -42,41 +130,91 @@ public class CompilationService {
     }
 
     System.out.println("[COMPILATION] Starting Compilation for: " + projectDir.getAbsolutePath());
-    System.out.println("[COMPILATION] Executing ./gradlew build");
+    String[] command = buildCommand(buildCache.initScript());
+    System.out.println("[COMPILATION] Executing " + String.join(" ", command));
 
-    ProcessBuilder pb = new ProcessBuilder("bash", "-lc", "./gradlew build");
-    pb.directory(projectDir);
-    pb.redirectErrorStream(true);
-
-    Process p = pb.start();
-
-    List<String> output;
-    try (BufferedReader reader =
-        new BufferedReader(new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8))) {
-      output = reader.lines().collect(Collectors.toCollection(ArrayList::new));
-    }
-
-    int exitCode = p.waitFor();
-    boolean success = (exitCode == 0);
+    String phase = engine == Engine.DAEMON ? "build-daemon" : "build";
+    ProcessRunner.Result result =
+        new ProcessRunner(phase, projectDir, command)
+            .wallTimeout(Duration.ofMinutes(timeoutMinutes))
+            .idleTimeout(Duration.ofMinutes(idleTimeoutMinutes))
+            .onLine(log::append)
+            .cancellation(cancellation)
+            .run();
+    int exitCode = result.exitCode();
+    boolean success = result.isSuccess() && !cancellation.isCancelled();
 
     System.out.println("[COMPILATION] Exit code: " + exitCode);
 
-    if (success) {
+    if (cancellation.isCancelled()) {
+      System.out.println("[COMPILATION] Build cancelled");
+      log.append("Build cancelled (exit " + exitCode + ")");
+    } else if (result.timedOut()) {
+      // The runner already appended the exceeded timeout to the output
+      System.out.println("[COMPILATION] Build killed: " + result.timeout());
+    } else if (success) {
       System.out.println("[COMPILATION] Build successful");
-      output.add("Build successful");
+      log.append("Build successful");
     } else {
       System.out.println("[COMPILATION] Build failed");
-      output.add("Compilation failed (exit " + exitCode + ")");
+      log.append("Compilation failed (exit " + exitCode + ")");
+    }
+
+    return new CompilationResult(success, log.tail(), exitCode);
+  }
+
+  /**
+   * Returns the command starting the Gradle build for the configured engine.
+   *
+   * @param initScript the init script pointing the build at the build cache of this server, or
+   *     {@code null} to build without the shared build cache
+   * @return the command and its arguments
+   */
+  String[] buildCommand(Path initScript) {
+    List<String> args = new ArrayList<>();
+    if (engine == Engine.COLD) {
+      // Overrides org.gradle.daemon=true of the project, the build JVM exits with the build
+      args.add("--no-daemon");
+    } else {
+      args.add("--daemon");
+      if (!gradleUserHome.isBlank()) {
+        args.add("--gradle-user-home");
+        args.add(gradleUserHome);
+      }
     }
+    args.add("build");
+    if (initScript != null) {
+      args.add("--build-cache");
+      args.add("--init-script");
+      args.add(initScript.toString());
+    }
+
+    if (engine == Engine.COLD) {
+      StringBuilder line = new StringBuilder("./gradlew");
+      for (String arg : args) {
+        line.append(' ').append(arg.matches("[\\w./=-]+") ? arg : shellQuote(arg));
+      }
+      return new String[] {"bash", "-lc", line.toString()};
+    }
+    args.add(0, "./gradlew");
+    return args.toArray(new String[0]);
+  }
 
-    return new CompilationResult(success, output, exitCode);
+  /**
+   * Quotes an argument for the login shell of a cold build.
+   *
+   * @param arg the argument
+   * @return the argument in single quotes
+   */
+  private static String shellQuote(String arg) {
+    return "'" + arg.replace("'", "'\\''") + "'";
   }
 
   /**
    * CompilationResult is a class that represents the result of a Gradle build compilation.
    *
-   * <p>The result contains whether the compilation was successful, the complete build output, and
-   * the process exit code.
+   * <p>The result contains whether the compilation was successful, the last lines of the build
+   * output, and the process exit code. The complete output is in the log of the build.
    */
   public static class CompilationResult {
 
@@ -89,7 +227,7 @@ public class CompilationService {
      *
      * @param success {@code true} if the compilation succeded (exit code 0). {@code false}
      *     otherwise
-     * @param output the complete build output (stdout and stderr combined).
+     * @param output the last lines of the build output (stdout and stderr combined).
      * @param exitCode the process exit code; 0 indicates success, non-zero indicates failure.
      */
     public CompilationResult(boolean success, List<String> output, int exitCode) {
@@ -109,9 +247,9 @@ public class CompilationService {
     }
 
     /**
-     * Returns the complete build output.
+     * Returns the last lines of the build output.
      *
-     * @return the complete build output as a string, never {@code null}
+     * @return the tail of the build output, never {@code null}
      */
     public List<String> getOutput() {
       return output;
@@ -0,0 +1,387 @@
+package ci.service;
+
+import ci.service.Status.CommitRecord;
+import ci.service.Status.HistoryFilter;
+import ci.service.Status.HistoryPage;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * H2StatusStore persists the history of the {@link Status} service in an embedded H2 database in
+ * file mode.
+ *
+ * <p>Every commit is one row, and a batch of records is merged into the table in one transaction.
+ * The table has indexes on the time, on the state and the branch followed by the time, and its
+ * primary key on the sha serves sha prefixes. Filtered history queries like the failures on main
+ * in the last week are therefore index lookups in the database instead of scans of the history in
+ * memory. Removed commits are deleted right away, so the database needs no compaction.
+ *
+ * <p>A database that is opened empty imports the history of the store it replaces, so switching
+ * {@code ci.status.store} from json to h2 keeps the commits of the json snapshot and its journal.
+ * The json files are left in place, the import only runs while the table is empty.
+ */
+final class H2StatusStore implements StatusStore {
+
+  private static final TypeReference<List<String>> LOGS = new TypeReference<>() {};
+
+  private static final String[] SCHEMA = {
+    "CREATE TABLE IF NOT EXISTS commits ("
+        + "sha VARCHAR PRIMARY KEY, state VARCHAR, time VARCHAR, time_millis BIGINT NOT NULL, "
+        + "branch VARCHAR, log_file VARCHAR, logs CLOB)",
+    "CREATE INDEX IF NOT EXISTS commits_time ON commits (time_millis, sha)",
+    "CREATE INDEX IF NOT EXISTS commits_state ON commits (state, time_millis)",
+    "CREATE INDEX IF NOT EXISTS commits_branch ON commits (branch, time_millis)"
+  };
+
+  private static final String MERGE =
+      "MERGE INTO commits (sha, state, time, time_millis, branch, log_file, logs) KEY (sha) "
+          + "VALUES (?, ?, ?, ?, ?, ?, ?)";
+
+  private static final String DELETE = "DELETE FROM commits WHERE sha = ?";
+
+  private static final String COLUMNS = "sha, state, time, branch, log_file, time_millis";
+
+  private final ObjectMapper mapper = new ObjectMapper();
+  private final String url;
+  // Store whose history is imported into an empty database, or null
+  private final StatusStore importFrom;
+  // Keeps the database open and writes the batches, null until opened, guarded by this
+  private Connection connection;
+
+  /**
+   * Constructs a H2StatusStore. H2 adds the extension {@code .mv.db} to the database file.
+   *
+   * @param databasePath the path of the database file without extension
+   */
+  H2StatusStore(Path databasePath) {
+    this(databasePath, null);
+  }
+
+  /**
+   * Constructs a H2StatusStore that imports the history of another store when it is opened empty.
+   *
+   * @param databasePath the path of the database file without extension
+   * @param importFrom the store whose history is imported, or {@code null} for none
+   */
+  H2StatusStore(Path databasePath, StatusStore importFrom) {
+    // Commits are written to the file right away instead of after H2's default write delay
+    this.url = "jdbc:h2:file:" + databasePath.toAbsolutePath() + ";WRITE_DELAY=0";
+    this.importFrom = importFrom;
+  }
+
+  /**
+   * Opens the database and creates the table and its indexes if they do not exist yet. If the table
+   * is empty, the history of the store to import from is merged into it.
+   *
+   * @throws IOException if the database cannot be opened or the history cannot be imported
+   */
+  @Override
+  public synchronized void open() throws IOException {
+    try {
+      connection = DriverManager.getConnection(url, "sa", "");
+      try (Statement statement = connection.createStatement()) {
+        for (String sql : SCHEMA) {
+          statement.execute(sql);
+        }
+      }
+    } catch (SQLException e) {
+      throw new IOException("Cannot open the status database " + url, e);
+    }
+    if (importFrom != null && isEmpty()) {
+      importHistory();
+    }
+  }
+
+  /**
+   * Streams the commits of the database without their logs.
+   *
+   * @param loader receives the commits
+   * @throws IOException if the database cannot be read
+   */
+  @Override
+  public void load(Loader loader) throws IOException {
+    query("SELECT " + COLUMNS + " FROM commits", false, loader::metadata);
+  }
+
+  /**
+   * Streams the commits of the database with their logs.
+   *
+   * @param consumer receives the commits with their logs
+   * @throws IOException if the database cannot be read
+   */
+  @Override
+  public void loadLogs(Consumer<CommitRecord> consumer) throws IOException {
+    query("SELECT " + COLUMNS + ", logs FROM commits", true, consumer);
+  }
+
+  /**
+   * Merges a batch of records into the table in one transaction.
+   *
+   * @param records the records to write
+   * @throws IOException if the batch cannot be written, then the transaction is rolled back
+   */
+  @Override
+  public synchronized void append(List<CommitRecord> records) throws IOException {
+    if (connection == null) {
+      throw new IOException("The status database is not open");
+    }
+    try {
+      connection.setAutoCommit(false);
+      try (PreparedStatement merge = connection.prepareStatement(MERGE)) {
+        for (CommitRecord record : records) {
+          List<String> logs = record.logs();
+          merge.setString(1, record.sha());
+          merge.setString(2, record.state());
+          merge.setString(3, record.time());
+          merge.setLong(4, HistoryEntry.parseTime(record.time()));
+          merge.setString(5, record.branch());
+          merge.setString(6, record.logFile());
+          merge.setString(7, logs == null ? null : mapper.writeValueAsString(logs));
+          merge.addBatch();
+        }
+        merge.executeBatch();
+        connection.commit();
+      } catch (SQLException e) {
+        connection.rollback();
+        throw e;
+      } finally {
+        connection.setAutoCommit(true);
+      }
+    } catch (SQLException e) {
+      throw new IOException("Cannot write to the status database", e);
+    }
+  }
+
+  /**
+   * Deletes the rows of removed commits in one transaction.
+   *
+   * @param shas the shas of the commits
+   * @throws IOException if the rows cannot be deleted, then the transaction is rolled back
+   */
+  @Override
+  public synchronized void remove(Collection<String> shas) throws IOException {
+    if (connection == null) {
+      throw new IOException("The status database is not open");
+    }
+    try {
+      connection.setAutoCommit(false);
+      try (PreparedStatement delete = connection.prepareStatement(DELETE)) {
+        for (String sha : shas) {
+          delete.setString(1, sha);
+          delete.addBatch();
+        }
+        delete.executeBatch();
+        connection.commit();
+      } catch (SQLException e) {
+        connection.rollback();
+        throw e;
+      } finally {
+        connection.setAutoCommit(true);
+      }
+    } catch (SQLException e) {
+      throw new IOException("Cannot delete from the status database", e);
+    }
+  }
+
+  /**
+   * Finds a page of the commits matching a filter with the indexes of the table, newest first.
+   *
+   * @param filter the filter of the history
+   * @param before cursor of the previous page, or {@code null} for the newest commits
+   * @param limit maximum number of commits on the page
+   * @return the page without logs, or empty if the database cannot be queried
+   */
+  @Override
+  public Optional<HistoryPage> find(HistoryFilter filter, String before, int limit) {
+    StringBuilder sql = new StringBuilder("SELECT " + COLUMNS + " FROM commits WHERE TRUE");
+    List<Object> params = new ArrayList<>();
+    if (filter.state() != null) {
+      sql.append(" AND state = ?");
+      params.add(filter.state());
+    }
+    if (filter.branch() != null) {
+      sql.append(" AND branch = ?");
+      params.add(filter.branch());
+    }
+    if (filter.shaPrefix() != null) {
+      sql.append(" AND sha LIKE ? ESCAPE '\\'");
+      params.add(filter.shaPrefix().replaceAll("[\\\\%_]", "\\\\$0") + "%");
+    }
+    if (filter.since() != null) {
+      sql.append(" AND time_millis >= ?");
+      params.add(filter.since().toEpochMilli());
+    }
+    HistoryEntry probe = HistoryEntry.probe(before);
+    if (probe != null) {
+      sql.append(" AND (time_millis < ? OR (time_millis = ? AND sha < ?))");
+      params.add(probe.time);
+      params.add(probe.time);
+      params.add(probe.sha.toString());
+    }
+    // One more than the limit tells whether there is a next page
+    sql.append(" ORDER BY time_millis DESC, sha DESC LIMIT ?");
+    params.add(limit + 1);
+
+    List<CommitRecord> page = new ArrayList<>();
+    String next = null;
+    try (Connection reader = DriverManager.getConnection(url, "sa", "");
+        PreparedStatement statement = reader.prepareStatement(sql.toString())) {
+      for (int i = 0; i < params.size(); i++) {
+        statement.setObject(i + 1, params.get(i));
+      }
+      try (ResultSet rows = statement.executeQuery()) {
+        long lastTime = 0;
+        while (rows.next()) {
+          if (page.size() == limit) {
+            next = lastTime + "-" + page.getLast().sha();
+            break;
+          }
+          page.add(toRecord(rows, false));
+          lastTime = rows.getLong("time_millis");
+        }
+      }
+    } catch (SQLException | IOException e) {
+      e.printStackTrace();
+      return Optional.empty();
+    }
+    return Optional.of(new HistoryPage(page, next));
+  }
+
+  /** Closes the database. */
+  @Override
+  public synchronized void close() {
+    if (connection == null) {
+      return;
+    }
+    try {
+      connection.close();
+    } catch (SQLException e) {
+      e.printStackTrace();
+    }
+    connection = null;
+  }
+
+  /**
+   * Returns whether the table holds no commit. Must be called while holding this.
+   *
+   * @return {@code true} if the table is empty
+   * @throws IOException if the table cannot be read
+   */
+  private boolean isEmpty() throws IOException {
+    try (Statement statement = connection.createStatement();
+        ResultSet rows = statement.executeQuery("SELECT 1 FROM commits LIMIT 1")) {
+      return !rows.next();
+    } catch (SQLException e) {
+      throw new IOException("Cannot read the status database", e);
+    }
+  }
+
+  /**
+   * Loads the whole history of the store to import from with its logs and merges it into the table
+   * in one transaction. A record replayed from a journal replaces the snapshot record of the same
+   * commit, including its logs. Must be called while holding this.
+   *
+   * @throws IOException if the history cannot be read or written
+   */
+  private void importHistory() throws IOException {
+    Map<String, CommitRecord> history = new LinkedHashMap<>();
+    Set<String> replayed = new HashSet<>();
+    importFrom.open();
+    try {
+      importFrom.load(
+          new Loader() {
+            @Override
+            public void metadata(CommitRecord record) {
+              history.put(record.sha(), record);
+            }
+
+            @Override
+            public void commit(CommitRecord record) {
+              history.put(record.sha(), record);
+              replayed.add(record.sha());
+            }
+
+            @Override
+            public void removed(String sha) {
+              history.remove(sha);
+            }
+          });
+      importFrom.loadLogs(
+          record -> {
+            if (history.containsKey(record.sha()) && !replayed.contains(record.sha())) {
+              history.put(record.sha(), record);
+            }
+          });
+    } finally {
+      importFrom.close();
+    }
+    if (history.isEmpty()) {
+      return;
+    }
+    append(new ArrayList<>(history.values()));
+    System.out.println(
+        "[STATUS] Imported " + history.size() + " commits into the status database " + url);
+  }
+
+  /**
+   * Streams the rows of a query as records on a connection of its own, so appends are not blocked.
+   *
+   * @param sql the query selecting the columns of a record
+   * @param withLogs whether the query selects the logs
+   * @param consumer receives the records
+   * @throws IOException if the database cannot be read
+   */
+  private void query(String sql, boolean withLogs, Consumer<CommitRecord> consumer)
+      throws IOException {
+    try (Connection reader = DriverManager.getConnection(url, "sa", "");
+        Statement statement = reader.createStatement()) {
+      statement.setFetchSize(1000);
+      try (ResultSet rows = statement.executeQuery(sql)) {
+        while (rows.next()) {
+          consumer.accept(toRecord(rows, withLogs));
+        }
+      }
+    } catch (SQLException e) {
+      throw new IOException("Cannot read the status database", e);
+    }
+  }
+
+  /**
+   * Returns the record of the current row.
+   *
+   * @param rows the rows positioned at a commit
+   * @param withLogs whether the logs were selected
+   * @return the record of the commit, without logs unless they were selected
+   * @throws SQLException if the row cannot be read
+   * @throws JsonProcessingException if the logs cannot be parsed
+   */
+  private CommitRecord toRecord(ResultSet rows, boolean withLogs)
+      throws SQLException, JsonProcessingException {
+    String logs = withLogs ? rows.getString("logs") : null;
+    return new CommitRecord(
+        rows.getString("sha"),
+        rows.getString("state"),
+        rows.getString("time"),
+        logs == null ? null : mapper.readValue(logs, LOGS),
+        rows.getString("log_file"),
+        rows.getString("branch"));
+  }
+}
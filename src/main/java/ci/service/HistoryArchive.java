@@ -0,0 +1,57 @@
+package ci.service;
+
+import ci.service.Status.CommitRecord;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * HistoryArchive keeps the commits evicted from the history of the {@link Status} service, so
+ * their logs are not lost.
+ *
+ * <p>The archive is a gzip compressed file of json lines, one commit with its logs per line. Every
+ * batch of evicted commits is appended as a gzip member of its own, which gzip and {@link
+ * java.util.zip.GZIPInputStream} read as one stream. The archive is only ever appended to and is
+ * never read by the service.
+ */
+final class HistoryArchive {
+
+  private final ObjectMapper mapper = new ObjectMapper();
+  private final Path path;
+
+  /**
+   * Constructs a HistoryArchive.
+   *
+   * @param path the path of the archive file
+   */
+  HistoryArchive(Path path) {
+    this.path = path;
+  }
+
+  /**
+   * Appends evicted commits to the archive as one gzip member.
+   *
+   * @param records the evicted commits with their logs
+   * @throws IOException if the archive cannot be written
+   */
+  synchronized void append(List<CommitRecord> records) throws IOException {
+    if (records.isEmpty()) {
+      return;
+    }
+    Files.createDirectories(path.toAbsolutePath().getParent());
+    try (OutputStream file =
+            Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        GZIPOutputStream gzip = new GZIPOutputStream(file)) {
+      for (CommitRecord record : records) {
+        gzip.write(mapper.writeValueAsBytes(record));
+        gzip.write('\n');
+      }
+    }
+  }
+}
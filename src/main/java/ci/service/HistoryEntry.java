@@ -0,0 +1,301 @@
+package ci.service;
+
+import ci.service.Status.CommitRecord;
+import ci.service.Status.HistoryFilter;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * HistoryEntry is the compact form in which the {@link Status} service keeps a commit in memory.
+ *
+ * <p>A {@link CommitRecord} holds the sha, state and time as strings. An entry holds the sha as 20
+ * bytes in two longs and an int, the state as an enum and the time as epoch milliseconds. A large
+ * history therefore takes a small and predictable amount of heap, and it is sorted by comparing
+ * longs. The logs are kept out of line in a {@link LogStore}, the entry only holds their reference.
+ * Records are only created again when a view or the snapshot needs them, and they render exactly
+ * like the record that was put.
+ */
+final class HistoryEntry {
+
+  private static final DateTimeFormatter FMT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+  private static final Pattern HEX_SHA = Pattern.compile("[0-9a-f]{40}");
+  private static final HexFormat HEX = HexFormat.of();
+
+  /** Time of an entry whose record had no time or a time in another format. */
+  private static final long NO_TIME = Long.MIN_VALUE;
+
+  /** Orders entries newest first, and entries with the same time by sha. */
+  static final Comparator<HistoryEntry> NEWEST_FIRST =
+      Comparator.comparingLong((HistoryEntry entry) -> entry.time)
+          .thenComparing(entry -> entry.sha, Sha.ORDER)
+          .reversed();
+
+  /** The states a build can end in. States written by other versions are kept as OTHER. */
+  enum State {
+    SUCCESS,
+    FAILURE,
+    ERROR,
+    SUPERSEDED,
+    OTHER
+  }
+
+  /**
+   * The sha of a commit. A full lowercase hex sha is stored in 20 bytes, anything else is kept as
+   * it is.
+   *
+   * @param high the first 8 bytes of the sha
+   * @param mid the next 8 bytes of the sha
+   * @param low the last 4 bytes of the sha
+   * @param other the sha if it is not a full lowercase hex sha, otherwise {@code null}
+   */
+  record Sha(long high, long mid, int low, String other) {
+
+    /** Orders shas by their bytes, and shas that are not hex after all others. */
+    static final Comparator<Sha> ORDER =
+        Comparator.comparingLong(Sha::high)
+            .thenComparingLong(Sha::mid)
+            .thenComparingInt(Sha::low)
+            .thenComparing(Sha::other, Comparator.nullsFirst(Comparator.naturalOrder()));
+
+    /**
+     * Returns the compact form of a sha.
+     *
+     * @param sha the sha as a string
+     * @return the compact sha
+     */
+    static Sha of(String sha) {
+      if (sha == null || !HEX_SHA.matcher(sha).matches()) {
+        return new Sha(0, 0, 0, sha);
+      }
+      return new Sha(
+          HEX.fromHexDigitsToLong(sha, 0, 16),
+          HEX.fromHexDigitsToLong(sha, 16, 32),
+          HEX.fromHexDigits(sha, 32, 40),
+          null);
+    }
+
+    /**
+     * Returns the sha as a string.
+     *
+     * @return the sha as it was given to {@link #of}
+     */
+    @Override
+    public String toString() {
+      if (other != null) {
+        return other;
+      }
+      return HEX.toHexDigits(high) + HEX.toHexDigits(mid) + HEX.toHexDigits(low);
+    }
+  }
+
+  final Sha sha;
+  final State state;
+  // The state if it is OTHER, otherwise null
+  final String otherState;
+  final long time;
+  // Reference of the logs in the LogStore, PENDING until the startup load has read them
+  volatile long logs;
+  final String logFile;
+  // Interned, since a history only has a handful of branches
+  final String branch;
+
+  /**
+   * Constructs a HistoryEntry.
+   *
+   * @param sha the sha of the commit
+   * @param state the state of the build
+   * @param otherState the state if it is OTHER, otherwise {@code null}
+   * @param time the time of the build in epoch milliseconds
+   * @param logs the reference of the last lines of the build logs
+   * @param logFile the handle of the complete build log, or {@code null} if there is none
+   * @param branch the branch the commit was pushed to, or {@code null} if it is unknown
+   */
+  private HistoryEntry(
+      Sha sha,
+      State state,
+      String otherState,
+      long time,
+      long logs,
+      String logFile,
+      String branch) {
+    this.sha = sha;
+    this.state = state;
+    this.otherState = otherState;
+    this.time = time;
+    this.logs = logs;
+    this.logFile = logFile;
+    this.branch = branch == null ? null : branch.intern();
+  }
+
+  /**
+   * Returns the compact form of a record and writes its logs to the log store.
+   *
+   * @param record the record of the commit
+   * @param logStore the store the logs are written to
+   * @return the entry of the commit
+   */
+  static HistoryEntry of(CommitRecord record, LogStore logStore) {
+    return of(record, logStore.write(record.logs()));
+  }
+
+  /**
+   * Returns the compact form of a record whose logs are loaded later, the logs of the record are
+   * ignored.
+   *
+   * @param record the record of the commit
+   * @return the entry of the commit with PENDING logs
+   */
+  static HistoryEntry pending(CommitRecord record) {
+    return of(record, LogStore.PENDING);
+  }
+
+  /**
+   * Returns a copy of this entry without logs, which replaces the entry once its logs are evicted.
+   *
+   * @return the entry without logs
+   */
+  HistoryEntry withoutLogs() {
+    return new HistoryEntry(sha, state, otherState, time, LogStore.NONE, logFile, branch);
+  }
+
+  /**
+   * Returns the compact form of a record with the given logs reference.
+   *
+   * @param record the record of the commit
+   * @param logs the reference of the logs
+   * @return the entry of the commit
+   */
+  private static HistoryEntry of(CommitRecord record, long logs) {
+    State state = parseState(record.state());
+    return new HistoryEntry(
+        Sha.of(record.sha()),
+        state,
+        state == State.OTHER ? record.state() : null,
+        parseTime(record.time()),
+        logs,
+        record.logFile(),
+        record.branch());
+  }
+
+  /**
+   * Returns an entry that sorts like the entry with the given cursor, used to find where a page
+   * starts.
+   *
+   * @param cursor the cursor returned by {@link #cursor}
+   * @return the probe entry, or {@code null} if the cursor is malformed
+   */
+  static HistoryEntry probe(String cursor) {
+    // The time may be negative, the sha starts after the first dash that follows it
+    int dash = cursor == null ? -1 : cursor.indexOf('-', 1);
+    if (dash < 0) {
+      return null;
+    }
+    try {
+      long time = Long.parseLong(cursor.substring(0, dash));
+      return new HistoryEntry(
+          Sha.of(cursor.substring(dash + 1)), State.OTHER, null, time, LogStore.NONE, null, null);
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Returns the record form of this entry.
+   *
+   * @param logs the logs of the commit, read from the log store by the caller
+   * @return the record of the commit
+   */
+  CommitRecord toRecord(List<String> logs) {
+    return new CommitRecord(sha.toString(), stateName(), formatTime(time), logs, logFile, branch);
+  }
+
+  /**
+   * Returns whether this entry matches the state, branch and sha prefix of a filter. The time of
+   * the filter is left to the caller, which walks the entries newest first.
+   *
+   * @param filter the filter of the history
+   * @return {@code true} if the entry matches
+   */
+  boolean matches(HistoryFilter filter) {
+    if (filter.state() != null && !filter.state().equals(stateName())) {
+      return false;
+    }
+    if (filter.branch() != null && !filter.branch().equals(branch)) {
+      return false;
+    }
+    return filter.shaPrefix() == null || sha.toString().startsWith(filter.shaPrefix());
+  }
+
+  /**
+   * Returns the cursor of the page that starts after this entry.
+   *
+   * @return the time and sha of this entry
+   */
+  String cursor() {
+    return time + "-" + sha;
+  }
+
+  /**
+   * Returns the state as it was given in the record.
+   *
+   * @return the name of the state
+   */
+  private String stateName() {
+    return state == State.OTHER ? otherState : state.name();
+  }
+
+  /**
+   * Returns the state enum of a state string.
+   *
+   * @param state the state of a record
+   * @return the matching state, or OTHER if there is none
+   */
+  private static State parseState(String state) {
+    for (State known : State.values()) {
+      if (known != State.OTHER && known.name().equals(state)) {
+        return known;
+      }
+    }
+    return State.OTHER;
+  }
+
+  /**
+   * Returns the epoch milliseconds of a record time in the local time zone.
+   *
+   * @param time the time of a record
+   * @return the time in epoch milliseconds, or NO_TIME if it cannot be parsed
+   */
+  static long parseTime(String time) {
+    if (time == null) {
+      return NO_TIME;
+    }
+    try {
+      return LocalDateTime.parse(time, FMT)
+          .atZone(ZoneId.systemDefault())
+          .toInstant()
+          .toEpochMilli();
+    } catch (DateTimeParseException e) {
+      return NO_TIME;
+    }
+  }
+
+  /**
+   * Returns the record time of epoch milliseconds in the local time zone.
+   *
+   * @param time the time in epoch milliseconds
+   * @return the formatted time, or {@code null} for NO_TIME
+   */
+  private static String formatTime(long time) {
+    if (time == NO_TIME) {
+      return null;
+    }
+    return LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault()).format(FMT);
+  }
+}
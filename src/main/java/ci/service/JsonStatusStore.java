@@ -0,0 +1,446 @@
+package ci.service;
+
+import ci.service.Status.CommitRecord;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * JsonStatusStore persists the history of the {@link Status} service as a json snapshot file
+ * holding all commits and an append-only journal next to it.
+ *
+ * <p>Every batch of records is appended to the journal as single lines of json with one write and
+ * one fsync, so it costs the size of the records instead of the size of the history. A compaction
+ * writes the history into a new snapshot and starts an empty journal. On startup the snapshot is
+ * streamed record by record and the journal is replayed on top of it. The store has no indexes, so
+ * filtered queries are answered by Status from memory. A removed commit is appended to the journal
+ * as a tombstone line {@code {"removed":"<sha>"}}, which drops the commit when the journal is
+ * replayed, and is left out of the next snapshot.
+ */
+final class JsonStatusStore implements StatusStore {
+
+  /** Field of a tombstone line, which holds the sha of a removed commit. */
+  private static final String REMOVED = "removed";
+
+  /** Start of a tombstone line in the journal. */
+  private static final String TOMBSTONE = "{\"" + REMOVED + "\":";
+
+  private final ObjectMapper mapper = new ObjectMapper();
+  // Path to "database"
+  private final Path commitsFilePath;
+  // Path to the journal of the records put since the last compaction
+  private final Path journalPath;
+  // Path the journal is moved to while it is being compacted into the snapshot
+  private final Path compactingPath;
+
+  // Guards the journal file, which is written by the writer thread and moved by compactions
+  private final Object journalLock = new Object();
+  // Serializes compactions, so only one of them writes the snapshot at a time
+  private final Object compactLock = new Object();
+  // The open journal, null until the first batch or after a compaction, guarded by journalLock
+  private FileChannel journal;
+  // Number of records in the journal and commits removed since the last compaction, guarded by
+  // journalLock
+  private int journalRecords;
+
+  /**
+   * Constructs a JsonStatusStore. The journal is stored next to the snapshot with the extension
+   * {@code .journal}.
+   *
+   * @param commitsFilePath the file path of the snapshot
+   */
+  JsonStatusStore(Path commitsFilePath) {
+    this.commitsFilePath = commitsFilePath;
+    String name = commitsFilePath.getFileName().toString().replaceFirst("\\.json$", "");
+    this.journalPath = commitsFilePath.resolveSibling(name + ".journal");
+    this.compactingPath = commitsFilePath.resolveSibling(name + ".journal.compacting");
+  }
+
+  /**
+   * Ends a journal that was cut off in the middle of a record by a crash with a line break, so the
+   * next record appended to it starts on its own line.
+   *
+   * @throws IOException if the journal exists but cannot be read or written
+   */
+  @Override
+  public void open() throws IOException {
+    if (!Files.exists(journalPath) || Files.size(journalPath) == 0) {
+      return;
+    }
+    try (SeekableByteChannel channel =
+        Files.newByteChannel(journalPath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      ByteBuffer last = ByteBuffer.allocate(1);
+      channel.position(channel.size() - 1).read(last);
+      if (last.get(0) != '\n') {
+        channel.position(channel.size()).write(ByteBuffer.wrap(new byte[] {'\n'}));
+      }
+    }
+  }
+
+  /**
+   * Streams the commits of the snapshot without their logs, then replays the journal written since
+   * the last compaction, including a journal whose compaction was interrupted.
+   *
+   * @param loader receives the commits
+   * @throws IOException if the snapshot or a journal cannot be read
+   */
+  @Override
+  public void load(Loader loader) throws IOException {
+    readSnapshot(false, loader::metadata);
+    replayJournal(compactingPath, loader);
+    int replayed = replayJournal(journalPath, loader);
+    synchronized (journalLock) {
+      journalRecords += replayed;
+    }
+  }
+
+  /**
+   * Streams the commits of the snapshot with their logs.
+   *
+   * @param consumer receives the commits with their logs
+   * @throws IOException if the snapshot cannot be read
+   */
+  @Override
+  public void loadLogs(Consumer<CommitRecord> consumer) throws IOException {
+    readSnapshot(true, consumer);
+  }
+
+  /**
+   * Finishes a compaction that was interrupted, before the journal is moved aside again.
+   *
+   * @param history returns a copy of the whole history
+   * @throws IOException if the snapshot cannot be written
+   */
+  @Override
+  public void recover(Supplier<Map<String, CommitRecord>> history) throws IOException {
+    synchronized (compactLock) {
+      if (Files.exists(compactingPath)) {
+        writeJsonToFile(mapToJson(history.get()));
+        Files.delete(compactingPath);
+      }
+    }
+  }
+
+  /**
+   * Appends a batch of records to the journal as single lines of json with one write, and forces
+   * them to disk with one fsync.
+   *
+   * @param records the records to write
+   * @throws IOException if the journal cannot be written
+   */
+  @Override
+  public void append(List<CommitRecord> records) throws IOException {
+    write(records, List.of());
+  }
+
+  /**
+   * Appends a tombstone for each removed commit to the journal with one write and one fsync, so a
+   * restart does not load them again from the snapshot or an earlier journal record.
+   *
+   * @param shas the shas of the commits
+   * @throws IOException if the journal cannot be written
+   */
+  @Override
+  public void remove(Collection<String> shas) throws IOException {
+    write(List.of(), shas);
+  }
+
+  /**
+   * Appends a batch of records followed by the tombstones of removed commits to the journal as
+   * single lines of json with one write, and forces them to disk with one fsync.
+   *
+   * @param records the records to write
+   * @param removed the shas of the removed commits
+   * @throws IOException if the journal cannot be written
+   */
+  @Override
+  public void write(List<CommitRecord> records, Collection<String> removed) throws IOException {
+    if (records.isEmpty() && removed.isEmpty()) {
+      return;
+    }
+    StringBuilder lines = new StringBuilder();
+    for (CommitRecord record : records) {
+      lines.append(mapper.writeValueAsString(record)).append('\n');
+    }
+    for (String sha : removed) {
+      lines.append(mapper.writeValueAsString(Map.of(REMOVED, sha))).append('\n');
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+    synchronized (journalLock) {
+      if (journal == null) {
+        Files.createDirectories(journalPath.getParent());
+        journal =
+            FileChannel.open(
+                journalPath,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+      }
+      while (buffer.hasRemaining()) {
+        journal.write(buffer);
+      }
+      journal.force(false);
+      journalRecords += records.size() + removed.size();
+    }
+  }
+
+  /**
+   * Writes the history into a new snapshot and starts an empty journal, if the journal holds at
+   * least the given number of records and removed commits. The journal is moved aside while appends
+   * are blocked, and the snapshot is written afterwards without blocking them. A crash in between
+   * leaves the moved journal behind, which is replayed on the next startup. If an earlier
+   * compaction failed to write the snapshot, the journal is appended to the one it left behind, so
+   * the records of both are replayed in order until a snapshot holds them.
+   *
+   * @param threshold the minimal number of journal records and removed commits
+   * @param history returns a copy of the whole history
+   */
+  @Override
+  public void compact(int threshold, Supplier<Map<String, CommitRecord>> history) {
+    synchronized (compactLock) {
+      Map<String, CommitRecord> snapshot;
+      synchronized (journalLock) {
+        if (journalRecords < Math.max(threshold, 1)) {
+          return;
+        }
+        closeJournal();
+        try {
+          if (Files.exists(journalPath) && Files.exists(compactingPath)) {
+            appendJournal(journalPath, compactingPath);
+            Files.delete(journalPath);
+          } else if (Files.exists(journalPath)) {
+            Files.move(journalPath, compactingPath);
+          }
+        } catch (IOException e) {
+          e.printStackTrace();
+          return;
+        }
+        journalRecords = 0;
+        // Holds every record written to the moved journal, and maybe some still waiting, which
+        // are harmlessly replayed again from the new journal
+        snapshot = history.get();
+      }
+      try {
+        writeJsonToFile(mapToJson(snapshot));
+        Files.deleteIfExists(compactingPath);
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  /** Closes the open journal. */
+  @Override
+  public void close() {
+    synchronized (journalLock) {
+      closeJournal();
+    }
+  }
+
+  /**
+   * Replays the records and tombstones of a journal in the order they were written. A line that
+   * cannot be parsed, like a record cut off by a crash, is skipped.
+   *
+   * @param journal the journal to replay
+   * @param loader receives the records
+   * @return the number of records and tombstones replayed
+   * @throws IOException if the journal exists but cannot be read
+   */
+  private int replayJournal(Path journal, Loader loader) throws IOException {
+    if (!Files.exists(journal)) {
+      return 0;
+    }
+    int replayed = 0;
+    try (BufferedReader reader = Files.newBufferedReader(journal, StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.isBlank()) {
+          continue;
+        }
+        try {
+          if (line.startsWith(TOMBSTONE)) {
+            loader.removed(mapper.readTree(line).get(REMOVED).asText());
+          } else {
+            loader.commit(mapper.readValue(line, CommitRecord.class));
+          }
+          replayed++;
+        } catch (JsonProcessingException e) {
+          System.out.println("[STATUS] Skipping unreadable journal record in " + journal);
+        }
+      }
+    }
+    return replayed;
+  }
+
+  /**
+   * Streams the commits of the snapshot one at a time, so the snapshot is never held in memory as
+   * a whole.
+   *
+   * @param withLogs whether the logs are read, otherwise they are skipped and the records have none
+   * @param consumer receives the commits in the order of the snapshot
+   * @throws IOException if the snapshot exists but cannot be read or parsed
+   */
+  private void readSnapshot(boolean withLogs, Consumer<CommitRecord> consumer) throws IOException {
+    if (!Files.exists(commitsFilePath)) {
+      return;
+    }
+    try (JsonParser parser = mapper.getFactory().createParser(commitsFilePath.toFile())) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        return;
+      }
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        parser.nextToken();
+        consumer.accept(
+            withLogs ? mapper.readValue(parser, CommitRecord.class) : readMetadata(parser));
+      }
+    }
+  }
+
+  /**
+   * Reads a commit from the snapshot without its logs, which are skipped by the parser without
+   * being decoded.
+   *
+   * @param parser the parser positioned at the start of the commit
+   * @return the commit without logs
+   * @throws IOException if the commit cannot be parsed
+   */
+  private static CommitRecord readMetadata(JsonParser parser) throws IOException {
+    String sha = null;
+    String state = null;
+    String time = null;
+    String logFile = null;
+    String branch = null;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.currentName();
+      JsonToken token = parser.nextToken();
+      String value = token.isScalarValue() ? parser.getValueAsString() : null;
+      parser.skipChildren();
+      switch (field) {
+        case "sha" -> sha = value;
+        case "state" -> state = value;
+        case "time" -> time = value;
+        case "logFile" -> logFile = value;
+        case "branch" -> branch = value;
+        default -> {}
+      }
+    }
+    return new CommitRecord(sha, state, time, null, logFile, branch);
+  }
+
+  /**
+   * Appends a journal to the end of another one and forces it to disk. A last line of the target
+   * that was cut off is ended first, so the appended records start on their own line.
+   *
+   * @param source the journal to append
+   * @param target the journal appended to
+   * @throws IOException if a journal cannot be read or written
+   */
+  private static void appendJournal(Path source, Path target) throws IOException {
+    try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+        FileChannel out =
+            FileChannel.open(target, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      out.position(out.size());
+      if (out.size() > 0) {
+        ByteBuffer last = ByteBuffer.allocate(1);
+        out.read(last, out.size() - 1);
+        if (last.get(0) != '\n') {
+          out.write(ByteBuffer.wrap(new byte[] {'\n'}));
+        }
+      }
+      long size = in.size();
+      long copied = 0;
+      while (copied < size) {
+        copied += in.transferTo(copied, size - copied, out);
+      }
+      out.force(false);
+    }
+  }
+
+  /** Closes the open journal, ignoring failures. Must be called while holding journalLock. */
+  private void closeJournal() {
+    if (journal == null) {
+      return;
+    }
+    try {
+      journal.close();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    journal = null;
+  }
+
+  /**
+   * Attempts to convert a Map with SHA as key and commit reference as value to a json string.
+   *
+   * @param map map to convert into json
+   * @return json representation of the given map
+   * @throws JsonProcessingException json conversion exception
+   */
+  private String mapToJson(Map<String, CommitRecord> map) throws JsonProcessingException {
+    return mapper.writerWithDefaultPrettyPrinter().writeValueAsString(map);
+  }
+
+  /**
+   * Writes json to file. The json is written and forced to a temporary file first and then renamed,
+   * and the rename is forced with the directory, so the snapshot is never left half written and is
+   * on disk before the caller deletes the journal it replaces.
+   *
+   * @param json json to persist in file
+   * @throws IOException if an exception was met when attempting to write to file
+   */
+  private void writeJsonToFile(String json) throws IOException {
+    Path parent = commitsFilePath.toAbsolutePath().getParent();
+    Files.createDirectories(parent);
+    Path tmp = commitsFilePath.resolveSibling(commitsFilePath.getFileName() + ".tmp");
+    ByteBuffer buffer = ByteBuffer.wrap(json.getBytes(StandardCharsets.UTF_8));
+    try (FileChannel channel =
+        FileChannel.open(
+            tmp,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE)) {
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      channel.force(true);
+    }
+    Files.move(
+        tmp, commitsFilePath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    forceDirectory(parent);
+  }
+
+  /**
+   * Forces the entries of a directory to disk, so a file renamed into it survives a power loss.
+   *
+   * @param dir the directory
+   * @throws IOException if the directory cannot be forced
+   */
+  private static void forceDirectory(Path dir) throws IOException {
+    FileChannel channel;
+    try {
+      channel = FileChannel.open(dir, StandardOpenOption.READ);
+    } catch (IOException e) {
+      // Directories cannot be opened on every platform, there the rename is durable on its own
+      return;
+    }
+    try (channel) {
+      channel.force(true);
+    }
+  }
+}
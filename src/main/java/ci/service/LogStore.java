@@ -0,0 +1,361 @@
+package ci.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * LogStore keeps the build logs of the history outside of the heap for the {@link Status} service.
+ *
+ * <p>The logs of every commit are appended to memory-mapped segment files, and a {@link
+ * HistoryEntry} only holds a reference to them. Logs are read from a segment when a single commit
+ * is looked up, and the most recently read ones are kept in a small cache capped by their size in
+ * bytes. The segments are rebuilt from the snapshot and journal on every start, so the segments of
+ * an earlier run are deleted when the first segment is created.
+ *
+ * <p>Logs that are evicted from the history are freed. The store counts the live bytes of every
+ * segment, and a full segment is deleted once none of its logs are live anymore, so the size of
+ * the segments follows the logs that are kept.
+ */
+final class LogStore {
+
+  /** Reference of logs that are {@code null}. */
+  static final long NONE = -1;
+
+  /** Reference of logs that are empty. */
+  static final long EMPTY = -2;
+
+  /** Reference of logs that are still being loaded on startup, it is never stored. */
+  static final long PENDING = -3;
+
+  /** Size of a segment, a larger log gets a segment of its own. */
+  private static final int SEGMENT_BYTES = 64 * 1024 * 1024;
+
+  private final Path dir;
+  // Mapped segments in the order they were created, the index is part of the reference, null once
+  // a segment has been deleted
+  private final List<MappedByteBuffer> segments = new CopyOnWriteArrayList<>();
+  // Logs that could not be written to a segment, by their negative reference
+  private final Map<Long, List<String>> spilled = new ConcurrentHashMap<>();
+  private final AtomicLong nextSpill = new AtomicLong(PENDING - 1);
+  // Write position in the last segment, guarded by this
+  private int position;
+  // Bytes of the live logs in every segment and in all segments and spilled logs, guarded by this
+  private final List<Long> segmentLiveBytes = new ArrayList<>();
+  private long liveBytes;
+
+  // Recently read logs by reference in least recently used order, guarded by cache
+  private final LinkedHashMap<Long, Cached> cache = new LinkedHashMap<>(16, 0.75f, true);
+  private long cacheBytes;
+  private long cacheLimit;
+
+  /**
+   * Logs in the cache of recently read logs.
+   *
+   * @param logs the decoded logs
+   * @param size the size of the logs in their segment
+   */
+  private record Cached(List<String> logs, int size) {}
+
+  /**
+   * Constructs a LogStore.
+   *
+   * @param dir the directory of the segment files
+   * @param cacheLimit the size in bytes of the cache of recently read logs
+   */
+  LogStore(Path dir, long cacheLimit) {
+    this.dir = dir;
+    this.cacheLimit = cacheLimit;
+  }
+
+  /**
+   * Changes the size of the cache of recently read logs.
+   *
+   * @param cacheLimit the size in bytes
+   */
+  void setCacheLimit(long cacheLimit) {
+    synchronized (cache) {
+      this.cacheLimit = cacheLimit;
+      evict();
+    }
+  }
+
+  /**
+   * Stores logs and returns their reference. If the segment cannot be written the logs are kept on
+   * the heap instead, so they are never lost.
+   *
+   * @param logs the logs to store
+   * @return the reference of the logs
+   */
+  synchronized long write(List<String> logs) {
+    if (logs == null) {
+      return NONE;
+    }
+    if (logs.isEmpty()) {
+      return EMPTY;
+    }
+    byte[] bytes = encode(logs);
+    try {
+      if (segments.isEmpty() || SEGMENT_BYTES - position < bytes.length) {
+        newSegment(bytes.length);
+      }
+      int index = segments.size() - 1;
+      segments.get(index).put(position, bytes);
+      long ref = ((long) index << 32) | position;
+      position += bytes.length;
+      segmentLiveBytes.set(index, segmentLiveBytes.get(index) + bytes.length);
+      liveBytes += bytes.length;
+      return ref;
+    } catch (IOException e) {
+      e.printStackTrace();
+      long ref = nextSpill.getAndDecrement();
+      spilled.put(ref, Collections.unmodifiableList(new ArrayList<>(logs)));
+      liveBytes += bytes.length;
+      return ref;
+    }
+  }
+
+  /**
+   * Frees the logs of a reference, which must not be read afterwards. A full segment is deleted
+   * once all of its logs are freed.
+   *
+   * @param ref the reference of the logs
+   */
+  synchronized void free(long ref) {
+    long size = size(ref);
+    if (size == 0) {
+      return;
+    }
+    liveBytes -= size;
+    synchronized (cache) {
+      Cached cached = cache.remove(ref);
+      if (cached != null) {
+        cacheBytes -= cached.size();
+      }
+    }
+    if (ref < 0) {
+      spilled.remove(ref);
+      return;
+    }
+    int index = (int) (ref >>> 32);
+    long live = segmentLiveBytes.get(index) - size;
+    segmentLiveBytes.set(index, live);
+    if (live == 0 && index < segments.size() - 1) {
+      deleteSegment(index);
+    }
+  }
+
+  /**
+   * Returns the size the logs of a reference take in their segment or on the heap.
+   *
+   * @param ref the reference of the logs
+   * @return the size in bytes, 0 if there are no logs or their segment was deleted
+   */
+  long size(long ref) {
+    if (ref == NONE || ref == EMPTY || ref == PENDING) {
+      return 0;
+    }
+    if (ref < 0) {
+      List<String> logs = spilled.get(ref);
+      return logs == null ? 0 : encode(logs).length;
+    }
+    MappedByteBuffer segment = segments.get((int) (ref >>> 32));
+    return segment == null ? 0 : segment.getInt((int) ref);
+  }
+
+  /**
+   * Returns the size of the logs that were written and not freed.
+   *
+   * @return the size in bytes
+   */
+  synchronized long getLiveBytes() {
+    return liveBytes;
+  }
+
+  /**
+   * Reads logs through the cache of recently read logs.
+   *
+   * @param ref the reference of the logs
+   * @return the logs
+   */
+  List<String> read(long ref) {
+    if (ref == NONE || ref == EMPTY || spilled.containsKey(ref)) {
+      return readUncached(ref);
+    }
+    synchronized (cache) {
+      Cached cached = cache.get(ref);
+      if (cached != null) {
+        return cached.logs();
+      }
+    }
+    List<String> logs = readUncached(ref);
+    int size = (int) size(ref);
+    if (logs == null) {
+      return null;
+    }
+    synchronized (cache) {
+      if (size <= cacheLimit && cache.put(ref, new Cached(logs, size)) == null) {
+        cacheBytes += size;
+        evict();
+      }
+    }
+    return logs;
+  }
+
+  /**
+   * Reads logs without going through the cache, used when all logs are read at once.
+   *
+   * @param ref the reference of the logs
+   * @return the logs, or {@code null} if they were freed and their segment was deleted
+   */
+  List<String> readUncached(long ref) {
+    if (ref == NONE) {
+      return null;
+    }
+    if (ref == EMPTY) {
+      return List.of();
+    }
+    if (ref < 0) {
+      return spilled.get(ref);
+    }
+    MappedByteBuffer segment = segments.get((int) (ref >>> 32));
+    return segment == null ? null : decode(segment, (int) ref);
+  }
+
+  /**
+   * Returns the size of the logs in the cache of recently read logs.
+   *
+   * @return the size in bytes
+   */
+  long getCacheBytes() {
+    synchronized (cache) {
+      return cacheBytes;
+    }
+  }
+
+  /** Evicts the least recently read logs while the cache is over its limit. Must hold cache. */
+  private void evict() {
+    Iterator<Cached> it = cache.values().iterator();
+    while (cacheBytes > cacheLimit && it.hasNext()) {
+      cacheBytes -= it.next().size();
+      it.remove();
+    }
+  }
+
+  /**
+   * Deletes a segment none of whose logs are live. A reader that still holds the segment can finish
+   * reading it, the mapping stays valid until it is garbage collected.
+   *
+   * @param index the index of the segment
+   */
+  private void deleteSegment(int index) {
+    segments.set(index, null);
+    try {
+      Files.deleteIfExists(segmentFile(index));
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Returns the file of a segment.
+   *
+   * @param index the index of the segment
+   * @return the path of the segment file
+   */
+  private Path segmentFile(int index) {
+    return dir.resolve(String.format("segment-%05d.dat", index));
+  }
+
+  /**
+   * Creates and maps a new segment. The segments of an earlier run are deleted first, and the
+   * segment written until now is deleted if all of its logs were freed.
+   *
+   * @param minBytes the size the segment needs at least
+   * @throws IOException if the segment cannot be created
+   */
+  private void newSegment(int minBytes) throws IOException {
+    if (segments.isEmpty()) {
+      Files.createDirectories(dir);
+      try (Stream<Path> stale = Files.list(dir)) {
+        for (Path file : stale.toList()) {
+          Files.deleteIfExists(file);
+        }
+      }
+    }
+    int last = segments.size() - 1;
+    if (last >= 0 && segments.get(last) != null && segmentLiveBytes.get(last) == 0) {
+      deleteSegment(last);
+    }
+    Path file = segmentFile(segments.size());
+    try (FileChannel channel =
+        FileChannel.open(
+            file,
+            StandardOpenOption.CREATE_NEW,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE)) {
+      long size = Math.max(SEGMENT_BYTES, minBytes);
+      segments.add(channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+      segmentLiveBytes.add(0L);
+    }
+    position = 0;
+  }
+
+  /**
+   * Encodes logs as their total size, the number of lines and every line with its size.
+   *
+   * @param logs the logs to encode
+   * @return the encoded logs
+   */
+  private static byte[] encode(List<String> logs) {
+    List<byte[]> lines = new ArrayList<>(logs.size());
+    int size = 8;
+    for (String line : logs) {
+      byte[] bytes = (line == null ? "" : line).getBytes(StandardCharsets.UTF_8);
+      lines.add(bytes);
+      size += 4 + bytes.length;
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(size);
+    buffer.putInt(size).putInt(lines.size());
+    for (byte[] bytes : lines) {
+      buffer.putInt(bytes.length).put(bytes);
+    }
+    return buffer.array();
+  }
+
+  /**
+   * Decodes the logs at an offset of a segment.
+   *
+   * @param segment the segment holding the logs
+   * @param offset the offset of the logs in the segment
+   * @return the decoded logs
+   */
+  private static List<String> decode(ByteBuffer segment, int offset) {
+    int count = segment.getInt(offset + 4);
+    List<String> logs = new ArrayList<>(count);
+    int at = offset + 8;
+    for (int i = 0; i < count; i++) {
+      int length = segment.getInt(at);
+      byte[] bytes = new byte[length];
+      segment.get(at + 4, bytes);
+      logs.add(new String(bytes, StandardCharsets.UTF_8));
+      at += 4 + length;
+    }
+    return Collections.unmodifiableList(logs);
+  }
+}
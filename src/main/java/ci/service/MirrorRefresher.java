@@ -0,0 +1,203 @@
+package ci.service;
+
+import ci.util.BuildCancellation;
+import ci.util.RepoSetup;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * MirrorRefresher is a Spring service that keeps the shared mirror of the repository up to date
+ * outside of the build, so fetching is off the critical path of a webhook build.
+ *
+ * <p>Every {@code ci.mirror.refreshSeconds} the mirror is fetched in the background, and as soon
+ * as a build is admitted the pushed commit is prefetched while the build is still waiting in the
+ * queue. When the build starts, its commit is usually present and the checkout is purely local.
+ */
+@Service
+public class MirrorRefresher {
+
+  /** Maximum number of prefetches waiting for the prefetch thread, further ones are dropped. */
+  private static final int PREFETCH_QUEUE_CAPACITY = 16;
+
+  /** Local parent directory where the mirror and workspaces are stored. */
+  @Value("${ci.repoParentDir:not a file}")
+  private String repoParentDir;
+
+  /** SSH URL of the Git repository used for cloning and pulling updates. */
+  @Value("${ci.repoSsh:git-ssh}")
+  private String repoSsh;
+
+  /** Local directory name of the repository. */
+  @Value("${ci.repoID:ContinuousIntegration}")
+  private String repoID;
+
+  /** How the mirror fetches the pushed commit: all, single_sha or partial. */
+  @Value("${ci.git.fetchStrategy:ALL}")
+  private RepoSetup.FetchStrategy fetchStrategy = RepoSetup.FetchStrategy.ALL;
+
+  /** History depth of a single commit fetch, 0 fetches the full history of the commit. */
+  @Value("${ci.git.fetchDepth:0}")
+  private int fetchDepth;
+
+  /** Whether the mirror is refreshed and prefetched in the background at all. */
+  @Value("${ci.mirror.enabled:true}")
+  private boolean enabled = true;
+
+  private ExecutorService executor;
+
+  // Commits with a prefetch waiting or running
+  private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+  private final AtomicLong refreshes = new AtomicLong();
+  private final AtomicLong prefetches = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+  private volatile long lastRefreshMillis;
+
+  /**
+   * Snapshot of the refresher counters.
+   *
+   * @param refreshes total number of completed periodic refreshes
+   * @param prefetches total number of completed prefetches of pushed commits
+   * @param dropped total number of prefetches dropped because the prefetch queue was full
+   * @param failed total number of refreshes and prefetches that failed
+   * @param lastRefreshMillis time of the last completed periodic refresh, 0 if there was none
+   */
+  public record Stats(
+      long refreshes, long prefetches, long dropped, long failed, long lastRefreshMillis) {}
+
+  /**
+   * Instructions for Springboot when initiating the MirrorRefresher, starts the prefetch thread.
+   */
+  @PostConstruct
+  public void init() {
+    executor =
+        new ThreadPoolExecutor(
+            1,
+            1,
+            0L,
+            TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(PREFETCH_QUEUE_CAPACITY),
+            runnable -> {
+              Thread t = new Thread(runnable, "mirror-prefetch");
+              t.setDaemon(true);
+              return t;
+            });
+  }
+
+  /** Instructions for Springboot when shutting down, stops the prefetch thread. */
+  @PreDestroy
+  public void shutdown() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Fetches all refs of an existing mirror, runs every {@code ci.mirror.refreshSeconds}. Nothing is
+   * done before the first build created the mirror, or when the mirror only holds single commits
+   * because of the {@link RepoSetup.FetchStrategy#SINGLE_SHA} strategy.
+   */
+  @Scheduled(
+      initialDelayString = "${ci.mirror.refreshSeconds:60}",
+      fixedDelayString = "${ci.mirror.refreshSeconds:60}",
+      timeUnit = TimeUnit.SECONDS)
+  public void refresh() {
+    if (!enabled
+        || fetchStrategy == RepoSetup.FetchStrategy.SINGLE_SHA
+        || !Files.isDirectory(Paths.get(mirrorDir()))) {
+      return;
+    }
+    try {
+      RepoSetup.refreshMirror(mirrorDir());
+      refreshes.incrementAndGet();
+      lastRefreshMillis = System.currentTimeMillis();
+    } catch (RuntimeException e) {
+      failed.incrementAndGet();
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Starts fetching a pushed commit into the mirror in the background and returns immediately. A
+   * commit that is already being prefetched is not fetched twice, and when too many prefetches are
+   * waiting the commit is left to the build itself.
+   *
+   * @param sha the commit sha from the http payload
+   */
+  public void prefetch(String sha) {
+    if (!enabled || sha == null || sha.isBlank() || !pending.add(sha)) {
+      return;
+    }
+    try {
+      executor.execute(() -> runPrefetch(sha));
+    } catch (RejectedExecutionException e) {
+      pending.remove(sha);
+      dropped.incrementAndGet();
+    }
+  }
+
+  /**
+   * Makes sure the mirror contains the commit of a build, fetching it with the configured strategy
+   * when it is missing. Runs on the build thread, unlike {@link #prefetch(String)}.
+   *
+   * @param sha the commit sha from the http payload
+   * @param cancellation the handle used to cancel the build, which kills the running git command
+   * @throws IllegalArgumentException when the sha is null, blank or only 0's
+   * @throws IllegalStateException When one of the git commands could not be executed or the build
+   *     was cancelled
+   */
+  public void fetch(String sha, BuildCancellation cancellation) {
+    RepoSetup.updateMirror(mirrorDir(), repoSsh, sha, fetchStrategy, fetchDepth, cancellation);
+  }
+
+  /**
+   * Returns a snapshot of the refresher counters.
+   *
+   * @return the current refresher statistics
+   */
+  public Stats getStats() {
+    return new Stats(
+        refreshes.get(), prefetches.get(), dropped.get(), failed.get(), lastRefreshMillis);
+  }
+
+  /**
+   * Fetches a pushed commit into the mirror. Runs on the prefetch thread.
+   *
+   * @param sha the commit sha from the http payload
+   */
+  private void runPrefetch(String sha) {
+    try {
+      System.out.println("[MIRROR] Prefetching " + sha);
+      RepoSetup.updateMirror(mirrorDir(), repoSsh, sha, fetchStrategy, fetchDepth);
+      prefetches.incrementAndGet();
+    } catch (RuntimeException e) {
+      failed.incrementAndGet();
+      e.printStackTrace();
+    } finally {
+      pending.remove(sha);
+    }
+  }
+
+  /**
+   * Returns the location of the bare mirror of the repository, which is shared by all builds.
+   *
+   * @return path to the mirror directory
+   */
+  private String mirrorDir() {
+    return RepoSetup.mirrorDir(repoParentDir, repoID);
+  }
+}
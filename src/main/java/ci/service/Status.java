@@ -1,25 +1,32 @@
 package ci.service;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.JsonMappingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
+import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
-import java.util.Comparator;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableSet;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.stream.Collectors;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 /**
@@ -27,6 +34,29 @@ import org.springframework.stereotype.Service;
  *
  * <p>It is a Springboot service, which makes it visible to a class by passing it in its
  * constructor.
+ *
+ * <p>The history is kept in memory and persisted by a {@link StatusStore}, selected with {@code
+ * ci.status.store}: a json snapshot with an append-only journal by default, or an embedded H2
+ * database with {@code h2}. The records put are handed to the store by a single writer thread that
+ * groups the records put within {@code ci.status.batchWindowMillis} into one durable write, so the
+ * build threads never wait for the disk. A background compaction lets the store rewrite the
+ * history once {@code ci.status.compactAfter} records were appended.
+ *
+ * <p>On startup the history is loaded in the background while the application already serves
+ * requests. The store first delivers the commits without their logs, so the commits and the time
+ * index are built quickly. The service is then ready and {@link #isLoading} turns false. The logs
+ * are read in a second pass, and a lookup of a commit whose logs are not loaded yet waits for that
+ * pass.
+ *
+ * <p>Filtered history queries are answered from the indexes of the store if it has any, otherwise
+ * from the time index in memory.
+ *
+ * <p>The history is bounded by its retention. Commits older than {@code ci.status.retentionDays}
+ * or beyond {@code ci.status.maxCommits} are evicted oldest first, and while the logs exceed
+ * {@code ci.status.maxLogMb} the logs of the oldest commits are evicted while the commits are kept.
+ * Every put evicts a few commits and a background sweeper the rest, so neither the heap, the log
+ * segments nor the store grow without bound. With {@code ci.status.archive} the evicted commits
+ * are appended with their logs to a compressed {@link HistoryArchive}.
  */
 @Service
 public class Status {
@@ -37,9 +67,12 @@ public class Status {
    * @param sha the commit SHA hash
    * @param state the compilation state of the commit
    * @param time the timestamp of the commit
-   * @param logs the build logs of the commit
+   * @param logs the last lines of the build logs of the commit
+   * @param logFile the handle of the complete build log, or {@code null} if there is none
+   * @param branch the branch the commit was pushed to, or {@code null} if it is unknown
    */
-  public record CommitRecord(String sha, String state, String time, List<String> logs) {
+  public record CommitRecord(
+      String sha, String state, String time, List<String> logs, String logFile, String branch) {
 
     private static final DateTimeFormatter FMT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
 
@@ -51,49 +84,286 @@ public class Status {
      * @param logs the build logs of the commit
      */
     public CommitRecord(String sha, String state, List<String> logs) {
-      this(sha, state, LocalDateTime.now().format(FMT), logs);
+      this(sha, state, logs, null);
+    }
+
+    /**
+     * Constructor that creates a CommitRecord with the current timestamp and a complete build log.
+     *
+     * @param sha the commit SHA hash
+     * @param state the compilation state of the commit
+     * @param logs the last lines of the build logs of the commit
+     * @param logFile the handle of the complete build log, or {@code null} if there is none
+     */
+    public CommitRecord(String sha, String state, List<String> logs, String logFile) {
+      this(sha, state, LocalDateTime.now().format(FMT), logs, logFile);
+    }
+
+    /**
+     * Constructor that creates a CommitRecord without a branch.
+     *
+     * @param sha the commit SHA hash
+     * @param state the compilation state of the commit
+     * @param time the timestamp of the commit
+     * @param logs the last lines of the build logs of the commit
+     * @param logFile the handle of the complete build log, or {@code null} if there is none
+     */
+    public CommitRecord(String sha, String state, String time, List<String> logs, String logFile) {
+      this(sha, state, time, logs, logFile, null);
+    }
+
+    /**
+     * Returns a copy of this record pushed to the given branch.
+     *
+     * @param branch the branch the commit was pushed to
+     * @return the record with the branch
+     */
+    public CommitRecord withBranch(String branch) {
+      return new CommitRecord(sha, state, time, logs, logFile, branch);
     }
   }
 
   // Latest commit
-  private final AtomicReference<CommitRecord> latest = new AtomicReference<>();
-  // Persisted commits
-  private final ConcurrentHashMap<String, CommitRecord> commits = new ConcurrentHashMap<>();
-  private final ObjectMapper mapper;
-  // Path to "database"
+  private final AtomicReference<HistoryEntry> latest = new AtomicReference<>();
+  // Persisted commits in their compact form
+  private final ConcurrentHashMap<HistoryEntry.Sha, HistoryEntry> commits =
+      new ConcurrentHashMap<>();
+  // Persisted commits newest first, updated together with commits under this
+  private final ConcurrentSkipListSet<HistoryEntry> byTime =
+      new ConcurrentSkipListSet<>(HistoryEntry.NEWEST_FIRST);
+  // Path of the json snapshot, the H2 database and the log segments are stored next to it
   private final Path commitsFilePath;
+  // Persists the history, chosen once when the service is constructed
+  private final StatusStore store;
+  // Logs of the commits, kept in memory-mapped segments instead of the heap
+  private final LogStore logStore;
+  // Receives the evicted commits with their logs if the archive is enabled
+  private final HistoryArchive historyArchive;
+
+  /** Size of the cache of recently viewed logs in kilobytes. */
+  @Value("${ci.status.logCacheKb:1024}")
+  private long logCacheKb = 1024;
+
+  /** Number of appended records after which the store is compacted. */
+  @Value("${ci.status.compactAfter:100}")
+  private int compactAfter = 100;
+
+  /** Largest number of records written to the store with one durable write. */
+  @Value("${ci.status.batchSize:64}")
+  private int batchSize = 64;
+
+  /** How long the writer waits for more records after the first record of a batch arrived. */
+  @Value("${ci.status.batchWindowMillis:5}")
+  private long batchWindowMillis = 5;
+
+  /** Age in days after which commits are evicted, 0 keeps them regardless of their age. */
+  @Value("${ci.status.retentionDays:0}")
+  private int retentionDays = 0;
+
+  /** Largest number of commits in the history, 0 for no limit. */
+  @Value("${ci.status.maxCommits:0}")
+  private int maxCommits = 0;
+
+  /** Budget for the logs of all commits in megabytes, 0 for no limit. */
+  @Value("${ci.status.maxLogMb:0}")
+  private long maxLogMb = 0;
+
+  /** Whether evicted commits are appended with their logs to the compressed archive. */
+  @Value("${ci.status.archive:false}")
+  private boolean archive = false;
 
-  /** This is the constructor that Springboot will use to create the Status service class. */
-  public Status() {
-    this(Paths.get("build", "commits.json"));
+  /** Largest number of evictions done by a put, the sweeper does the rest. */
+  private static final int EVICTIONS_PER_PUT = 8;
+
+  /** Largest number of evictions the sweeper does at once before it lets puts in again. */
+  private static final int EVICTIONS_PER_SWEEP_STEP = 256;
+
+  // Records waiting for the writer thread, in the order they were put
+  private final LinkedBlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+  // The writer thread, started on the first put, guarded by this
+  private Thread writer;
+  private boolean stopped;
+
+  // False while the startup load indexes the commits, the history is incomplete until then
+  private volatile boolean ready = true;
+  // Completed once the startup load has read the logs of the store
+  private volatile CompletableFuture<Void> logsLoaded = CompletableFuture.completedFuture(null);
+  // Commits put while the startup load runs, which must not be replaced by their older records
+  private final Set<HistoryEntry.Sha> putWhileLoading = ConcurrentHashMap.newKeySet();
+  // Newest entry whose logs the log budget visited, older entries have no logs left to evict,
+  // guarded by this
+  private HistoryEntry logHorizon;
+
+  private final AtomicLong batches = new AtomicLong();
+  private final AtomicLong written = new AtomicLong();
+  private final AtomicLong failedBatches = new AtomicLong();
+  private final AtomicLong maxBatchSize = new AtomicLong();
+  private final AtomicLong totalFlushMicros = new AtomicLong();
+  private final AtomicLong maxFlushMicros = new AtomicLong();
+  private final AtomicLong evictedCommits = new AtomicLong();
+  private final AtomicLong evictedLogs = new AtomicLong();
+
+  /**
+   * A record or an eviction waiting to be written to the store.
+   *
+   * @param record the record to write, or {@code null} if a commit is removed
+   * @param removed the sha of the commit to remove, or {@code null} if a record is written
+   * @param archived the evicted commit with its logs to archive, or {@code null} if there is none
+   * @param durable completed once the record has been forced to disk
+   */
+  private record Pending(
+      CommitRecord record,
+      String removed,
+      CommitRecord archived,
+      CompletableFuture<Void> durable) {}
+
+  /** Marker that stops the writer thread once the records put before it are written. */
+  private static final Pending STOP = new Pending(null, null, null, null);
+
+  /**
+   * A page of the commit history.
+   *
+   * @param commits the commits on the page sorted after time descending
+   * @param next cursor of the next page, or {@code null} if this is the last page
+   */
+  public record HistoryPage(List<CommitRecord> commits, String next) {}
+
+  /**
+   * A filter of the commit history, where {@code null} matches every commit.
+   *
+   * @param state the state of the commits
+   * @param branch the branch the commits were pushed to
+   * @param shaPrefix the start of the sha of the commits
+   * @param since the oldest time of the commits
+   */
+  public record HistoryFilter(String state, String branch, String shaPrefix, Instant since) {
+
+    /** Filter matching every commit. */
+    public static final HistoryFilter NONE = new HistoryFilter(null, null, null, null);
+
+    /**
+     * Returns whether the filter matches every commit.
+     *
+     * @return {@code true} if no field of the filter is set
+     */
+    public boolean isEmpty() {
+      return state == null && branch == null && shaPrefix == null && since == null;
+    }
+  }
+
+  /**
+   * Snapshot of the writer and retention counters.
+   *
+   * @param batches total number of batches written, each with one durable write
+   * @param records total number of records and evictions written
+   * @param maxBatchSize largest number of records written in one batch
+   * @param pending number of records waiting to be written
+   * @param avgFlushMicros average time the durable write of a batch took
+   * @param maxFlushMicros longest time the durable write of a batch took
+   * @param failedBatches total number of batches that could not be written
+   * @param commits number of commits in the history
+   * @param logBytes size of the logs of all commits
+   * @param evictedCommits total number of commits evicted by the retention
+   * @param evictedLogs total number of logs evicted by the log budget
+   */
+  public record Stats(
+      long batches,
+      long records,
+      long maxBatchSize,
+      long pending,
+      long avgFlushMicros,
+      long maxFlushMicros,
+      long failedBatches,
+      long commits,
+      long logBytes,
+      long evictedCommits,
+      long evictedLogs) {}
+
+  /**
+   * This is the constructor that Springboot will use to create the Status service class.
+   *
+   * @param storeType the store persisting the history, json or h2, see {@link StatusStore#create}
+   */
+  @Autowired
+  public Status(@Value("${ci.status.store:json}") String storeType) {
+    this(
+        Paths.get("build", "commits.json"),
+        StatusStore.create(storeType, Paths.get("build", "commits.json")));
   }
 
   /**
-   * Constructs a Status instance with a custom path for the commits file
+   * Constructs a Status instance with a custom path for the commits file, persisted by a json
+   * store. The log segments are stored next to it in a directory with the suffix {@code -logs}, and
+   * the archive in a file with the suffix {@code -archive.jsonl.gz}.
    *
    * @param commitsFilePath the file path where the commit history will be stored and loaded from
    */
   public Status(Path commitsFilePath) {
-    this.commitsFilePath = commitsFilePath;
-    this.mapper = new ObjectMapper();
+    this(commitsFilePath, new JsonStatusStore(commitsFilePath));
   }
 
   /**
-   * Instructions for Springboot when initiating the Status class. If the function encounters an
-   * error when reading from file or parsing json, no commit history is loaded.
+   * Constructs a Status instance persisted by the given store.
    *
-   * <p>Loads persisted commits from json file.
+   * @param commitsFilePath the file path the log segments are stored next to
+   * @param store the store persisting the history
+   */
+  Status(Path commitsFilePath, StatusStore store) {
+    this.commitsFilePath = commitsFilePath;
+    this.store = store;
+    this.logStore = new LogStore(siblingPath("-logs"), logCacheKb * 1024);
+    this.historyArchive = new HistoryArchive(siblingPath("-archive.jsonl.gz"));
+  }
+
+  /**
+   * Instructions for Springboot when initiating the Status class. Opens the configured store and
+   * starts loading the persisted commits in the background, see {@link #load}.
    */
   @PostConstruct
   public void init() {
+    logStore.setCacheLimit(logCacheKb * 1024);
+    ready = false;
+    logsLoaded = new CompletableFuture<>();
     try {
-      String json = readJsonFromFile();
-      if (!json.isBlank()) {
-        loadFromJson(json);
-      }
-    } catch (Exception e) {
+      store.open();
+    } catch (IOException e) {
       e.printStackTrace();
     }
+    Thread.ofPlatform().name("status-loader").daemon().start(this::load);
+  }
+
+  /**
+   * Instructions for Springboot when shutting down, writes the records that are still waiting and
+   * compacts the store.
+   */
+  @PreDestroy
+  public void shutdown() {
+    Thread current;
+    synchronized (this) {
+      stopped = true;
+      current = writer;
+    }
+    if (current != null) {
+      queue.add(STOP);
+      try {
+        current.join(TimeUnit.SECONDS.toMillis(10));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    writeBatch(drain());
+    compact(1);
+    store.close();
+  }
+
+  /**
+   * Returns whether the startup load is still indexing the commits, in which case the history is
+   * incomplete.
+   *
+   * @return {@code true} until the commits of the store are indexed
+   */
+  public boolean isLoading() {
+    return !ready;
   }
 
   /**
@@ -102,119 +372,621 @@ public class Status {
    * @return Latest persisted commit.
    */
   public Optional<CommitRecord> getLatest() {
-    return Optional.ofNullable(latest.get());
+    HistoryEntry entry = latest.get();
+    if (entry == null) {
+      return Optional.empty();
+    }
+    return Optional.of(entry.toRecord(readLogs(entry, true)));
+  }
+
+  /**
+   * Returns the commit with the given SHA including its logs, which are read from the log segments
+   * or the cache of recently viewed logs.
+   *
+   * @param sha the commit SHA hash
+   * @return the commit, or empty if it is not in the history
+   */
+  public Optional<CommitRecord> get(String sha) {
+    HistoryEntry entry = commits.get(HistoryEntry.Sha.of(sha));
+    if (entry == null) {
+      return Optional.empty();
+    }
+    return Optional.of(entry.toRecord(readLogs(entry, true)));
   }
 
   /**
-   * Returns the map of commits. Used for lookup by SHA.
+   * Returns a copy of the map of commits. Creates a record and reads the logs of every commit, use
+   * {@link #get} to look up a single commit. Waits until the startup load has finished.
    *
-   * @return a ConcurrentHashMap with commit SHA as key and CommitRecord as value
+   * @return a map with commit SHA as key and CommitRecord as value
    */
-  public ConcurrentHashMap<String, CommitRecord> getCommitsMap() {
-    return this.commits;
+  public Map<String, CommitRecord> getCommitsMap() {
+    logsLoaded.join();
+    return snapshot();
   }
 
   /**
-   * Function that returns the commit history as a list of commits.
+   * Function that returns the commit history as a list of commits. Reads the logs of every commit,
+   * use {@link #getCommits(String, int)} to list commits. Waits until the startup load has
+   * finished.
    *
    * @return commit history sorted after time descending
    */
   public List<CommitRecord> getCommits() {
-    return commits.values().stream()
-        .sorted(Comparator.comparing(CommitRecord::time).reversed())
-        .collect(Collectors.toList());
+    logsLoaded.join();
+    List<CommitRecord> records = new ArrayList<>(byTime.size());
+    for (HistoryEntry entry : byTime) {
+      records.add(entry.toRecord(readLogs(entry, false)));
+    }
+    return records;
+  }
+
+  /**
+   * Function that returns one page of the commit history. Only the commits on the page are visited,
+   * so the cost does not grow with the history. The logs are not read, so the commits on the page
+   * have no logs.
+   *
+   * @param before cursor of the previous page, or {@code null} for the newest commits, a malformed
+   *     cursor is treated like {@code null}
+   * @param limit maximum number of commits on the page
+   * @return the commits older than the cursor sorted after time descending, and the cursor of the
+   *     next page
+   */
+  public HistoryPage getCommits(String before, int limit) {
+    HistoryEntry probe = HistoryEntry.probe(before);
+    NavigableSet<HistoryEntry> older = probe == null ? byTime : byTime.tailSet(probe, false);
+    List<CommitRecord> page = new ArrayList<>(Math.min(limit, 64));
+    HistoryEntry last = null;
+    String next = null;
+    for (HistoryEntry entry : older) {
+      if (page.size() == limit) {
+        next = last.cursor();
+        break;
+      }
+      page.add(entry.toRecord(null));
+      last = entry;
+    }
+    return new HistoryPage(page, next);
+  }
+
+  /**
+   * Function that returns one page of the commits matching a filter. The page is found with the
+   * indexes of the store if it has any, in which case commits put in the last few milliseconds may
+   * be missing. Otherwise the time index is walked until the page is full or the commits are older
+   * than the filter. The commits on the page have no logs.
+   *
+   * @param filter the filter of the history
+   * @param before cursor of the previous page, or {@code null} for the newest commits, a malformed
+   *     cursor is treated like {@code null}
+   * @param limit maximum number of commits on the page
+   * @return the matching commits older than the cursor sorted after time descending, and the cursor
+   *     of the next page
+   */
+  public HistoryPage getCommits(HistoryFilter filter, String before, int limit) {
+    if (filter.isEmpty()) {
+      return getCommits(before, limit);
+    }
+    Optional<HistoryPage> indexed = store.find(filter, before, limit);
+    if (indexed.isPresent()) {
+      return indexed.get();
+    }
+    long since = filter.since() == null ? Long.MIN_VALUE : filter.since().toEpochMilli();
+    HistoryEntry probe = HistoryEntry.probe(before);
+    NavigableSet<HistoryEntry> older = probe == null ? byTime : byTime.tailSet(probe, false);
+    List<CommitRecord> page = new ArrayList<>(Math.min(limit, 64));
+    HistoryEntry last = null;
+    String next = null;
+    for (HistoryEntry entry : older) {
+      if (entry.time < since) {
+        break;
+      }
+      if (!entry.matches(filter)) {
+        continue;
+      }
+      if (page.size() == limit) {
+        next = last.cursor();
+        break;
+      }
+      page.add(entry.toRecord(null));
+      last = entry;
+    }
+    return new HistoryPage(page, next);
   }
 
   /**
-   * Function that persists a given commit. If an exception is caught when writing to JSON it is
-   * ignored, and the commit will not be stored on file.
+   * Function that persists a given commit. The commit is visible right away and is appended to the
+   * store by the writer thread, so the caller never waits for the disk. If an exception is caught
+   * when writing to the store the returned future fails, and the commit will not be stored. A few
+   * commits beyond the retention are evicted along the way.
    *
    * @param status commit to persist
+   * @return a future completed once the commit has been forced to disk
    */
-  public void put(CommitRecord status) {
-    latest.set(status);
-    commits.put(status.sha(), status);
+  public synchronized CompletableFuture<Void> put(CommitRecord status) {
+    HistoryEntry entry = HistoryEntry.of(status, logStore);
+    if (!ready) {
+      putWhileLoading.add(entry.sha);
+    }
+    latest.set(entry);
+    index(entry);
+    CompletableFuture<Void> durable = new CompletableFuture<>();
+    queue.add(new Pending(status, null, null, durable));
+    startWriter();
+    evict(EVICTIONS_PER_PUT);
+    return durable;
+  }
+
+  /**
+   * Returns a snapshot of the writer counters.
+   *
+   * @return the current persistence statistics
+   */
+  public Stats getStats() {
+    long count = batches.get();
+    return new Stats(
+        count,
+        written.get(),
+        maxBatchSize.get(),
+        queue.size(),
+        count == 0 ? 0 : totalFlushMicros.get() / count,
+        maxFlushMicros.get(),
+        failedBatches.get(),
+        commits.size(),
+        logStore.getLiveBytes(),
+        evictedCommits.get(),
+        evictedLogs.get());
+  }
+
+  /**
+   * Evicts the commits and logs beyond the retention, runs every {@code ci.status.sweepSeconds}.
+   * Puts only evict a few each, the sweeper catches up after a restart or a change of the
+   * retention. It evicts in steps, so puts are not blocked for long.
+   */
+  @Scheduled(
+      initialDelayString = "${ci.status.sweepSeconds:60}",
+      fixedDelayString = "${ci.status.sweepSeconds:60}",
+      timeUnit = TimeUnit.SECONDS)
+  public void sweep() {
+    int evicted;
+    do {
+      evicted = evict(EVICTIONS_PER_SWEEP_STEP);
+    } while (evicted == EVICTIONS_PER_SWEEP_STEP);
+  }
+
+  /**
+   * Evicts at most the given number of commits or logs beyond the retention, oldest first. Commits
+   * older than {@code ci.status.retentionDays} or beyond {@code ci.status.maxCommits} are evicted
+   * as a whole. While the logs exceed {@code ci.status.maxLogMb}, the logs of the oldest commits
+   * are evicted and the commits are kept. The latest commit is never evicted, and nothing is
+   * evicted before the startup load has finished.
+   *
+   * @param limit the largest number of evictions
+   * @return the number of evictions
+   */
+  synchronized int evict(int limit) {
+    long logBudget = maxLogMb * 1024 * 1024;
+    if ((retentionDays <= 0 && maxCommits <= 0 && logBudget <= 0) || !logsLoaded.isDone()) {
+      return 0;
+    }
+    long cutoff =
+        retentionDays > 0
+            ? System.currentTimeMillis() - TimeUnit.DAYS.toMillis(retentionDays)
+            : Long.MIN_VALUE;
+    int evicted = 0;
+    while (evicted < limit && !byTime.isEmpty()) {
+      HistoryEntry oldest = byTime.last();
+      boolean overCount = maxCommits > 0 && commits.size() > maxCommits;
+      if (oldest == latest.get() || (!overCount && oldest.time >= cutoff)) {
+        break;
+      }
+      evictCommit(oldest);
+      evicted++;
+    }
+    if (logBudget <= 0) {
+      return evicted;
+    }
+    Iterator<HistoryEntry> oldestFirst =
+        logHorizon == null
+            ? byTime.descendingIterator()
+            : byTime.headSet(logHorizon, false).descendingIterator();
+    while (evicted < limit && logStore.getLiveBytes() > logBudget && oldestFirst.hasNext()) {
+      HistoryEntry entry = oldestFirst.next();
+      if (entry == latest.get()) {
+        break;
+      }
+      logHorizon = entry;
+      if (logStore.size(entry.logs) > 0) {
+        evictLogs(entry);
+        evicted++;
+      }
+    }
+    return evicted;
+  }
+
+  /**
+   * Compacts the store once enough records were appended, runs every {@code
+   * ci.status.compactSeconds}.
+   */
+  @Scheduled(
+      initialDelayString = "${ci.status.compactSeconds:60}",
+      fixedDelayString = "${ci.status.compactSeconds:60}",
+      timeUnit = TimeUnit.SECONDS)
+  public void compact() {
+    compact(compactAfter);
+  }
+
+  /**
+   * Lets the store rewrite the history in a compact form, if at least the given number of records
+   * were appended since the last compaction. Nothing is compacted before the startup load has
+   * finished.
+   *
+   * @param threshold the minimal number of appended records
+   */
+  void compact(int threshold) {
+    if (!logsLoaded.isDone()) {
+      return;
+    }
+    store.compact(threshold, this::consistentSnapshot);
+  }
+
+  /**
+   * Returns a copy of the map of commits without waiting for the startup load.
+   *
+   * @return a map with commit SHA as key and CommitRecord as value
+   */
+  private Map<String, CommitRecord> snapshot() {
+    Map<String, CommitRecord> map = new HashMap<>();
+    for (HistoryEntry entry : commits.values()) {
+      map.put(entry.sha.toString(), entry.toRecord(readLogs(entry, false)));
+    }
+    return map;
+  }
+
+  /**
+   * Returns a copy of the map of commits as it was at one point in time. Only the entries and the
+   * references of their logs are copied while no commit can be put, the logs are decoded after
+   * that, so puts are not blocked while the whole history is read. Logs are never overwritten in
+   * their segment, so they decode as they were at that point, or as {@code null} if a later put or
+   * eviction freed them, which the store then persists after this copy.
+   *
+   * @return a map with commit SHA as key and CommitRecord as value
+   */
+  private Map<String, CommitRecord> consistentSnapshot() {
+    List<HistoryEntry> entries;
+    long[] logs;
+    synchronized (this) {
+      entries = new ArrayList<>(commits.values());
+      logs = new long[entries.size()];
+      for (int i = 0; i < logs.length; i++) {
+        logs[i] = entries.get(i).logs;
+      }
+    }
+    Map<String, CommitRecord> map = new HashMap<>();
+    for (int i = 0; i < logs.length; i++) {
+      HistoryEntry entry = entries.get(i);
+      map.put(entry.sha.toString(), entry.toRecord(logStore.readUncached(logs[i])));
+    }
+    return map;
+  }
+
+  /**
+   * Removes a commit from the history and frees its logs. The removal is handed to the writer
+   * thread, behind the records put before it. Must be called while holding this.
+   *
+   * @param entry the entry of the commit
+   */
+  private void evictCommit(HistoryEntry entry) {
+    commits.remove(entry.sha, entry);
+    byTime.remove(entry);
+    CommitRecord archived = archive ? entry.toRecord(logStore.readUncached(entry.logs)) : null;
+    logStore.free(entry.logs);
+    queue.add(new Pending(null, entry.sha.toString(), archived, new CompletableFuture<>()));
+    evictedCommits.incrementAndGet();
+    startWriter();
+  }
+
+  /**
+   * Replaces a commit with a copy without logs, which frees its logs. The copy is handed to the
+   * writer thread, so the store drops the logs too. Must be called while holding this.
+   *
+   * @param entry the entry of the commit
+   */
+  private void evictLogs(HistoryEntry entry) {
+    CommitRecord archived = archive ? entry.toRecord(logStore.readUncached(entry.logs)) : null;
+    HistoryEntry withoutLogs = entry.withoutLogs();
+    index(withoutLogs);
+    queue.add(new Pending(withoutLogs.toRecord(null), null, archived, new CompletableFuture<>()));
+    evictedLogs.incrementAndGet();
+    startWriter();
+  }
+
+  /** Starts the writer thread unless it runs already or the service was shut down. */
+  private synchronized void startWriter() {
+    if (writer == null && !stopped) {
+      writer = Thread.ofPlatform().name("status-writer").daemon().start(this::writeLoop);
+    }
+  }
+
+  /**
+   * Reads the logs of an entry, waiting for the startup load if they are not loaded yet.
+   *
+   * @param entry the entry of the commit
+   * @param cached whether the logs are read through the cache of recently viewed logs
+   * @return the logs of the commit
+   */
+  private List<String> readLogs(HistoryEntry entry, boolean cached) {
+    if (entry.logs == LogStore.PENDING) {
+      logsLoaded.join();
+    }
+    return cached ? logStore.read(entry.logs) : logStore.readUncached(entry.logs);
+  }
+
+  /**
+   * Adds a commit to the commit map and the time index, replacing an earlier record of the same
+   * commit whose logs are freed. The new entry is added to the index before the old one is removed,
+   * so a concurrent page query never misses the commit.
+   *
+   * @param entry the commit to add
+   */
+  private synchronized void index(HistoryEntry entry) {
+    HistoryEntry previous = commits.put(entry.sha, entry);
+    if (previous != null) {
+      logStore.free(previous.logs);
+    }
+    if (previous != null && HistoryEntry.NEWEST_FIRST.compare(previous, entry) == 0) {
+      // Both entries have the same place in the index, so the old one has to go first
+      byTime.remove(previous);
+      byTime.add(entry);
+      return;
+    }
+    byTime.add(entry);
+    if (previous != null) {
+      byTime.remove(previous);
+    }
+  }
+
+  /**
+   * Loop of the loader thread started by {@link #init}. Indexes the commits of the store, the
+   * commits of a json snapshot without their logs, after which the service is ready. Then reads
+   * the logs that are still missing and lets the store finish work a crash interrupted. If an error
+   * is met while loading, the commits loaded until then are kept.
+   */
+  private void load() {
+    long start = System.nanoTime();
+    StartupLoader loader = new StartupLoader();
+    try {
+      store.load(loader);
+      synchronized (this) {
+        if (latest.get() == null && !byTime.isEmpty()) {
+          latest.set(byTime.first());
+        }
+      }
+      System.out.println(
+          "[STATUS] Loaded "
+              + loader.commits
+              + " commits and replayed "
+              + loader.records
+              + " records in "
+              + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+              + " ms");
+    } catch (Exception e) {
+      e.printStackTrace();
+    } finally {
+      ready = true;
+    }
+
+    try {
+      store.loadLogs(this::loadLogs);
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+    for (HistoryEntry entry : commits.values()) {
+      if (entry.logs == LogStore.PENDING) {
+        entry.logs = LogStore.NONE;
+      }
+    }
+    putWhileLoading.clear();
     try {
-      writeJsonToFile(mapToJson(commits));
+      store.recover(this::consistentSnapshot);
     } catch (IOException e) {
       e.printStackTrace();
     }
+    logsLoaded.complete(null);
+  }
+
+  /** Indexes the commits delivered by the store on startup and counts them. */
+  private class StartupLoader implements StatusStore.Loader {
+
+    private int commits;
+    private int records;
+
+    /**
+     * Indexes a commit whose logs are loaded later.
+     *
+     * @param record the commit without logs
+     */
+    @Override
+    public void metadata(CommitRecord record) {
+      loadEntry(HistoryEntry.pending(record), false);
+      commits++;
+    }
+
+    /**
+     * Indexes a commit with its logs, which becomes the latest commit.
+     *
+     * @param record the commit
+     */
+    @Override
+    public void commit(CommitRecord record) {
+      loadEntry(HistoryEntry.of(record, logStore), true);
+      records++;
+    }
+
+    /**
+     * Drops a commit that was evicted after it was loaded.
+     *
+     * @param sha the sha of the removed commit
+     */
+    @Override
+    public void removed(String sha) {
+      unloadEntry(sha);
+      records++;
+    }
   }
 
   /**
-   * Loads commit history from json into the commit map.
+   * Adds a commit read by the startup load, unless the commit was put while the load was running.
    *
-   * @param json json to load commit history from
-   * @throws JsonMappingException json parsing exception
-   * @throws JsonProcessingException json parsing exception
+   * @param entry the commit to add
+   * @param makeLatest whether the commit becomes the latest commit
    */
-  private void loadFromJson(String json) throws JsonMappingException, JsonProcessingException {
-    commits.clear();
-    commits.putAll(jsonToMap(json));
-
-    latest.set(
-        commits.values().stream().max(Comparator.comparing(CommitRecord::time)).orElse(null));
+  private synchronized void loadEntry(HistoryEntry entry, boolean makeLatest) {
+    if (!putWhileLoading.isEmpty()) {
+      if (putWhileLoading.contains(entry.sha)) {
+        return;
+      }
+      makeLatest = false;
+    }
+    index(entry);
+    if (makeLatest) {
+      latest.set(entry);
+    }
   }
 
   /**
-   * Attempts to convert given json string to a Map with SHA as key and commit reference as value.
+   * Removes a commit read by the startup load and frees its logs, unless the commit was put while
+   * the load was running.
    *
-   * @param json json to read from
-   * @return Map with SHA as key and commit reference as value
-   * @throws JsonMappingException json parsing exception
-   * @throws JsonProcessingException json parsing exception
+   * @param sha the sha of the commit
    */
-  private Map<String, CommitRecord> jsonToMap(String json)
-      throws JsonMappingException, JsonProcessingException {
-    if (json == null || json.isBlank()) {
-      return Map.of();
+  private synchronized void unloadEntry(String sha) {
+    HistoryEntry.Sha key = HistoryEntry.Sha.of(sha);
+    if (putWhileLoading.contains(key)) {
+      return;
     }
-
-    return mapper.readValue(
-        json,
-        new TypeReference<Map<String, CommitRecord>>() {
-          ;
-        });
+    HistoryEntry entry = commits.remove(key);
+    if (entry == null) {
+      return;
+    }
+    byTime.remove(entry);
+    logStore.free(entry.logs);
+    // The load makes the newest commit the latest once it is done
+    latest.compareAndSet(entry, null);
   }
 
   /**
-   * Attempts to convert a Map with SHA as key and commit reference as value to a json string.
+   * Writes the logs of a record to the log store, if its entry is still waiting for them. An entry
+   * that was replaced by the journal or a put already holds newer logs.
    *
-   * @param map map to convert into json
-   * @return json representation of the given map
-   * @throws JsonProcessingException json conversion exception
+   * @param record the record read from the store
    */
-  private String mapToJson(Map<String, CommitRecord> map) throws JsonProcessingException {
-    return mapper.writerWithDefaultPrettyPrinter().writeValueAsString(map);
+  private synchronized void loadLogs(CommitRecord record) {
+    HistoryEntry entry = commits.get(HistoryEntry.Sha.of(record.sha()));
+    if (entry != null && entry.logs == LogStore.PENDING) {
+      entry.logs = logStore.write(record.logs());
+    }
   }
 
   /**
-   * Attempts to read json from given file.
+   * Returns a path next to the commits file, named like it without its extension.
    *
-   * @return json found in file
-   * @throws IOException if an exception was met when attempting to read from file
+   * @param suffix the suffix of the name
+   * @return the path
+   */
+  private Path siblingPath(String suffix) {
+    String name = commitsFilePath.getFileName().toString().replaceFirst("\\.json$", "");
+    return commitsFilePath.resolveSibling(name + suffix);
+  }
+
+  /**
+   * Loop of the writer thread. Waits for a record, collects the records put within the batch window
+   * up to the batch size, and writes them as one batch. Ends when it takes the stop marker.
    */
-  private String readJsonFromFile() throws IOException {
-    if (!Files.exists(commitsFilePath)) {
-      return "";
+  private void writeLoop() {
+    List<Pending> batch = new ArrayList<>();
+    boolean stopping = false;
+    while (!stopping) {
+      try {
+        Pending next = queue.take();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(batchWindowMillis);
+        while (next != null) {
+          if (next == STOP) {
+            stopping = true;
+            break;
+          }
+          batch.add(next);
+          if (batch.size() >= batchSize) {
+            break;
+          }
+          next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+      } catch (InterruptedException e) {
+        stopping = true;
+      }
+      writeBatch(batch);
+      batch.clear();
     }
-    return Files.readString(commitsFilePath, StandardCharsets.UTF_8);
   }
 
   /**
-   * Writes json to file.
+   * Removes all records that are waiting for the writer thread.
+   *
+   * @return the waiting records in the order they were put
+   */
+  private List<Pending> drain() {
+    List<Pending> pending = new ArrayList<>();
+    queue.drainTo(pending);
+    pending.removeIf(p -> p == STOP);
+    return pending;
+  }
+
+  /**
+   * Appends a batch of records to the store with one durable write, removes the evicted commits
+   * from it and completes their futures. Evicted commits are archived first if the archive is
+   * enabled.
    *
-   * @param json json to persist in file
-   * @throws IOException if an exception was met when attempting to write to file
+   * @param batch the records and evictions to write
    */
-  private void writeJsonToFile(String json) throws IOException {
-    Files.createDirectories(commitsFilePath.getParent());
-    Files.writeString(
-        commitsFilePath,
-        json,
-        StandardCharsets.UTF_8,
-        StandardOpenOption.CREATE, // if not exists
-        StandardOpenOption.TRUNCATE_EXISTING, // overwrite existing
-        StandardOpenOption.WRITE); // open for write
+  private void writeBatch(List<Pending> batch) {
+    if (batch.isEmpty()) {
+      return;
+    }
+    long start = System.nanoTime();
+    try {
+      List<CommitRecord> records = new ArrayList<>(batch.size());
+      Set<String> removed = new LinkedHashSet<>();
+      List<CommitRecord> archived = new ArrayList<>();
+      for (Pending pending : batch) {
+        if (pending.archived() != null) {
+          archived.add(pending.archived());
+        }
+        if (pending.removed() != null) {
+          removed.add(pending.removed());
+        } else {
+          // A commit put again after its removal stays in the store
+          removed.remove(pending.record().sha());
+          records.add(pending.record());
+        }
+      }
+      // Archived before the store drops them, so a failed batch never loses logs
+      historyArchive.append(archived);
+      store.write(records, removed);
+    } catch (IOException e) {
+      e.printStackTrace();
+      failedBatches.incrementAndGet();
+      for (Pending pending : batch) {
+        pending.durable().completeExceptionally(e);
+      }
+      return;
+    }
+    long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+    batches.incrementAndGet();
+    written.addAndGet(batch.size());
+    maxBatchSize.accumulateAndGet(batch.size(), Math::max);
+    totalFlushMicros.addAndGet(micros);
+    maxFlushMicros.accumulateAndGet(micros, Math::max);
+    for (Pending pending : batch) {
+      pending.durable().complete(null);
+    }
   }
 }
@@ -0,0 +1,158 @@
+package ci.service;
+
+import ci.service.Status.CommitRecord;
+import ci.service.Status.HistoryFilter;
+import ci.service.Status.HistoryPage;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * StatusStore is where the {@link Status} service persists the commit history.
+ *
+ * <p>Status keeps the history in memory and serves lookups and pages from there. A store loads the
+ * history on startup, persists the batches of records put since, and may answer filtered history
+ * queries from indexes of its own. The store is selected with {@code ci.status.store}, {@code
+ * json} for a json snapshot with a journal and {@code h2} for an embedded H2 database.
+ */
+public interface StatusStore extends Closeable {
+
+  /**
+   * Creates the store of the given type. The H2 database is stored next to the json snapshot, and
+   * imports the history of the json store the first time it is opened empty, so switching to H2
+   * keeps the history.
+   *
+   * @param type the type of the store, {@code h2} for the database and json otherwise
+   * @param commitsFilePath the file path of the json snapshot
+   * @return the store, not opened yet
+   */
+  static StatusStore create(String type, Path commitsFilePath) {
+    JsonStatusStore json = new JsonStatusStore(commitsFilePath);
+    if (!"h2".equalsIgnoreCase(type)) {
+      return json;
+    }
+    String name = commitsFilePath.getFileName().toString().replaceFirst("\\.json$", "");
+    return new H2StatusStore(commitsFilePath.resolveSibling(name), json);
+  }
+
+  /** Receives the commits of the history while it is loaded. */
+  interface Loader {
+
+    /**
+     * Receives a commit without its logs, which are delivered later by {@link #loadLogs}.
+     *
+     * @param record the commit without logs
+     */
+    void metadata(CommitRecord record);
+
+    /**
+     * Receives a commit with its logs, replacing an earlier record of the same commit.
+     *
+     * @param record the commit
+     */
+    void commit(CommitRecord record);
+
+    /**
+     * Receives the removal of a commit, which drops an earlier record of the commit.
+     *
+     * @param sha the sha of the removed commit
+     */
+    void removed(String sha);
+  }
+
+  /**
+   * Prepares the store before anything is loaded or appended, and repairs a write that was cut off
+   * by a crash.
+   *
+   * @throws IOException if the store cannot be opened
+   */
+  void open() throws IOException;
+
+  /**
+   * Loads the commits of the history, in the order in which later records replace earlier ones.
+   *
+   * @param loader receives the commits
+   * @throws IOException if the history cannot be read, the commits loaded until then are kept
+   */
+  void load(Loader loader) throws IOException;
+
+  /**
+   * Loads the logs of the commits passed to {@link Loader#metadata}.
+   *
+   * @param consumer receives the commits with their logs
+   * @throws IOException if the logs cannot be read
+   */
+  void loadLogs(Consumer<CommitRecord> consumer) throws IOException;
+
+  /**
+   * Finishes work that a crash interrupted, once the history and its logs are loaded.
+   *
+   * @param history returns a copy of the whole history
+   * @throws IOException if the work cannot be finished
+   */
+  default void recover(Supplier<Map<String, CommitRecord>> history) throws IOException {}
+
+  /**
+   * Persists a batch of records with one durable write.
+   *
+   * @param records the records in the order they were put
+   * @throws IOException if the batch cannot be written, then none of its records is persisted
+   */
+  void append(List<CommitRecord> records) throws IOException;
+
+  /**
+   * Removes commits evicted by the retention of the history.
+   *
+   * @param shas the shas of the commits
+   * @throws IOException if the commits cannot be removed
+   */
+  void remove(Collection<String> shas) throws IOException;
+
+  /**
+   * Persists a batch of records followed by the removal of commits. A store that can do both with
+   * one durable write overrides this, by default the records are appended and then removed.
+   *
+   * @param records the records in the order they were put
+   * @param removed the shas of the commits evicted by the retention
+   * @throws IOException if the batch cannot be written
+   */
+  default void write(List<CommitRecord> records, Collection<String> removed) throws IOException {
+    if (!records.isEmpty()) {
+      append(records);
+    }
+    if (!removed.isEmpty()) {
+      remove(removed);
+    }
+  }
+
+  /**
+   * Rewrites the persisted history in a compact form once enough records were appended.
+   *
+   * @param threshold the minimal number of records appended since the last compaction
+   * @param history returns a copy of the whole history
+   */
+  default void compact(int threshold, Supplier<Map<String, CommitRecord>> history) {}
+
+  /**
+   * Returns a page of the commits matching a filter, if the store has indexes to find them. Records
+   * that are still waiting to be appended are not part of the page.
+   *
+   * @param filter the filter of the history
+   * @param before cursor of the previous page, or {@code null} for the newest commits
+   * @param limit maximum number of commits on the page
+   * @return the page without logs, or empty if the store cannot filter the history
+   */
+  default Optional<HistoryPage> find(HistoryFilter filter, String before, int limit) {
+    return Optional.empty();
+  }
+
+  /** Closes the store, ignoring failures. */
+  @Override
+  void close();
+}
@@ -0,0 +1,350 @@
+package ci.service;
+
+import ci.util.BuildCancellation;
+import ci.util.RepoSetup;
+import jakarta.annotation.PostConstruct;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Stream;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * WorkspacePool is a Spring service that keeps checkouts of the repository around between builds.
+ *
+ * <p>A build leases a workspace, which is a worktree of the shared mirror. A reused workspace is
+ * reset to the pushed commit with {@code git checkout -f} and {@code git clean -fdx}, keeping the
+ * directories listed in {@code ci.workspaces.preserve} (by default {@code build} and {@code
+ * .gradle}) so incremental Gradle builds can reuse their outputs. A released workspace is measured
+ * on a thread of the {@link WorkspaceReaper}, and when the total size of the workspaces exceeds
+ * {@code ci.workspaces.diskBudgetMb}, the least recently used idle workspaces are evicted.
+ */
+@Service
+public class WorkspacePool {
+
+  /** Local parent directory where the mirror and workspaces are stored. */
+  @Value("${ci.repoParentDir:not a file}")
+  private String repoParentDir;
+
+  /** Local directory name of the repository. */
+  @Value("${ci.repoID:ContinuousIntegration}")
+  private String repoID;
+
+  /** Disk budget for all workspaces together in megabytes. */
+  @Value("${ci.workspaces.diskBudgetMb:2048}")
+  private long diskBudgetMb;
+
+  /** Untracked paths that survive the reset of a reused workspace. */
+  @Value("${ci.workspaces.preserve:build,.gradle}")
+  private List<String> preserve;
+
+  private final WorkspaceReaper workspaceReaper;
+
+  // All workspaces, leased and idle, guarded by this
+  private final List<Workspace> workspaces = new ArrayList<>();
+  // Counters, guarded by this
+  private int nextId = 1;
+  private long created;
+  private long reused;
+  private long evicted;
+
+  /**
+   * Constructs a WorkspacePool that deletes evicted workspaces through the given reaper.
+   *
+   * @param workspaceReaper the WorkspaceReaper deleting evicted workspaces in the background
+   */
+  public WorkspacePool(WorkspaceReaper workspaceReaper) {
+    this.workspaceReaper = workspaceReaper;
+  }
+
+  /** A checkout of the repository that is leased to one build at a time. */
+  public static class Workspace {
+
+    private final Path dir;
+    private boolean leased;
+    private long lastUsed;
+    private long sizeBytes;
+
+    /**
+     * Constructs a Workspace for the given checkout directory.
+     *
+     * @param dir the directory of the checkout
+     */
+    public Workspace(Path dir) {
+      this.dir = dir;
+    }
+
+    /**
+     * Returns the directory of the checkout, which is the root of the Gradle project.
+     *
+     * @return the checkout directory
+     */
+    public File getDir() {
+      return dir.toFile();
+    }
+  }
+
+  /**
+   * Snapshot of the pool counters.
+   *
+   * @param workspaces number of workspaces on disk
+   * @param leased number of workspaces currently leased to a build
+   * @param totalBytes size of all workspaces as last measured after their release
+   * @param budgetBytes the configured disk budget
+   * @param created total number of workspaces created
+   * @param reused total number of leases served by an existing workspace
+   * @param evicted total number of workspaces evicted to stay within the budget
+   */
+  public record Stats(
+      int workspaces,
+      int leased,
+      long totalBytes,
+      long budgetBytes,
+      long created,
+      long reused,
+      long evicted) {}
+
+  /**
+   * Instructions for Springboot when initiating the WorkspacePool. Workspaces left on disk by a
+   * previous run are adopted as idle workspaces, so they stay warm across restarts.
+   */
+  @PostConstruct
+  public void init() {
+    Path root = workspacesRoot();
+    if (!Files.isDirectory(root)) {
+      return;
+    }
+    try (Stream<Path> dirs = Files.list(root)) {
+      for (Path wsDir : dirs.toList()) {
+        Path checkout = wsDir.resolve(repoID);
+        if (!Files.exists(checkout.resolve(".git"))) {
+          continue;
+        }
+        Workspace ws = new Workspace(checkout);
+        ws.lastUsed = Files.getLastModifiedTime(checkout).toMillis();
+        ws.sizeBytes = WorkspaceReaper.sizeOf(checkout);
+        synchronized (this) {
+          workspaces.add(ws);
+          nextId = Math.max(nextId, idOf(wsDir) + 1);
+        }
+      }
+    } catch (IOException | UncheckedIOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Leases a workspace checked out at the given commit. The most recently used idle workspace is
+   * reset and reused if there is one, otherwise a new worktree is added to the mirror. The commit
+   * must already be present in the mirror.
+   *
+   * @param sha the commit to check out
+   * @return the leased workspace
+   * @throws IllegalStateException when the workspace could not be checked out
+   */
+  public Workspace lease(String sha) {
+    return lease(sha, new BuildCancellation());
+  }
+
+  /**
+   * Leases a workspace checked out at the given commit, with the git commands of the checkout
+   * attached to the cancellation of the build. A workspace whose checkout failed or was cancelled
+   * is discarded.
+   *
+   * @param sha the commit to check out
+   * @param cancellation the handle used to cancel the build, which kills the running checkout
+   * @return the leased workspace
+   * @throws IllegalStateException when the workspace could not be checked out or the build was
+   *     cancelled
+   */
+  public Workspace lease(String sha, BuildCancellation cancellation) {
+    Workspace ws;
+    boolean fresh;
+    synchronized (this) {
+      ws =
+          workspaces.stream()
+              .filter(w -> !w.leased)
+              .max(Comparator.comparingLong(w -> w.lastUsed))
+              .orElse(null);
+      fresh = ws == null;
+      if (fresh) {
+        ws = new Workspace(workspacesRoot().resolve("ws-" + nextId++).resolve(repoID));
+        workspaces.add(ws);
+        created++;
+      } else {
+        reused++;
+      }
+      ws.leased = true;
+    }
+
+    try {
+      if (fresh) {
+        RepoSetup.createDir(ws.dir.getParent().toString());
+        RepoSetup.addWorktree(mirrorDir(), ws.dir.toString(), sha, cancellation);
+      } else {
+        RepoSetup.resetWorktree(ws.dir.toString(), sha, preserve, cancellation);
+      }
+    } catch (IOException e) {
+      discard(ws);
+      throw new IllegalStateException("Could not create the workspace directory", e);
+    } catch (RuntimeException e) {
+      discard(ws);
+      throw e;
+    }
+    return ws;
+  }
+
+  /**
+   * Returns a workspace to the pool after the build finished with it. The workspace is measured in
+   * the background, and the least recently used idle workspaces are evicted once that shows the
+   * pool is over its disk budget.
+   *
+   * @param ws the workspace returned by {@link #lease}
+   */
+  public void release(Workspace ws) {
+    synchronized (this) {
+      ws.lastUsed = System.currentTimeMillis();
+      ws.leased = false;
+    }
+    try {
+      workspaceReaper.measure(ws.dir, size -> measured(ws, size));
+    } catch (RejectedExecutionException e) {
+      // The reaper is shut down, the workspace keeps the size of its previous release
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Records the size of a released workspace, and evicts the least recently used idle workspaces
+   * while the pool is over its disk budget. Runs on a thread of the reaper.
+   *
+   * @param ws the released workspace
+   * @param size the size of the workspace in bytes
+   */
+  private void measured(Workspace ws, long size) {
+    List<Workspace> victims = new ArrayList<>();
+    synchronized (this) {
+      // A workspace leased again meanwhile was measured while its next build changed it
+      if (!ws.leased) {
+        ws.sizeBytes = size;
+      }
+
+      long total = workspaces.stream().mapToLong(w -> w.sizeBytes).sum();
+      List<Workspace> idle =
+          workspaces.stream()
+              .filter(w -> !w.leased)
+              .sorted(Comparator.comparingLong(w -> w.lastUsed))
+              .toList();
+      for (Workspace candidate : idle) {
+        if (total <= budgetBytes()) {
+          break;
+        }
+        total -= candidate.sizeBytes;
+        workspaces.remove(candidate);
+        victims.add(candidate);
+        evicted++;
+      }
+    }
+    for (Workspace victim : victims) {
+      System.out.println("[WORKSPACES] Evicting " + victim.dir);
+      delete(victim);
+    }
+  }
+
+  /**
+   * Drops a workspace whose checkout failed, so it is never leased again.
+   *
+   * @param ws the broken workspace
+   */
+  private void discard(Workspace ws) {
+    synchronized (this) {
+      workspaces.remove(ws);
+    }
+    delete(ws);
+  }
+
+  /**
+   * Returns a consistent snapshot of the pool counters.
+   *
+   * @return the current pool statistics
+   */
+  public synchronized Stats getStats() {
+    return new Stats(
+        workspaces.size(),
+        (int) workspaces.stream().filter(w -> w.leased).count(),
+        workspaces.stream().mapToLong(w -> w.sizeBytes).sum(),
+        budgetBytes(),
+        created,
+        reused,
+        evicted);
+  }
+
+  /**
+   * Hands the directory of a workspace to the reaper and prunes its worktree from the mirror. The
+   * files are deleted in the background, so evicting does not delay the build that released the
+   * workspace. Failures are only logged.
+   *
+   * @param ws the workspace to delete
+   */
+  private void delete(Workspace ws) {
+    try {
+      workspaceReaper.reap(ws.dir.getParent(), ws.sizeBytes);
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+    try {
+      RepoSetup.pruneWorktrees(mirrorDir());
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Returns the location of the bare mirror of the repository, which is shared by all builds.
+   *
+   * @return path to the mirror directory
+   */
+  private String mirrorDir() {
+    return RepoSetup.mirrorDir(repoParentDir, repoID);
+  }
+
+  /**
+   * Returns the directory all workspaces are created in.
+   *
+   * @return path to the workspaces directory
+   */
+  private Path workspacesRoot() {
+    return Paths.get(repoParentDir, "workspaces");
+  }
+
+  /**
+   * Returns the disk budget in bytes.
+   *
+   * @return the disk budget
+   */
+  private long budgetBytes() {
+    return diskBudgetMb * 1024 * 1024;
+  }
+
+  /**
+   * Returns the id encoded in a workspace directory name like {@code ws-3}.
+   *
+   * @param wsDir the workspace directory
+   * @return the id, or 0 if the name has no id
+   */
+  private static int idOf(Path wsDir) {
+    try {
+      return Integer.parseInt(wsDir.getFileName().toString().replace("ws-", ""));
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+}
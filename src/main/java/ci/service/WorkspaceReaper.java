@@ -0,0 +1,220 @@
+package ci.service;
+
+import ci.util.RepoSetup;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+import java.util.stream.Stream;
+import org.apache.commons.io.FileUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * WorkspaceReaper is a Spring service that deletes directories in the background.
+ *
+ * <p>A directory handed to the reaper is atomically renamed into a trash directory, which is
+ * cheap and frees its path immediately, and is then deleted by a small pool of low-priority
+ * threads. Trash left behind by a previous run is deleted on startup. The same threads measure the
+ * workspaces released by builds, so a build never walks its checkout to count its size.
+ */
+@Service
+public class WorkspaceReaper {
+
+  /** Local parent directory where the mirror and workspaces are stored. */
+  @Value("${ci.repoParentDir:not a file}")
+  private String repoParentDir;
+
+  /** Number of threads deleting trash at the same time. */
+  @Value("${ci.reaper.workers:1}")
+  private int workers = 1;
+
+  private ExecutorService executor;
+
+  private final AtomicInteger pendingEntries = new AtomicInteger();
+  private final AtomicLong pendingBytes = new AtomicLong();
+  private final AtomicLong reclaimedEntries = new AtomicLong();
+  private final AtomicLong reclaimedBytes = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+
+  /**
+   * Snapshot of the reaper counters.
+   *
+   * @param pendingEntries number of directories waiting to be deleted
+   * @param pendingBytes known size of the directories waiting to be deleted
+   * @param reclaimedEntries total number of deleted directories
+   * @param reclaimedBytes total size of the deleted directories
+   * @param failed total number of directories that could not be deleted
+   */
+  public record Stats(
+      int pendingEntries,
+      long pendingBytes,
+      long reclaimedEntries,
+      long reclaimedBytes,
+      long failed) {}
+
+  /**
+   * Instructions for Springboot when initiating the WorkspaceReaper. Starts the deleting threads
+   * and schedules the deletion of trash left behind by a previous run.
+   */
+  @PostConstruct
+  public void init() {
+    AtomicInteger threadId = new AtomicInteger();
+    executor =
+        new ThreadPoolExecutor(
+            workers,
+            workers,
+            0L,
+            TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(),
+            runnable -> {
+              Thread t = new Thread(runnable, "workspace-reaper-" + threadId.incrementAndGet());
+              t.setDaemon(true);
+              t.setPriority(Thread.MIN_PRIORITY);
+              return t;
+            });
+
+    Path trash = trashDir();
+    if (!Files.isDirectory(trash)) {
+      return;
+    }
+    try (Stream<Path> leftovers = Files.list(trash)) {
+      leftovers.forEach(leftover -> schedule(leftover, -1));
+    } catch (IOException | UncheckedIOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /** Instructions for Springboot when shutting down, stops the deleting threads. */
+  @PreDestroy
+  public void shutdown() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Moves a directory into the trash and schedules its deletion. The directory is gone from its
+   * original path when this method returns. If the directory cannot be renamed atomically, for
+   * example because the trash is on another file system, it is deleted in place in the background.
+   *
+   * @param dir the directory to delete
+   * @param sizeBytes the size of the directory if known, or a negative value if it is unknown
+   * @throws IOException if the directory cannot be moved into the trash
+   */
+  public void reap(Path dir, long sizeBytes) throws IOException {
+    if (!Files.exists(dir)) {
+      return;
+    }
+    Path trash = trashDir();
+    Files.createDirectories(trash);
+    Path target = trash.resolve(dir.getFileName() + "-" + UUID.randomUUID());
+    try {
+      Files.move(dir, target, StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      target = dir;
+    }
+    schedule(target, sizeBytes);
+  }
+
+  /**
+   * Measures the size of a directory on a deleting thread and passes it to the consumer, which
+   * runs on that thread too.
+   *
+   * @param dir the directory to measure
+   * @param consumer receives the size in bytes, or 0 if it cannot be measured
+   */
+  public void measure(Path dir, LongConsumer consumer) {
+    executor.execute(() -> consumer.accept(sizeOf(dir)));
+  }
+
+  /**
+   * Returns a consistent snapshot of the reaper counters.
+   *
+   * @return the current reaper statistics
+   */
+  public Stats getStats() {
+    return new Stats(
+        pendingEntries.get(),
+        pendingBytes.get(),
+        reclaimedEntries.get(),
+        reclaimedBytes.get(),
+        failed.get());
+  }
+
+  /**
+   * Schedules the deletion of a directory on the deleting threads.
+   *
+   * @param dir the directory to delete
+   * @param sizeBytes the size of the directory if known, or a negative value if it is unknown
+   */
+  private void schedule(Path dir, long sizeBytes) {
+    pendingEntries.incrementAndGet();
+    if (sizeBytes > 0) {
+      pendingBytes.addAndGet(sizeBytes);
+    }
+    executor.execute(() -> delete(dir, sizeBytes));
+  }
+
+  /**
+   * Deletes a directory and updates the counters. Runs on a deleting thread.
+   *
+   * @param dir the directory to delete
+   * @param sizeBytes the size of the directory if known, or a negative value if it is unknown
+   */
+  private void delete(Path dir, long sizeBytes) {
+    long size = sizeBytes;
+    if (size < 0) {
+      size = sizeOf(dir);
+      pendingBytes.addAndGet(size);
+    }
+    try {
+      RepoSetup.removeDir(dir.toString());
+      reclaimedEntries.incrementAndGet();
+      reclaimedBytes.addAndGet(size);
+    } catch (IOException e) {
+      failed.incrementAndGet();
+      e.printStackTrace();
+    } finally {
+      pendingEntries.decrementAndGet();
+      pendingBytes.addAndGet(-size);
+    }
+  }
+
+  /**
+   * Returns the trash directory, which is inside the parent directory so that moving a workspace
+   * into it is a rename on the same file system.
+   *
+   * @return path to the trash directory
+   */
+  private Path trashDir() {
+    return Paths.get(repoParentDir, ".trash");
+  }
+
+  /**
+   * Returns the size of a directory, or 0 if it cannot be measured.
+   *
+   * @param dir the directory to measure
+   * @return the size in bytes
+   */
+  static long sizeOf(Path dir) {
+    try {
+      return Files.isDirectory(dir) ? FileUtils.sizeOfDirectory(dir.toFile()) : 0;
+    } catch (UncheckedIOException | IllegalArgumentException e) {
+      return 0;
+    }
+  }
+}
@@ -0,0 +1,74 @@
+package ci.util;
+
+/**
+ * BuildCancellation is a handle for cancelling a running build from another thread.
+ *
+ * <p>The build attaches the external process it is currently waiting for. Cancelling the handle
+ * kills that process together with all of its descendants (for example the Gradle JVM started by
+ * {@code gradlew}), and any process attached after the cancellation is killed right away.
+ */
+public class BuildCancellation {
+
+  private volatile boolean cancelled;
+  // The process the build is currently waiting for, guarded by this
+  private Process process;
+
+  /**
+   * Registers the process the build is currently waiting for. If the build has already been
+   * cancelled the process tree is killed immediately.
+   *
+   * @param process the started process
+   */
+  public void attach(Process process) {
+    synchronized (this) {
+      this.process = process;
+      if (!cancelled) {
+        return;
+      }
+    }
+    destroyTree(process.toHandle());
+  }
+
+  /**
+   * Unregisters a process once the build has stopped waiting for it.
+   *
+   * @param process the process that was attached
+   */
+  public synchronized void detach(Process process) {
+    if (this.process == process) {
+      this.process = null;
+    }
+  }
+
+  /** Cancels the build and kills the process tree of the currently attached process, if any. */
+  public void cancel() {
+    Process current;
+    synchronized (this) {
+      cancelled = true;
+      current = process;
+    }
+    if (current != null) {
+      destroyTree(current.toHandle());
+    }
+  }
+
+  /**
+   * Returns whether the build has been cancelled.
+   *
+   * @return {@code true} if {@link #cancel()} has been called
+   */
+  public boolean isCancelled() {
+    return cancelled;
+  }
+
+  /**
+   * Forcibly kills a process and all of its descendants. The descendants are killed first so they
+   * are not re-parented and left running when their parent dies.
+   *
+   * @param handle the root of the process tree to kill
+   */
+  public static void destroyTree(ProcessHandle handle) {
+    handle.descendants().forEach(ProcessHandle::destroyForcibly);
+    handle.destroyForcibly();
+  }
+}
@@ -0,0 +1,221 @@
+package ci.util;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * BuildLog receives the output of a build line by line.
+ *
+ * <p>Every line is appended to the log file of the build as it is produced, and only the last
+ * lines are kept in memory as a bounded tail. The complete output therefore never has to fit on
+ * the heap, however chatty the build is. A log without a file only keeps the tail.
+ *
+ * <p>Every line is identified by the byte offset in the log file right after it. Live viewers share
+ * the tail: each of them only keeps the offset of the last line it has seen and waits in {@link
+ * #await} for the lines after it.
+ */
+public class BuildLog implements Closeable {
+
+  /** Number of lines kept in memory when no other limit is configured. */
+  public static final int DEFAULT_TAIL_LINES = 200;
+
+  /** How long written lines may stay in the write buffer before they are flushed to the file. */
+  private static final long FLUSH_MILLIS = 200;
+
+  private final String handle;
+  private final int tailLines;
+  // The last lines of the output, guarded by this
+  private final ArrayDeque<Line> tail;
+  // The writer of the log file, null when the log has no file or was closed, guarded by this
+  private BufferedWriter writer;
+  private long lineCount;
+  private long lastFlush;
+  // Byte offset of the end of the output and of the first line still in the tail, guarded by this
+  private long offset;
+  private long tailStart;
+  private boolean closed;
+
+  /**
+   * A line of output.
+   *
+   * @param offset the byte offset in the log file right after the line
+   * @param text the line without its line separator
+   */
+  public record Line(long offset, String text) {}
+
+  /**
+   * Lines returned to a live viewer.
+   *
+   * @param lines the lines after the offset of the viewer that are still in the tail
+   * @param skipped {@code true} if lines after the offset of the viewer have already left the tail
+   * @param closed {@code true} if the build has finished and no more lines will follow
+   */
+  public record Batch(List<Line> lines, boolean skipped, boolean closed) {}
+
+  /**
+   * Constructs a BuildLog writing to the given file, which is created or truncated.
+   *
+   * @param file the log file of the build
+   * @param handle the name the log file is referenced by
+   * @param tailLines the number of last lines kept in memory
+   * @throws IOException if the log file cannot be created
+   */
+  public BuildLog(Path file, String handle, int tailLines) throws IOException {
+    this.handle = handle;
+    this.tailLines = tailLines;
+    this.tail = new ArrayDeque<>(tailLines);
+    this.writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Constructs a BuildLog that only keeps the tail in memory.
+   *
+   * @param tailLines the number of last lines kept in memory
+   */
+  private BuildLog(int tailLines) {
+    this.handle = null;
+    this.tailLines = tailLines;
+    this.tail = new ArrayDeque<>(tailLines);
+  }
+
+  /**
+   * Creates a BuildLog without a file that only keeps the tail in memory.
+   *
+   * @param tailLines the number of last lines kept in memory
+   * @return the in-memory log
+   */
+  public static BuildLog inMemory(int tailLines) {
+    return new BuildLog(tailLines);
+  }
+
+  /**
+   * Appends a line of output. A failure to write the file is logged once, after which only the
+   * tail is kept.
+   *
+   * @param line the output line
+   */
+  public synchronized void append(String line) {
+    offset += line.getBytes(StandardCharsets.UTF_8).length + 1;
+    if (tailLines > 0) {
+      if (tail.size() == tailLines) {
+        tailStart = tail.removeFirst().offset();
+      }
+      tail.addLast(new Line(offset, line));
+    } else {
+      tailStart = offset;
+    }
+    lineCount++;
+    notifyAll();
+    if (writer == null) {
+      return;
+    }
+    try {
+      writer.write(line);
+      writer.write('\n');
+      long now = System.currentTimeMillis();
+      if (now - lastFlush > FLUSH_MILLIS) {
+        writer.flush();
+        lastFlush = now;
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+      closeWriter();
+    }
+  }
+
+  /**
+   * Returns a copy of the last lines of the output.
+   *
+   * @return the tail of the output, oldest line first
+   */
+  public synchronized List<String> tail() {
+    List<String> lines = new ArrayList<>(tail.size());
+    for (Line line : tail) {
+      lines.add(line.text());
+    }
+    return lines;
+  }
+
+  /**
+   * Waits until there are lines after the given offset or the log is closed, and returns the lines
+   * after the offset that are still in the tail.
+   *
+   * @param after byte offset of the last line the viewer has seen, 0 for the start of the output
+   * @param timeoutMillis how long to wait for new lines at most
+   * @return the new lines, which are empty if the timeout elapsed first
+   * @throws InterruptedException if the waiting thread is interrupted
+   */
+  public synchronized Batch await(long after, long timeoutMillis) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    long remaining = timeoutMillis;
+    while (offset <= after && !closed && remaining > 0) {
+      wait(remaining);
+      remaining = deadline - System.currentTimeMillis();
+    }
+    List<Line> lines = new ArrayList<>();
+    for (Line line : tail) {
+      if (line.offset() > after) {
+        lines.add(line);
+      }
+    }
+    return new Batch(lines, after < tailStart, closed);
+  }
+
+  /**
+   * Returns whether the log was closed because the build has finished.
+   *
+   * @return {@code true} if the log is closed
+   */
+  public synchronized boolean isClosed() {
+    return closed;
+  }
+
+  /**
+   * Returns the total number of lines appended so far.
+   *
+   * @return the number of output lines
+   */
+  public synchronized long getLineCount() {
+    return lineCount;
+  }
+
+  /**
+   * Returns the name the log file is referenced by.
+   *
+   * @return the handle of the log file, or {@code null} if the log has no file
+   */
+  public String getHandle() {
+    return handle;
+  }
+
+  /**
+   * Flushes and closes the log file and wakes up the live viewers. Lines appended afterwards only
+   * end up in the tail.
+   */
+  @Override
+  public synchronized void close() {
+    closeWriter();
+    closed = true;
+    notifyAll();
+  }
+
+  /** Closes the writer of the log file, ignoring failures. Must be called while holding this. */
+  private void closeWriter() {
+    if (writer == null) {
+      return;
+    }
+    try {
+      writer.close();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    writer = null;
+  }
+}
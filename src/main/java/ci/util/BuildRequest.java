@@ -0,0 +1,154 @@
+package ci.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.IOException;
+
+/**
+ * BuildRequest holds the few fields of a GitHub push event a build needs.
+ *
+ * <p>The fields are extracted once when the webhook arrives, and only this record travels through
+ * the build queue and the pipeline. The webhook payload itself, with its commit list, author
+ * objects and repository metadata, is dropped right after the request is answered, so a queued
+ * build only keeps a handful of short strings alive.
+ *
+ * <p>{@link #parsePush(byte[], String)} reads the fields straight from the raw body with a
+ * streaming parser, without building a tree of the payload.
+ *
+ * @param owner the owner of the repository
+ * @param repo the name of the repository
+ * @param fullName the full name of the repository, {@code owner/name}
+ * @param ref the pushed ref, or an empty string if the event has none
+ * @param after the commit SHA hash the ref points to after the push
+ * @param before the commit SHA hash the ref pointed to before the push
+ * @param deliveryId the GitHub delivery id of the webhook, or {@code null} if it is unknown
+ */
+public record BuildRequest(
+    String owner,
+    String repo,
+    String fullName,
+    String ref,
+    String after,
+    String before,
+    String deliveryId) {
+
+  /** The SHA GitHub sends as {@code after} when a branch is deleted. */
+  private static final String DELETED = "0000000000000000000000000000000000000000";
+
+  /** Factory of the streaming parsers, thread safe and shared by all webhooks. */
+  private static final JsonFactory JSON = new JsonFactory();
+
+  /** Number of top level fields of a push event {@link #parsePush} reads. */
+  private static final int TOP_LEVEL_FIELDS = 4;
+
+  /**
+   * Extracts the fields of a build from the raw body of a push event in a single pass. Everything
+   * else is skipped without being materialized, and parsing stops as soon as the ref, the SHAs and
+   * the repository are read. GitHub sends those before the commit list, so the commits of a push
+   * are usually never even tokenized.
+   *
+   * @param body the raw JSON body of the webhook
+   * @param deliveryId the GitHub delivery id of the webhook, or {@code null} if it is unknown
+   * @return the build request of the push, missing fields are empty strings
+   * @throws IOException if the body is not a JSON object
+   */
+  public static BuildRequest parsePush(byte[] body, String deliveryId) throws IOException {
+    String owner = "";
+    String login = "";
+    String repo = "";
+    String fullName = "";
+    String ref = "";
+    String after = "";
+    String before = "";
+    try (JsonParser parser = JSON.createParser(body)) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        throw new JsonParseException(parser, "The payload is not a JSON object");
+      }
+      int remaining = TOP_LEVEL_FIELDS;
+      while (remaining > 0 && parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.currentName();
+        JsonToken value = parser.nextToken();
+        switch (field) {
+          case "ref" -> {
+            ref = text(parser);
+            remaining--;
+          }
+          case "after" -> {
+            after = text(parser);
+            remaining--;
+          }
+          case "before" -> {
+            before = text(parser);
+            remaining--;
+          }
+          case "repository" -> {
+            remaining--;
+            if (value != JsonToken.START_OBJECT) {
+              parser.skipChildren();
+              continue;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+              String repoField = parser.currentName();
+              JsonToken repoValue = parser.nextToken();
+              if (repoField.equals("name")) {
+                repo = text(parser);
+              } else if (repoField.equals("full_name")) {
+                fullName = text(parser);
+              } else if (repoField.equals("owner") && repoValue == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                  String ownerField = parser.currentName();
+                  parser.nextToken();
+                  if (ownerField.equals("name")) {
+                    owner = text(parser);
+                  } else if (ownerField.equals("login")) {
+                    login = text(parser);
+                  } else {
+                    parser.skipChildren();
+                  }
+                }
+              } else {
+                parser.skipChildren();
+              }
+            }
+          }
+          default -> parser.skipChildren();
+        }
+      }
+    }
+    return new BuildRequest(
+        owner.isEmpty() ? login : owner, repo, fullName, ref, after, before, deliveryId);
+  }
+
+  /**
+   * Returns the scalar value the parser is at as text, a nested value is skipped.
+   *
+   * @param parser the parser positioned at a value
+   * @return the text of the value, or an empty string if it is null or not a scalar
+   * @throws IOException if the body cannot be parsed
+   */
+  private static String text(JsonParser parser) throws IOException {
+    String text = parser.getValueAsString("");
+    parser.skipChildren();
+    return text;
+  }
+
+  /**
+   * Returns the branch the push was pushed to.
+   *
+   * @return the name of the branch, or {@code null} if the push was not to a branch
+   */
+  public String branch() {
+    return ref.startsWith("refs/heads/") ? ref.substring("refs/heads/".length()) : null;
+  }
+
+  /**
+   * Returns whether the push deleted its ref, in which case there is no commit to build.
+   *
+   * @return {@code true} if the ref was deleted
+   */
+  public boolean isDeletion() {
+    return after.equals(DELETED);
+  }
+}
@@ -0,0 +1,286 @@
+package ci.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * ProcessRunner runs an external command as one measured phase of the build pipeline.
+ *
+ * <p>The combined stdout and stderr of the command is pumped line by line to a consumer on a
+ * separate thread, so the caller never blocks on a full pipe. The command is killed together with
+ * all of its descendants when it exceeds its wall-clock timeout, when it produces no output for
+ * longer than its idle timeout, or when its {@link BuildCancellation} is cancelled. The start, end
+ * and duration of every run are recorded per phase name.
+ */
+public class ProcessRunner {
+
+  /** Default maximum run time of a command. */
+  public static final Duration DEFAULT_WALL_TIMEOUT = Duration.ofMinutes(30);
+
+  /** Default maximum time a command may run without producing output. */
+  public static final Duration DEFAULT_IDLE_TIMEOUT = Duration.ofMinutes(10);
+
+  /** How often the timeouts are checked while waiting for the command. */
+  private static final long POLL_MILLIS = 200;
+
+  /** How long the output pump is waited for after the command exited. */
+  private static final long PUMP_JOIN_MILLIS = 5000;
+
+  /** Aggregated timings of all runs, keyed by phase name. */
+  private static final ConcurrentHashMap<String, PhaseStats> PHASE_STATS =
+      new ConcurrentHashMap<>();
+
+  private final String phase;
+  private final File dir;
+  private final List<String> command;
+  private Duration wallTimeout = DEFAULT_WALL_TIMEOUT;
+  private Duration idleTimeout = DEFAULT_IDLE_TIMEOUT;
+  private Consumer<String> onLine = System.out::println;
+  private BuildCancellation cancellation = new BuildCancellation();
+
+  /**
+   * Start, end and duration of one run of a phase.
+   *
+   * @param phase the name of the phase
+   * @param start the time the command was started
+   * @param end the time the command finished or was killed
+   */
+  public record PhaseTiming(String phase, Instant start, Instant end) {
+
+    /**
+     * Returns how long the phase took.
+     *
+     * @return the duration in milliseconds
+     */
+    public long durationMillis() {
+      return Duration.between(start, end).toMillis();
+    }
+  }
+
+  /**
+   * Aggregated timings of all runs of a phase.
+   *
+   * @param count number of runs
+   * @param totalMillis total run time of all runs
+   * @param maxMillis longest run
+   * @param timeouts number of runs killed because of a timeout
+   */
+  public record PhaseStats(long count, long totalMillis, long maxMillis, long timeouts) {
+
+    /**
+     * Combines two aggregates into one.
+     *
+     * @param other the aggregate to add
+     * @return the combined aggregate
+     */
+    private PhaseStats plus(PhaseStats other) {
+      return new PhaseStats(
+          count + other.count,
+          totalMillis + other.totalMillis,
+          Math.max(maxMillis, other.maxMillis),
+          timeouts + other.timeouts);
+    }
+  }
+
+  /**
+   * Outcome of a run.
+   *
+   * @param exitCode the exit code of the command
+   * @param timeout a description of the exceeded timeout, or {@code null} if none was exceeded
+   * @param timing the start, end and duration of the run
+   */
+  public record Result(int exitCode, String timeout, PhaseTiming timing) {
+
+    /**
+     * Returns whether the command was killed because it exceeded a timeout.
+     *
+     * @return {@code true} if a timeout was exceeded
+     */
+    public boolean timedOut() {
+      return timeout != null;
+    }
+
+    /**
+     * Returns whether the command exited normally with exit code 0.
+     *
+     * @return {@code true} if the command succeeded
+     */
+    public boolean isSuccess() {
+      return exitCode == 0 && timeout == null;
+    }
+  }
+
+  /**
+   * Constructs a ProcessRunner for a command.
+   *
+   * @param phase the name of the pipeline phase, used for the timing statistics
+   * @param dir the working directory of the command
+   * @param command the command and its arguments
+   */
+  public ProcessRunner(String phase, File dir, String... command) {
+    this.phase = phase;
+    this.dir = dir;
+    this.command = List.of(command);
+  }
+
+  /**
+   * Sets the maximum run time of the command.
+   *
+   * @param wallTimeout the maximum run time
+   * @return this runner
+   */
+  public ProcessRunner wallTimeout(Duration wallTimeout) {
+    this.wallTimeout = wallTimeout;
+    return this;
+  }
+
+  /**
+   * Sets the maximum time the command may run without producing output.
+   *
+   * @param idleTimeout the maximum time without output
+   * @return this runner
+   */
+  public ProcessRunner idleTimeout(Duration idleTimeout) {
+    this.idleTimeout = idleTimeout;
+    return this;
+  }
+
+  /**
+   * Sets the consumer receiving every output line. By default lines are printed to stdout.
+   *
+   * @param onLine the consumer of the output lines
+   * @return this runner
+   */
+  public ProcessRunner onLine(Consumer<String> onLine) {
+    this.onLine = onLine;
+    return this;
+  }
+
+  /**
+   * Sets the cancellation handle the command is attached to while it runs.
+   *
+   * @param cancellation the handle used to cancel the command
+   * @return this runner
+   */
+  public ProcessRunner cancellation(BuildCancellation cancellation) {
+    this.cancellation = cancellation;
+    return this;
+  }
+
+  /**
+   * Runs the command and waits until it exits or is killed.
+   *
+   * @return the exit code, exceeded timeout and timing of the run
+   * @throws IOException if the command cannot be started
+   * @throws InterruptedException if the current thread is interrupted while waiting, in which case
+   *     the command is killed
+   */
+  public Result run() throws IOException, InterruptedException {
+    ProcessBuilder builder = new ProcessBuilder(command);
+    builder.directory(dir);
+    builder.redirectErrorStream(true);
+
+    Instant start = Instant.now();
+    Process p = builder.start();
+    cancellation.attach(p);
+
+    AtomicLong lastOutput = new AtomicLong(System.nanoTime());
+    Thread pump = Thread.ofVirtual().name("process-pump-" + phase).start(() -> pump(p, lastOutput));
+
+    String timeout = null;
+    try {
+      long deadline = System.nanoTime() + wallTimeout.toNanos();
+      while (!p.waitFor(POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+        long now = System.nanoTime();
+        if (now - deadline > 0) {
+          timeout = "wall-clock timeout of " + wallTimeout.toMillis() + " ms exceeded";
+        } else if (now - lastOutput.get() > idleTimeout.toNanos()) {
+          timeout = "no output for " + idleTimeout.toMillis() + " ms";
+        }
+        if (timeout != null) {
+          BuildCancellation.destroyTree(p.toHandle());
+          p.waitFor();
+          break;
+        }
+      }
+    } catch (InterruptedException e) {
+      BuildCancellation.destroyTree(p.toHandle());
+      throw e;
+    } finally {
+      cancellation.detach(p);
+      pump.join(PUMP_JOIN_MILLIS);
+    }
+
+    PhaseTiming timing = new PhaseTiming(phase, start, Instant.now());
+    record(timing, timeout != null);
+    if (timeout != null) {
+      onLine.accept("[PROCESS] " + phase + " killed: " + timeout);
+    }
+    System.out.println(
+        "[PROCESS] "
+            + phase
+            + " finished with exit code "
+            + p.exitValue()
+            + " in "
+            + timing.durationMillis()
+            + " ms");
+    return new Result(p.exitValue(), timeout, timing);
+  }
+
+  /**
+   * Returns the aggregated timings of all runs so far, keyed by phase name.
+   *
+   * @return the timings per phase, sorted by phase name
+   */
+  public static Map<String, PhaseStats> getPhaseStats() {
+    return new TreeMap<>(PHASE_STATS);
+  }
+
+  /**
+   * Adds the timing of a run to the aggregated statistics of its phase.
+   *
+   * @param timing the timing of the run
+   * @param timedOut whether the run was killed because of a timeout
+   */
+  private static void record(PhaseTiming timing, boolean timedOut) {
+    long millis = timing.durationMillis();
+    PHASE_STATS.merge(
+        timing.phase(), new PhaseStats(1, millis, millis, timedOut ? 1 : 0), PhaseStats::plus);
+  }
+
+  /**
+   * Reads the output of the process line by line and hands it to the consumer. Runs on the pump
+   * thread until the output stream is closed.
+   *
+   * @param p the running process
+   * @param lastOutput updated with the time of the last output line
+   */
+  private void pump(Process p, AtomicLong lastOutput) {
+    try (BufferedReader reader =
+        new BufferedReader(new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        lastOutput.set(System.nanoTime());
+        try {
+          onLine.accept(line);
+        } catch (RuntimeException e) {
+          e.printStackTrace();
+        }
+      }
+    } catch (IOException e) {
+      // The stream is closed when the process is killed
+    }
+  }
+}
@@ -1,12 +1,15 @@
 package ci.util;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 import org.apache.tomcat.util.http.fileupload.FileUtils;
 
 /**
@@ -15,9 +18,38 @@ import org.apache.tomcat.util.http.fileupload.FileUtils;
  * <p>This class contains static methods to initialize and maintain Git repositories, which include
  * creating directories, cloning repositories from GitHub, and updating repositories to specific
  * commits.
+ *
+ * <p>Builds share one persistent bare mirror per repository and check out their commit as a
+ * detached worktree of that mirror, so only missing objects are fetched from GitHub. The git
+ * commands of a build are attached to its {@link BuildCancellation}, so cancelling the build kills
+ * a running clone, fetch or checkout together with its child processes.
  */
 public class RepoSetup {
 
+  /** One lock per mirror directory, so concurrent builds share a single clone or fetch. */
+  private static final ConcurrentHashMap<String, ReentrantLock> MIRROR_LOCKS =
+      new ConcurrentHashMap<>();
+
+  /** Maximum run time of a git command, so a hung fetch cannot block a build slot forever. */
+  private static final Duration GIT_WALL_TIMEOUT = Duration.ofMinutes(10);
+
+  /**
+   * Maximum time a git command may run without producing output. Clones and fetches pass {@code
+   * --progress}, since git only reports the progress of a transfer to a terminal otherwise, and a
+   * long clone would be killed as idle.
+   */
+  private static final Duration GIT_IDLE_TIMEOUT = Duration.ofMinutes(5);
+
+  /** How the mirror gets the commit of a build from GitHub. */
+  public enum FetchStrategy {
+    /** Mirror every ref with {@code git clone --mirror} and {@code git fetch --prune}. */
+    ALL,
+    /** Fetch only the pushed commit with {@code git fetch origin <sha>}, optionally shallow. */
+    SINGLE_SHA,
+    /** Mirror every ref, but download file contents only when a checkout needs them. */
+    PARTIAL
+  }
+
   /**
    * Create a directory at the location of repo_path -> Can be changed in the
    * application.propoerties file
@@ -75,34 +107,15 @@ public class RepoSetup {
     boolean repoExists = Files.isDirectory(gitDir);
 
     if (!repoExists) {
-      ProcessBuilder builder = new ProcessBuilder("git", "clone", repoSsh, repoID);
-      builder.directory(new File(repoParentDir));
-      builder.redirectErrorStream(true);
-
-      try {
-        Process p = builder.start();
-
-        try (BufferedReader r = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
-          String line;
-          while (true) {
-            line = r.readLine();
-            if (line == null) {
-              break;
-            }
-            System.out.println(line);
-          }
-        }
-        int exit = p.waitFor();
-        if (exit != 0) {
-          throw new IllegalStateException("git clone failed with exit code " + exit);
-        }
-
-      } catch (IOException e) {
-        throw new IllegalStateException("Could not run clone the git repository", e);
-      } catch (InterruptedException e) {
-        Thread.currentThread().interrupt();
-        throw new IllegalStateException("Interrupted while waiting for git clone", e);
-      }
+      runGit(
+          new File(repoParentDir),
+          "git-clone",
+          "git clone",
+          "git",
+          "clone",
+          "--progress",
+          repoSsh,
+          repoID);
     }
   }
 
@@ -121,65 +134,452 @@ public class RepoSetup {
       throw new IllegalArgumentException("No or invalid sha: " + sha);
     }
 
-    String repo_path = Paths.get(repoParentDir, repoID).toString();
+    File repoDir = Paths.get(repoParentDir, repoID).toFile();
+    runGit(
+        repoDir,
+        "git-fetch",
+        "git fetch (sha=" + sha + ")",
+        "git",
+        "fetch",
+        "--progress",
+        "--all",
+        "--prune");
+    runGit(repoDir, "git-checkout", "git checkout (sha=" + sha + ")", "git", "checkout", "-f", sha);
+  }
+
+  /**
+   * Returns the location of the bare mirror of a repository, which is shared by all builds.
+   *
+   * @param repoParentDir Local parent directory where the mirror and workspaces are stored
+   * @param repoID Local directory name of the repository
+   * @return path to the mirror directory
+   */
+  public static String mirrorDir(String repoParentDir, String repoID) {
+    return repoParentDir + "/mirror/" + repoID + ".git";
+  }
+
+  /**
+   * Makes sure the bare mirror of the repository exists and contains the given commit, fetching
+   * all refs with the {@link FetchStrategy#ALL} strategy.
+   *
+   * @param mirrorDir Path to the bare mirror repository, shared by all builds
+   * @param repoSsh The SSH to the repo, so it can be cloned from GitHub
+   * @param sha The commit sha from the http payload
+   * @throws IllegalArgumentException when the sha is null, blank or only 0's
+   * @throws IllegalStateException When one of the git commands could not be executed
+   */
+  public static void updateMirror(String mirrorDir, String repoSsh, String sha) {
+    updateMirror(mirrorDir, repoSsh, sha, FetchStrategy.ALL, 0);
+  }
+
+  /**
+   * Makes sure the bare mirror of the repository exists and contains the given commit. The mirror
+   * is created on first use and only fetched when the commit is not already present. The work is
+   * done while holding the lock of the mirror, so builds waiting for the lock reuse the objects
+   * fetched by the build that held it.
+   *
+   * @param mirrorDir Path to the bare mirror repository, shared by all builds
+   * @param repoSsh The SSH to the repo, so it can be cloned from GitHub
+   * @param sha The commit sha from the http payload
+   * @param strategy How the mirror is created and how the commit is fetched
+   * @param depth History depth of a {@link FetchStrategy#SINGLE_SHA} fetch, 0 or less for the full
+   *     history of the commit
+   * @throws IllegalArgumentException when the sha is null, blank or only 0's
+   * @throws IllegalStateException When one of the git commands could not be executed
+   */
+  public static void updateMirror(
+      String mirrorDir, String repoSsh, String sha, FetchStrategy strategy, int depth) {
+    updateMirror(mirrorDir, repoSsh, sha, strategy, depth, new BuildCancellation());
+  }
 
-    ProcessBuilder builder = new ProcessBuilder("git", "fetch", "--all", "--prune");
-    builder.directory(new File(repo_path));
-    builder.redirectErrorStream(true);
+  /**
+   * Makes sure the bare mirror of the repository exists and contains the given commit, with the git
+   * commands attached to the cancellation of the build. A mirror whose creation failed or was
+   * cancelled is deleted again, so the next build clones it anew instead of fetching into a
+   * partial mirror.
+   *
+   * @param mirrorDir Path to the bare mirror repository, shared by all builds
+   * @param repoSsh The SSH to the repo, so it can be cloned from GitHub
+   * @param sha The commit sha from the http payload
+   * @param strategy How the mirror is created and how the commit is fetched
+   * @param depth History depth of a {@link FetchStrategy#SINGLE_SHA} fetch, 0 or less for the full
+   *     history of the commit
+   * @param cancellation the handle used to cancel the build, which kills the running git command
+   * @throws IllegalArgumentException when the sha is null, blank or only 0's
+   * @throws IllegalStateException When one of the git commands could not be executed or the build
+   *     was cancelled
+   */
+  public static void updateMirror(
+      String mirrorDir,
+      String repoSsh,
+      String sha,
+      FetchStrategy strategy,
+      int depth,
+      BuildCancellation cancellation) {
+    if (sha == null || sha.isBlank() || sha.equals("0000000000000000000000000000000000000000")) {
+      throw new IllegalArgumentException("No or invalid sha: " + sha);
+    }
 
+    Path mirrorPath = Paths.get(mirrorDir).toAbsolutePath();
+    ReentrantLock lock = mirrorLock(mirrorPath);
+    lock.lock();
     try {
-      Process p = builder.start();
-
-      try (BufferedReader r = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
-        String line;
-        while (true) {
-          line = r.readLine();
-          if (line == null) {
-            break;
-          }
-          System.out.println(line);
+      if (!Files.isDirectory(mirrorPath)) {
+        Files.createDirectories(mirrorPath.getParent());
+        try {
+          createMirror(mirrorPath, repoSsh, strategy, cancellation);
+        } catch (IllegalStateException e) {
+          FileUtils.deleteDirectory(mirrorPath.toFile());
+          throw e;
         }
       }
-
-      int exit = p.waitFor();
-      if (exit != 0) {
-        throw new IllegalStateException(
-            "git fetch failed with exit code " + exit + " on commit (sha=" + sha + ")");
+      if (!hasCommit(mirrorPath.toFile(), sha, cancellation)) {
+        List<String> fetch = new ArrayList<>(List.of("git", "fetch", "--progress"));
+        if (strategy == FetchStrategy.SINGLE_SHA) {
+          if (depth > 0) {
+            fetch.add("--depth=" + depth);
+          }
+          fetch.add("origin");
+          fetch.add(sha);
+        } else {
+          fetch.add("--prune");
+        }
+        runGit(
+            cancellation,
+            mirrorPath.toFile(),
+            "git-fetch",
+            "git fetch (sha=" + sha + ")",
+            fetch.toArray(new String[0]));
       }
-
     } catch (IOException e) {
-      throw new IllegalStateException("Could not run git fetch for commit sha: " + sha, e);
-    } catch (InterruptedException e) {
-      Thread.currentThread().interrupt();
-      throw new IllegalStateException("Interrupted while waiting for git fetch on sha: " + sha, e);
+      throw new IllegalStateException("Could not create the mirror directory: " + mirrorDir, e);
+    } finally {
+      lock.unlock();
     }
+  }
 
-    ProcessBuilder builder2 = new ProcessBuilder("git", "checkout", "-f", sha);
-    builder2.directory(new File(repo_path));
-    builder2.redirectErrorStream(true);
+  /**
+   * Fetches all refs of an existing mirror, so commits pushed later are already present when their
+   * build starts. Builds needing the mirror wait for the refresh to finish.
+   *
+   * @param mirrorDir Path to the bare mirror repository, shared by all builds
+   * @throws IllegalStateException When the fetch could not be executed
+   */
+  public static void refreshMirror(String mirrorDir) {
+    Path mirrorPath = Paths.get(mirrorDir).toAbsolutePath();
+    ReentrantLock lock = mirrorLock(mirrorPath);
+    lock.lock();
+    try {
+      runGit(
+          mirrorPath.toFile(),
+          "git-refresh",
+          "git fetch --prune",
+          "git",
+          "fetch",
+          "--progress",
+          "--prune");
+    } finally {
+      lock.unlock();
+    }
+  }
 
+  /**
+   * Checks out the given commit from the bare mirror into a new detached worktree. The worktree
+   * shares the objects of the mirror, so no history is copied.
+   *
+   * @param mirrorDir Path to the bare mirror repository, shared by all builds
+   * @param worktreeDir Path where the worktree is created, must not exist yet
+   * @param sha The commit sha from the http payload
+   * @throws IllegalStateException When the worktree could not be created
+   */
+  public static void addWorktree(String mirrorDir, String worktreeDir, String sha) {
+    addWorktree(mirrorDir, worktreeDir, sha, new BuildCancellation());
+  }
+
+  /**
+   * Checks out the given commit from the bare mirror into a new detached worktree, with the git
+   * command attached to the cancellation of the build.
+   *
+   * @param mirrorDir Path to the bare mirror repository, shared by all builds
+   * @param worktreeDir Path where the worktree is created, must not exist yet
+   * @param sha The commit sha from the http payload
+   * @param cancellation the handle used to cancel the build, which kills the running git command
+   * @throws IllegalStateException When the worktree could not be created or the build was
+   *     cancelled
+   */
+  public static void addWorktree(
+      String mirrorDir, String worktreeDir, String sha, BuildCancellation cancellation) {
+    Path mirrorPath = Paths.get(mirrorDir).toAbsolutePath();
+    ReentrantLock lock = mirrorLock(mirrorPath);
+    lock.lock();
     try {
-      Process p2 = builder2.start();
+      runGit(
+          cancellation,
+          mirrorPath.toFile(),
+          "git-worktree",
+          "git worktree add (sha=" + sha + ")",
+          "git",
+          "worktree",
+          "add",
+          "--detach",
+          Paths.get(worktreeDir).toAbsolutePath().toString(),
+          sha);
+    } finally {
+      lock.unlock();
+    }
+  }
 
-      try (BufferedReader r = new BufferedReader(new InputStreamReader(p2.getInputStream()))) {
-        String line;
-        while ((line = r.readLine()) != null) {
-          System.out.println(line);
-        }
+  /**
+   * Resets an existing worktree to the given commit. Tracked files are forced to the state of the
+   * commit and all untracked and ignored files are removed, except for the preserved paths which
+   * keep build outputs and caches for incremental builds.
+   *
+   * @param worktreeDir Path of the worktree to reset
+   * @param sha The commit sha from the http payload
+   * @param preserve Untracked paths or patterns that are kept by the clean
+   * @throws IllegalStateException When one of the git commands could not be executed
+   */
+  public static void resetWorktree(String worktreeDir, String sha, List<String> preserve) {
+    resetWorktree(worktreeDir, sha, preserve, new BuildCancellation());
+  }
+
+  /**
+   * Resets an existing worktree to the given commit, with the git commands attached to the
+   * cancellation of the build.
+   *
+   * @param worktreeDir Path of the worktree to reset
+   * @param sha The commit sha from the http payload
+   * @param preserve Untracked paths or patterns that are kept by the clean
+   * @param cancellation the handle used to cancel the build, which kills the running git command
+   * @throws IllegalStateException When one of the git commands could not be executed or the build
+   *     was cancelled
+   */
+  public static void resetWorktree(
+      String worktreeDir, String sha, List<String> preserve, BuildCancellation cancellation) {
+    File dir = new File(worktreeDir);
+    runGit(
+        cancellation,
+        dir,
+        "git-checkout",
+        "git checkout (sha=" + sha + ")",
+        "git",
+        "checkout",
+        "-f",
+        "--detach",
+        sha);
+
+    List<String> clean = new ArrayList<>(List.of("git", "clean", "-fdx"));
+    for (String path : preserve) {
+      if (!path.isBlank()) {
+        clean.add("-e");
+        clean.add(path.trim());
       }
+    }
+    runGit(cancellation, dir, "git-clean", "git clean", clean.toArray(new String[0]));
+  }
+
+  /**
+   * Removes a worktree created by {@link #addWorktree} together with its files, and prunes its
+   * administrative data from the mirror.
+   *
+   * @param mirrorDir Path to the bare mirror repository, shared by all builds
+   * @param worktreeDir Path of the worktree to remove
+   * @throws IllegalStateException When the worktree could not be removed
+   */
+  public static void removeWorktree(String mirrorDir, String worktreeDir) {
+    Path mirrorPath = Paths.get(mirrorDir).toAbsolutePath();
+    ReentrantLock lock = mirrorLock(mirrorPath);
+    lock.lock();
+    try {
+      runGit(
+          mirrorPath.toFile(),
+          "git-worktree",
+          "git worktree remove",
+          "git",
+          "worktree",
+          "remove",
+          "--force",
+          Paths.get(worktreeDir).toAbsolutePath().toString());
+      runGit(mirrorPath.toFile(), "git-worktree", "git worktree prune", "git", "worktree", "prune");
+    } finally {
+      lock.unlock();
+    }
+  }
 
-      int exit = p2.waitFor();
-      if (exit != 0) {
-        throw new IllegalStateException(
-            "git checkout failed with exit code " + exit + " (sha=" + sha + ")");
+  /**
+   * Prunes the administrative data of worktrees whose directories no longer exist, for example
+   * because they were moved away to be deleted in the background.
+   *
+   * @param mirrorDir Path to the bare mirror repository, shared by all builds
+   * @throws IllegalStateException When the worktrees could not be pruned
+   */
+  public static void pruneWorktrees(String mirrorDir) {
+    Path mirrorPath = Paths.get(mirrorDir).toAbsolutePath();
+    ReentrantLock lock = mirrorLock(mirrorPath);
+    lock.lock();
+    try {
+      runGit(mirrorPath.toFile(), "git-worktree", "git worktree prune", "git", "worktree", "prune");
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Creates the bare mirror of the repository. A {@link FetchStrategy#SINGLE_SHA} mirror starts
+   * empty with only the remote configured, the other strategies clone all refs, leaving out file
+   * contents for {@link FetchStrategy#PARTIAL}.
+   *
+   * @param mirrorPath absolute path of the mirror, must not exist yet
+   * @param repoSsh The SSH to the repo, so it can be cloned from GitHub
+   * @param strategy How the mirror is created
+   * @param cancellation the handle used to cancel the build, which kills the running git command
+   * @throws IllegalStateException When one of the git commands could not be executed or the build
+   *     was cancelled
+   */
+  private static void createMirror(
+      Path mirrorPath, String repoSsh, FetchStrategy strategy, BuildCancellation cancellation) {
+    File parentDir = mirrorPath.getParent().toFile();
+    String mirror = mirrorPath.toString();
+    switch (strategy) {
+      case SINGLE_SHA -> {
+        runGit(
+            cancellation,
+            parentDir,
+            "git-clone",
+            "git init --bare",
+            "git",
+            "init",
+            "--bare",
+            mirror);
+        runGit(
+            cancellation,
+            mirrorPath.toFile(),
+            "git-clone",
+            "git remote add",
+            "git",
+            "remote",
+            "add",
+            "origin",
+            repoSsh);
       }
+      case PARTIAL ->
+          runGit(
+              cancellation,
+              parentDir,
+              "git-clone",
+              "git clone --mirror --filter=blob:none",
+              "git",
+              "clone",
+              "--mirror",
+              "--progress",
+              "--filter=blob:none",
+              repoSsh,
+              mirror);
+      default ->
+          runGit(
+              cancellation,
+              parentDir,
+              "git-clone",
+              "git clone --mirror",
+              "git",
+              "clone",
+              "--mirror",
+              "--progress",
+              repoSsh,
+              mirror);
+    }
+  }
 
+  /**
+   * Returns the lock guarding the given mirror directory.
+   *
+   * @param mirrorPath absolute path of the mirror
+   * @return the lock of the mirror
+   */
+  private static ReentrantLock mirrorLock(Path mirrorPath) {
+    return MIRROR_LOCKS.computeIfAbsent(mirrorPath.toString(), k -> new ReentrantLock());
+  }
+
+  /**
+   * Checks whether a commit is already present in a repository.
+   *
+   * @param repoDir the repository to look in
+   * @param sha the commit sha to look for
+   * @param cancellation the handle used to cancel the build, which kills the lookup
+   * @return true if the commit object exists in the repository
+   */
+  private static boolean hasCommit(File repoDir, String sha, BuildCancellation cancellation) {
+    try {
+      return new ProcessRunner("git-lookup", repoDir, "git", "cat-file", "-e", sha + "^{commit}")
+          .wallTimeout(GIT_WALL_TIMEOUT)
+          .idleTimeout(GIT_IDLE_TIMEOUT)
+          .cancellation(cancellation)
+          .onLine(line -> {})
+          .run()
+          .isSuccess();
     } catch (IOException e) {
-      throw new IllegalStateException("Could not run git checkout (sha=" + sha + ")", e);
+      return false;
     } catch (InterruptedException e) {
       Thread.currentThread().interrupt();
-      throw new IllegalStateException(
-          "Interrupted while waiting for git checkout (sha=" + sha + ")", e);
+      throw new IllegalStateException("Interrupted while looking up commit (sha=" + sha + ")", e);
+    }
+  }
+
+  /**
+   * Runs a git command that no build can cancel, see {@link #runGit(BuildCancellation, File,
+   * String, String, String...)}.
+   *
+   * @param dir the working directory of the command
+   * @param phase the name of the phase the command is timed under
+   * @param description the description of the command used in error messages
+   * @param command the command and its arguments
+   * @throws IllegalStateException When the command could not be executed, failed or timed out
+   */
+  private static void runGit(File dir, String phase, String description, String... command) {
+    runGit(new BuildCancellation(), dir, phase, description, command);
+  }
+
+  /**
+   * Runs a git command, prints its output and fails if it exits with a non-zero exit code, exceeds
+   * the git timeouts or is killed by the cancellation of its build.
+   *
+   * @param cancellation the handle used to cancel the build, which kills the command
+   * @param dir the working directory of the command
+   * @param phase the name of the phase the command is timed under
+   * @param description the description of the command used in error messages
+   * @param command the command and its arguments
+   * @throws IllegalStateException When the command could not be executed, failed, timed out or was
+   *     cancelled
+   */
+  private static void runGit(
+      BuildCancellation cancellation,
+      File dir,
+      String phase,
+      String description,
+      String... command) {
+    ProcessRunner.Result result;
+    try {
+      result =
+          new ProcessRunner(phase, dir, command)
+              .wallTimeout(GIT_WALL_TIMEOUT)
+              .idleTimeout(GIT_IDLE_TIMEOUT)
+              .cancellation(cancellation)
+              .run();
+    } catch (IOException e) {
+      throw new IllegalStateException("Could not run " + description, e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for " + description, e);
+    }
+
+    if (cancellation.isCancelled()) {
+      throw new IllegalStateException(description + " was cancelled");
+    }
+    if (result.timedOut()) {
+      throw new IllegalStateException(description + " was killed: " + result.timeout());
+    }
+    if (result.exitCode() != 0) {
+      throw new IllegalStateException(description + " failed with exit code " + result.exitCode());
     }
   }
 }
@@ -0,0 +1,187 @@
+package ci.util;
+
+import jakarta.annotation.PostConstruct;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * SignatureVerifier checks the {@code X-Hub-Signature-256} header of GitHub webhooks.
+ *
+ * <p>The HMAC engine of the shared secret is initialized once, and every webhook works on a clone
+ * of it, so the key is not set up again per request. The hex signature of the header is decoded
+ * and compared with the computed digest as raw bytes in constant time, so the comparison does not
+ * leak how much of a forged signature was right.
+ *
+ * <p>The secret can be rotated without a restart by writing the new secret to {@code
+ * ci.webhook.secretFile}, which is read every {@code ci.webhook.secretPollSeconds}. After a
+ * rotation webhooks signed with the previous secret are still accepted for {@code
+ * ci.webhook.rotationGraceMinutes}, so deliveries GitHub already signed or retries are not lost.
+ */
+@Component
+public class SignatureVerifier {
+
+  /** Prefix of the signature header GitHub sends. */
+  private static final String PREFIX = "sha256=";
+
+  /** Shared secret key used to validate Github webhook signatures. */
+  @Value("${sharedKey:xxxxxxxx}")
+  private String sharedKey = "xxxxxxxx";
+
+  /** File holding the shared secret, which overrides sharedKey and is re-read for rotations. */
+  @Value("${ci.webhook.secretFile:}")
+  private String secretFile = "";
+
+  /** How long the previous secret is still accepted after a rotation. */
+  @Value("${ci.webhook.rotationGraceMinutes:60}")
+  private long rotationGraceMinutes = 60;
+
+  // The current key first, then the previous key while its grace window lasts
+  private volatile List<Key> keys = List.of();
+  // The current secret, guarded by this
+  private String current;
+
+  /**
+   * An initialized HMAC engine of one secret.
+   *
+   * @param prototype the engine initialized with the secret, only ever cloned
+   * @param spec the secret, used if the engine of the provider cannot be cloned
+   * @param expiresAt the time in milliseconds after which the key is no longer accepted
+   */
+  private record Key(Mac prototype, SecretKeySpec spec, long expiresAt) {
+
+    /**
+     * Returns a fresh engine of this key.
+     *
+     * @return an engine initialized with the secret
+     * @throws GeneralSecurityException if the engine cannot be created
+     */
+    Mac newMac() throws GeneralSecurityException {
+      try {
+        return (Mac) prototype.clone();
+      } catch (CloneNotSupportedException e) {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(spec);
+        return mac;
+      }
+    }
+  }
+
+  /** Instructions for Springboot when initiating the SignatureVerifier, loads the secret. */
+  @PostConstruct
+  public void init() {
+    String secret = readSecretFile();
+    rotate(secret != null ? secret : sharedKey);
+  }
+
+  /**
+   * Verifies the signature GitHub sent with a webhook against the current secret, and during the
+   * grace window of a rotation against the previous secret.
+   *
+   * @param payloadBody the raw body sent by the webhook
+   * @param signature the signature sent by the webhook, {@code sha256=} followed by the hex digest
+   * @return true if the signature is the HMAC of the body with an accepted secret
+   * @throws IllegalArgumentException if payloadBody is null or empty
+   * @throws GeneralSecurityException if the HMAC cannot be computed
+   */
+  public boolean verify(byte[] payloadBody, String signature) throws GeneralSecurityException {
+    if (payloadBody == null || payloadBody.length == 0) {
+      throw new IllegalArgumentException("payloadBody was empty or null.");
+    }
+    if (signature == null || !signature.startsWith(PREFIX)) {
+      return false;
+    }
+    byte[] expected;
+    try {
+      expected = HexFormat.of().parseHex(signature, PREFIX.length(), signature.length());
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+    long now = System.currentTimeMillis();
+    for (Key key : keys) {
+      if (key.expiresAt() >= now
+          && MessageDigest.isEqual(key.newMac().doFinal(payloadBody), expected)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Makes a new secret the current one. The current secret becomes the previous one and is
+   * accepted for the grace window, a secret from before that is dropped right away.
+   *
+   * @param secret the new shared secret
+   */
+  public synchronized void rotate(String secret) {
+    if (secret.equals(current)) {
+      return;
+    }
+    SecretKeySpec spec = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256");
+    Mac prototype;
+    try {
+      prototype = Mac.getInstance("HmacSHA256");
+      prototype.init(spec);
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException("HmacSHA256 is not available", e);
+    }
+    Key key = new Key(prototype, spec, Long.MAX_VALUE);
+    if (current == null) {
+      keys = List.of(key);
+    } else {
+      Key previous = keys.getFirst();
+      long expiresAt =
+          System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(rotationGraceMinutes);
+      keys = List.of(key, new Key(previous.prototype(), previous.spec(), expiresAt));
+      System.out.println(
+          "[WEBHOOK] Shared secret rotated, the previous secret is accepted for "
+              + rotationGraceMinutes
+              + " more minutes");
+    }
+    current = secret;
+  }
+
+  /**
+   * Re-reads the secret file and rotates to the secret in it if it changed, runs every {@code
+   * ci.webhook.secretPollSeconds}. Nothing is done if no secret file is configured.
+   */
+  @Scheduled(
+      initialDelayString = "${ci.webhook.secretPollSeconds:30}",
+      fixedDelayString = "${ci.webhook.secretPollSeconds:30}",
+      timeUnit = TimeUnit.SECONDS)
+  public void reload() {
+    String secret = readSecretFile();
+    if (secret != null) {
+      rotate(secret);
+    }
+  }
+
+  /**
+   * Reads the secret file.
+   *
+   * @return the trimmed secret, or {@code null} if no file is configured or it cannot be read
+   */
+  private String readSecretFile() {
+    if (secretFile.isBlank()) {
+      return null;
+    }
+    try {
+      String secret = Files.readString(Path.of(secretFile)).trim();
+      return secret.isEmpty() ? null : secret;
+    } catch (IOException e) {
+      e.printStackTrace();
+      return null;
+    }
+  }
+}
@@ -2,6 +2,24 @@
 <%@ taglib prefix="c" uri="jakarta.tags.core" %>
 
 <c:choose>
+    <c:when test="${running}">
+        <p>SHA: <c:out value="${sha}" /></p>
+        <p>Status: RUNNING</p>
+
+        <p>Logs:</p>
+        <c:url var="streamUrl" value="/commit/${sha}/log/stream" />
+        <pre id="live-log" data-stream="<c:out value="${streamUrl}" />"></pre>
+        <script>
+            const log = document.getElementById("live-log");
+            const source = new EventSource(log.dataset.stream);
+            source.onmessage = (event) => log.append(event.data + "\n");
+            source.addEventListener("end", () => {
+                source.close();
+                setTimeout(() => location.reload(), 1000);
+            });
+        </script>
+    </c:when>
+
     <c:when test="${empty latestCommit}">
         <p>No latest commit yet.</p>
     </c:when>
@@ -10,16 +28,22 @@
         <p>SHA: <c:out value="${latestCommit.sha}" /></p>
         <p>Timestamp: <c:out value="${latestCommit.time}" /></p>
         <p>Status: <c:out value="${latestCommit.state}" /></p>
+        <c:if test="${not empty latestCommit.branch}">
+            <p>Branch: <c:out value="${latestCommit.branch}" /></p>
+        </c:if>
 
         <p>Logs:</p>
+        <c:if test="${not empty latestCommit.logFile}">
+            <c:url var="logUrl" value="/commit/${latestCommit.sha}/log" />
+            <p><a href="<c:out value="${logUrl}" />">Full log</a></p>
+        </c:if>
         <c:choose>
             <c:when test="${empty latestCommit.logs}">
                 <p>No logs</p>
             </c:when>
             <c:otherwise>
-                <c:forEach var="log" items="${latestCommit.logs}">
-                    <p><c:out value="${log}" /></p>
-                </c:forEach>
+                <pre><c:forEach var="log" items="${latestCommit.logs}"><c:out value="${log}" />
+</c:forEach></pre>
             </c:otherwise>
         </c:choose>
     </c:otherwise>
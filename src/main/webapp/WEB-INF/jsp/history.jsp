@@ -10,7 +10,25 @@
 <body>
   <h1>History</h1>
 
+  <form action="/history" method="get">
+    <select name="state">
+      <option value="">Any state</option>
+      <c:forEach var="option" items="SUCCESS,FAILURE,ERROR,SUPERSEDED">
+        <option value="${option}" ${option == state ? 'selected' : ''}>${option}</option>
+      </c:forEach>
+    </select>
+    <input type="text" name="branch" placeholder="Branch" value="<c:out value='${branch}' />" />
+    <input type="text" name="sha" placeholder="SHA prefix" value="<c:out value='${sha}' />" />
+    <input type="number" name="days" min="1" placeholder="Days" value="${days}" />
+    <input type="hidden" name="limit" value="${limit}" />
+    <button type="submit">Filter</button>
+  </form>
+
   <c:choose>
+    <c:when test="${loading}">
+      <p>The history is still loading, try again in a few seconds.</p>
+    </c:when>
+
     <c:when test="${empty historyList}">
       <p>No history yet.</p>
     </c:when>
@@ -21,10 +39,23 @@
           <li>
             <strong><a href="/commit/${commit.sha}"><c:out value="${commit.sha}" /></a></strong>
             | <c:out value="${commit.state}" />
+            <c:if test="${not empty commit.branch}">| <c:out value="${commit.branch}" /></c:if>
             | <c:out value="${commit.time}" />
           </li>
         </c:forEach>
       </ul>
+
+      <c:if test="${not empty nextCursor}">
+        <c:url var="olderUrl" value="/history">
+          <c:param name="before" value="${nextCursor}" />
+          <c:param name="limit" value="${limit}" />
+          <c:param name="state" value="${state}" />
+          <c:param name="branch" value="${branch}" />
+          <c:param name="sha" value="${sha}" />
+          <c:param name="days" value="${days}" />
+        </c:url>
+        <p><a href="${olderUrl}">Older builds</a></p>
+      </c:if>
     </c:otherwise>
   </c:choose>
 </body>
@@ -0,0 +1,104 @@
+package ci.controller;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import ci.service.BuildCache;
+import java.io.ByteArrayInputStream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.webmvc.test.autoconfigure.WebMvcTest;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+
+@WebMvcTest(BuildCacheController.class)
+public class BuildCacheControllerTest {
+
+  @Autowired private MockMvc mockMvc;
+  @MockitoBean BuildCache buildCache;
+
+  // Credentials of the init script, the mocked cache accepts only these
+  private static final String AUTH = "Basic Y2k6c2VjcmV0";
+
+  @BeforeEach
+  public void setUp() {
+    when(buildCache.isAuthorized(AUTH)).thenReturn(true);
+  }
+
+  @Test
+  public void loadReturnsEntryOrNotFound() throws Exception {
+    /* Contract: A cached entry is returned with status OK, a cache miss returns NOT_FOUND. */
+    when(buildCache.load("abc")).thenReturn(new ByteArrayInputStream("entry".getBytes()));
+
+    mockMvc
+        .perform(get("/cache/abc").header("Authorization", AUTH))
+        .andExpect(status().isOk())
+        .andExpect(content().string("entry"));
+    mockMvc
+        .perform(get("/cache/def").header("Authorization", AUTH))
+        .andExpect(status().isNotFound());
+  }
+
+  @Test
+  public void storeReturnsOkOrPayloadTooLarge() throws Exception {
+    /* Contract: A stored entry returns status OK, an entry rejected as too large returns 413. */
+    when(buildCache.store(eq("abc"), any(), anyLong())).thenReturn(true);
+    when(buildCache.store(eq("def"), any(), anyLong())).thenReturn(false);
+
+    mockMvc
+        .perform(put("/cache/abc").header("Authorization", AUTH).content("entry"))
+        .andExpect(status().isOk());
+    mockMvc
+        .perform(put("/cache/def").header("Authorization", AUTH).content("entry"))
+        .andExpect(status().isPayloadTooLarge());
+  }
+
+  @Test
+  public void invalidKeyIsRejected() throws Exception {
+    /* Contract: Keys that are not hex encoded hashes are rejected without touching the cache. */
+    mockMvc
+        .perform(get("/cache/not-a-key").header("Authorization", AUTH))
+        .andExpect(status().isBadRequest());
+    mockMvc
+        .perform(put("/cache/XYZ").header("Authorization", AUTH).content("entry"))
+        .andExpect(status().isBadRequest());
+
+    verify(buildCache, never()).store(any(), any(), anyLong());
+  }
+
+  @Test
+  public void requestsNotFromABuildAreForbidden() throws Exception {
+    /*
+     * Contract: A request without the credentials of the init script, or from another host than
+     * this one, is refused with 403 and never reaches the cache.
+     */
+    mockMvc.perform(put("/cache/abc").content("entry")).andExpect(status().isForbidden());
+    mockMvc
+        .perform(put("/cache/abc").header("Authorization", "Basic Y2k6Z3Vlc3M=").content("entry"))
+        .andExpect(status().isForbidden());
+    mockMvc
+        .perform(
+            put("/cache/abc")
+                .header("Authorization", AUTH)
+                .with(
+                    request -> {
+                      request.setRemoteAddr("203.0.113.7");
+                      return request;
+                    })
+                .content("entry"))
+        .andExpect(status().isForbidden());
+    mockMvc.perform(get("/cache/abc")).andExpect(status().isForbidden());
+
+    verify(buildCache, never()).store(any(), any(), anyLong());
+    verify(buildCache, never()).load(any());
+  }
+}
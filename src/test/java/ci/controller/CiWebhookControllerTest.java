@@ -1,24 +1,38 @@
 package ci.controller;
 
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
-import ci.service.CiService;
+import ci.service.BuildScheduler;
+import ci.util.SignatureVerifier;
+import java.nio.charset.StandardCharsets;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import org.apache.tomcat.util.buf.HexUtils;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.webmvc.test.autoconfigure.WebMvcTest;
+import org.springframework.context.annotation.Import;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.web.servlet.MockMvc;
 
-@WebMvcTest(CiWebhookController.class)
+@WebMvcTest(
+    controllers = CiWebhookController.class,
+    properties = {"sharedKey=test-secret", "git.repoName=daDevBoat/ContinuousIntegration"})
+@Import(SignatureVerifier.class)
 public class CiWebhookControllerTest {
 
   @Autowired private MockMvc mockMvc;
   // @MockitoBean private Status status;
-  @MockitoBean private CiService ciService;
+  @MockitoBean private BuildScheduler buildScheduler;
 
   /**
    * Contract: Given a running application with CiWebhookController configured, when a GET request
@@ -50,4 +64,95 @@ public class CiWebhookControllerTest {
                 .content("{}"))
         .andExpect(status().isBadRequest());
   }
+
+  @Test
+  public void testGithubWebhookFullQueueReturnsServiceUnavailable() throws Exception {
+    /**
+     * Contract: When a valid push webhook arrives while the build queue is full, the response
+     * status should be 503 Service Unavailable with a Retry-After header instead of 202 Accepted.
+     */
+    when(buildScheduler.submit(any())).thenReturn(false);
+    when(buildScheduler.getRetryAfterSeconds()).thenReturn(30);
+
+    byte[] body =
+        """
+        {"after": "0123456789abcdef0123456789abcdef01234567",
+         "repository": {"full_name": "daDevBoat/ContinuousIntegration"}}
+        """
+            .getBytes(StandardCharsets.UTF_8);
+    Mac mac = Mac.getInstance("HmacSHA256");
+    mac.init(new SecretKeySpec("test-secret".getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+    String signature = "sha256=" + HexUtils.toHexString(mac.doFinal(body));
+
+    mockMvc
+        .perform(
+            post("/webhook/github")
+                .header("X-GitHub-Event", "push")
+                .header("X-Hub-Signature-256", signature)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(body))
+        .andExpect(status().isServiceUnavailable())
+        .andExpect(header().string("Retry-After", "30"));
+  }
+
+  @Test
+  public void testGithubWebhookChecksSignatureBeforeParsing() throws Exception {
+    /**
+     * Contract: A body that is not JSON is rejected for its invalid signature before it is parsed,
+     * and a correctly signed body that is not JSON is rejected as invalid JSON. Neither is
+     * submitted as a build.
+     */
+    byte[] body = "not json".getBytes(StandardCharsets.UTF_8);
+    mockMvc
+        .perform(
+            post("/webhook/github")
+                .header("X-GitHub-Event", "push")
+                .header("X-Hub-Signature-256", "sha256=00")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(body))
+        .andExpect(status().isBadRequest())
+        .andExpect(content().string("Signature was invalid"));
+
+    Mac mac = Mac.getInstance("HmacSHA256");
+    mac.init(new SecretKeySpec("test-secret".getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+    mockMvc
+        .perform(
+            post("/webhook/github")
+                .header("X-GitHub-Event", "push")
+                .header("X-Hub-Signature-256", "sha256=" + HexUtils.toHexString(mac.doFinal(body)))
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(body))
+        .andExpect(status().isBadRequest())
+        .andExpect(content().string("The payload is not valid JSON"));
+
+    verify(buildScheduler, never()).submit(any());
+  }
+
+  @Test
+  public void testGithubWebhookBranchDeletionIsNotBuilt() throws Exception {
+    /**
+     * Contract: A push deleting a branch, whose after sha is all zeros, is answered with 202
+     * Accepted without being submitted as a build.
+     */
+    byte[] body =
+        """
+        {"ref": "refs/heads/feature", "after": "0000000000000000000000000000000000000000",
+         "repository": {"full_name": "daDevBoat/ContinuousIntegration"}}
+        """
+            .getBytes(StandardCharsets.UTF_8);
+    Mac mac = Mac.getInstance("HmacSHA256");
+    mac.init(new SecretKeySpec("test-secret".getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+    String signature = "sha256=" + HexUtils.toHexString(mac.doFinal(body));
+
+    mockMvc
+        .perform(
+            post("/webhook/github")
+                .header("X-GitHub-Event", "push")
+                .header("X-Hub-Signature-256", signature)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(body))
+        .andExpect(status().isAccepted());
+
+    verify(buildScheduler, never()).submit(any());
+  }
 }
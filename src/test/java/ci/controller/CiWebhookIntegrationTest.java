@@ -3,7 +3,6 @@ package ci.controller;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
-import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.mockConstruction;
@@ -13,8 +12,12 @@ import static org.springframework.test.web.servlet.request.MockMvcRequestBuilder
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 import ci.integration.GithubAPIHandler;
+import ci.service.BuildLogs;
 import ci.service.CiService;
 import ci.service.CompilationService;
+import ci.service.MirrorRefresher;
+import ci.service.WorkspacePool;
+import ci.util.BuildLog;
 import ci.util.RepoSetup;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import java.io.UnsupportedEncodingException;
@@ -24,6 +27,7 @@ import java.nio.file.Path;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
 import org.apache.tomcat.util.buf.HexUtils;
@@ -41,6 +45,7 @@ import org.springframework.core.task.SyncTaskExecutor;
 import org.springframework.core.task.TaskExecutor;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.test.web.servlet.MockMvc;
 
@@ -74,6 +79,9 @@ class CiWebhookIntegrationTest {
 
   @Autowired MockMvc mockMvc;
   @Autowired CiService ciService;
+  @MockitoBean WorkspacePool workspacePool;
+  @MockitoBean MirrorRefresher mirrorRefresher;
+  @MockitoBean BuildLogs buildLogs;
 
   private final ObjectMapper om = new ObjectMapper();
 
@@ -144,16 +152,17 @@ class CiWebhookIntegrationTest {
      * iff all checks within the runBuild function pass, updates the status 200 "success".
      */
 
-    // Set value repoParentDir in ciService to temp
-    ReflectionTestUtils.setField(ciService, "repoParentDir", temp.toString());
-
-    // Create the repo so it passes checks
+    // Create the workspace so it passes checks
     String sha = "0123456789abcdef0123456789abcdef01234567";
-    Files.createDirectories(temp.resolve("test").resolve(sha).resolve(REPO_ID));
+    Path workspaceDir = temp.resolve("test").resolve(sha).resolve(REPO_ID);
+    Files.createDirectories(workspaceDir);
+    when(workspacePool.lease(anyString(), any()))
+        .thenReturn(new WorkspacePool.Workspace(workspaceDir));
+    when(buildLogs.open(anyString())).thenReturn(BuildLog.inMemory(10));
 
     // Fake compilation success - when the compile function is caled always return success as true
     CompilationService compilationMock = mock(CompilationService.class);
-    when(compilationMock.compile(any()))
+    when(compilationMock.compile(any(), any(), any()))
         .thenReturn(new CompilationService.CompilationResult(true, List.of("ok"), 0));
 
     // Use the mock compilationService class
@@ -164,19 +173,14 @@ class CiWebhookIntegrationTest {
 
       // Make sure none of the functions in RepoSetup returns anything (set all to null)
       repoSetup.when(() -> RepoSetup.createDir(anyString())).thenAnswer(i -> null);
-      repoSetup
-          .when(() -> RepoSetup.cloneRepo(anyString(), anyString(), anyString()))
-          .thenAnswer(i -> null);
-      repoSetup
-          .when(() -> RepoSetup.updateRepo(anyString(), anyString(), anyString()))
-          .thenAnswer(i -> null);
 
       // Setup a fake GitHubAPI Handler
       try (MockedConstruction<GithubAPIHandler> apiCons =
           mockConstruction(
               GithubAPIHandler.class,
               (mock, ctx) -> {
-                doNothing().when(mock).sendPost(anyString(), anyString(), anyString(), anyString());
+                when(mock.sendPost(anyString(), anyString(), anyString(), anyString()))
+                    .thenReturn(CompletableFuture.completedFuture(null));
               })) {
 
         // Building the fake payload
@@ -209,16 +213,17 @@ class CiWebhookIntegrationTest {
      * iff all the build fails, updates the status to "failure".
      */
 
-    // Set value repoParentDir in ciService to temp
-    ReflectionTestUtils.setField(ciService, "repoParentDir", temp.toString());
-
-    // Create the repo so it passes checks
+    // Create the workspace so it passes checks
     String sha = "0123456789abcdef0123456789abcdef01234567";
-    Files.createDirectories(temp.resolve("test").resolve(sha).resolve(REPO_ID));
+    Path workspaceDir = temp.resolve("test").resolve(sha).resolve(REPO_ID);
+    Files.createDirectories(workspaceDir);
+    when(workspacePool.lease(anyString(), any()))
+        .thenReturn(new WorkspacePool.Workspace(workspaceDir));
+    when(buildLogs.open(anyString())).thenReturn(BuildLog.inMemory(10));
 
     // Fake compilation success - when the compile function is caled always return success as true
     CompilationService compilationMock = mock(CompilationService.class);
-    when(compilationMock.compile(any()))
+    when(compilationMock.compile(any(), any(), any()))
         .thenReturn(new CompilationService.CompilationResult(false, List.of("fail"), 1));
 
     // Use the mock compilationService class
@@ -229,19 +234,14 @@ class CiWebhookIntegrationTest {
 
       // Make sure none of the functions in RepoSetup returns anything (set all to null)
       repoSetup.when(() -> RepoSetup.createDir(anyString())).thenAnswer(i -> null);
-      repoSetup
-          .when(() -> RepoSetup.cloneRepo(anyString(), anyString(), anyString()))
-          .thenAnswer(i -> null);
-      repoSetup
-          .when(() -> RepoSetup.updateRepo(anyString(), anyString(), anyString()))
-          .thenAnswer(i -> null);
 
       // Setup a fake GitHubAPI Handler
       try (MockedConstruction<GithubAPIHandler> apiCons =
           mockConstruction(
               GithubAPIHandler.class,
               (mock, ctx) -> {
-                doNothing().when(mock).sendPost(anyString(), anyString(), anyString(), anyString());
+                when(mock.sendPost(anyString(), anyString(), anyString(), anyString()))
+                    .thenReturn(CompletableFuture.completedFuture(null));
               })) {
 
         // Building the fake payload
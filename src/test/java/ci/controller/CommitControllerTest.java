@@ -1,26 +1,40 @@
 package ci.controller;
 
 import static org.hamcrest.Matchers.notNullValue;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.model;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.view;
 
+import ci.service.BuildLogs;
 import ci.service.Status;
+import ci.util.BuildLog;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.webmvc.test.autoconfigure.WebMvcTest;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
 @WebMvcTest(CommitController.class)
 public class CommitControllerTest {
 
   @Autowired private MockMvc mockMvc;
   @MockitoBean Status status;
+  @MockitoBean BuildLogs buildLogs;
+  @TempDir Path temp;
 
   @Test
   public void commitPageTest() throws Exception {
@@ -40,4 +54,60 @@ public class CommitControllerTest {
         .andExpect(model().attributeExists("latestCommit"))
         .andExpect(model().attribute("latestCommit", notNullValue()));
   }
+
+  @Test
+  public void commitLogTest() throws Exception {
+    /*
+     * Contract: The log endpoint serves the complete log file of a commit as plain text, falls
+     * back to the stored tail when the file is gone, and returns NOT_FOUND for unknown commits.
+     */
+    Path file = temp.resolve("abc-1.log");
+    Files.writeString(file, "line 1\nline 2\nline 3\n");
+    when(status.get("abc"))
+        .thenReturn(
+            Optional.of(new Status.CommitRecord("abc", "SUCCESS", List.of("line 3"), "abc-1.log")));
+    when(status.get("def"))
+        .thenReturn(
+            Optional.of(new Status.CommitRecord("def", "FAILURE", List.of("tail"), "def-1.log")));
+    when(buildLogs.resolve(any())).thenReturn(Optional.empty());
+    when(buildLogs.resolve("abc-1.log")).thenReturn(Optional.of(file));
+
+    mockMvc
+        .perform(get("/commit/abc/log"))
+        .andExpect(status().isOk())
+        .andExpect(content().string("line 1\nline 2\nline 3\n"));
+    mockMvc
+        .perform(get("/commit/def/log"))
+        .andExpect(status().isOk())
+        .andExpect(content().string("tail\n"));
+    mockMvc.perform(get("/commit/unknown/log")).andExpect(status().isNotFound());
+  }
+
+  @Test
+  public void commitLogStreamTest() throws Exception {
+    /*
+     * Contract: The stream endpoint sends the lines of a running build as events whose id is the
+     * byte offset after the line, resumes after the Last-Event-ID of a reconnecting browser, ends
+     * with an end event when the build finishes, and returns NOT_FOUND for unknown commits.
+     */
+    BuildLog log = BuildLog.inMemory(10);
+    log.append("compiling");
+    log.append("done");
+    when(buildLogs.running("abc")).thenReturn(Optional.of(log));
+    when(buildLogs.running("unknown")).thenReturn(Optional.empty());
+
+    MvcResult result =
+        mockMvc
+            .perform(get("/commit/abc/log/stream").header("Last-Event-ID", "10"))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+    log.close();
+    result.getAsyncResult(5000);
+
+    String body = result.getResponse().getContentAsString();
+    assertTrue(body.contains("id:15\ndata:done\n"));
+    assertFalse(body.contains("compiling"));
+    assertTrue(body.contains("event:end"));
+    mockMvc.perform(get("/commit/unknown/log/stream")).andExpect(status().isNotFound());
+  }
 }
@@ -1,14 +1,21 @@
 package ci.controller;
 
 import static org.hamcrest.Matchers.notNullValue;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.model;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.view;
 
 import ci.service.Status;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.Arrays;
+import java.util.List;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.webmvc.test.autoconfigure.WebMvcTest;
@@ -24,16 +31,91 @@ public class HistoryControllerTest {
   @Test
   public void historyPageTest() throws Exception {
     /*
-     * Contract: When getCommits() returns a List of commit records the history view should be
+     * Contract: When getCommits() returns a page of commit records the history view should be
      * returned with status OK and contain that list in its model's attributes.
      */
-    when(status.getCommits())
+    when(status.getCommits(Status.HistoryFilter.NONE, null, 50))
         .thenReturn(
-            Arrays.asList(new Status.CommitRecord("dummy", "pass", Arrays.asList("message"))));
+            new Status.HistoryPage(
+                Arrays.asList(new Status.CommitRecord("dummy", "pass", Arrays.asList("message"))),
+                null));
     mockMvc
         .perform(get("/history"))
         .andExpect(status().isOk())
         .andExpect(view().name("history"))
         .andExpect(model().attribute("historyList", notNullValue()));
   }
+
+  @Test
+  public void historyPaginationTest() throws Exception {
+    /*
+     * Contract: The before cursor and the limit are passed on to the Status service, the limit is
+     * capped, and the cursor of the next page is added to the model.
+     */
+    List<Status.CommitRecord> commits =
+        List.of(new Status.CommitRecord("sha2", "SUCCESS", "2026-02-08 11:00:00", List.of(), null));
+    when(status.getCommits(Status.HistoryFilter.NONE, "1770552000000-sha3", 500))
+        .thenReturn(new Status.HistoryPage(commits, "1770548400000-sha2"));
+
+    mockMvc
+        .perform(get("/history").param("before", "1770552000000-sha3").param("limit", "9999"))
+        .andExpect(status().isOk())
+        .andExpect(model().attribute("historyList", commits))
+        .andExpect(model().attribute("nextCursor", "1770548400000-sha2"))
+        .andExpect(model().attribute("limit", 500));
+  }
+
+  @Test
+  public void historyWhileLoadingTest() throws Exception {
+    /*
+     * Contract: While the Status service is still loading the history on startup the history view
+     * says so with status SERVICE_UNAVAILABLE and a Retry-After header, without listing commits.
+     */
+    when(status.isLoading()).thenReturn(true);
+
+    mockMvc
+        .perform(get("/history"))
+        .andExpect(status().isServiceUnavailable())
+        .andExpect(header().string("Retry-After", "5"))
+        .andExpect(view().name("history"))
+        .andExpect(model().attribute("loading", true))
+        .andExpect(model().attributeDoesNotExist("historyList"));
+  }
+
+  @Test
+  public void historyFilterTest() throws Exception {
+    /*
+     * Contract: The state, branch, sha prefix and age of the request are passed on to the Status
+     * service as a filter, blank fields are ignored, and the filter is added to the model so the
+     * next page keeps it.
+     */
+    List<Status.CommitRecord> commits =
+        List.of(
+            new Status.CommitRecord(
+                "abc1", "FAILURE", "2026-02-08 11:00:00", List.of(), null, "main"));
+    Instant weekAgo = Instant.now().minus(Duration.ofDays(7));
+    when(status.getCommits(
+            argThat(
+                filter ->
+                    "FAILURE".equals(filter.state())
+                        && "main".equals(filter.branch())
+                        && filter.shaPrefix() == null
+                        && !filter.since().isBefore(weekAgo)),
+            isNull(),
+            eq(50)))
+        .thenReturn(new Status.HistoryPage(commits, null));
+
+    mockMvc
+        .perform(
+            get("/history")
+                .param("state", "FAILURE")
+                .param("branch", "main")
+                .param("sha", " ")
+                .param("days", "7"))
+        .andExpect(status().isOk())
+        .andExpect(model().attribute("historyList", commits))
+        .andExpect(model().attribute("state", "FAILURE"))
+        .andExpect(model().attribute("branch", "main"))
+        .andExpect(model().attribute("days", 7));
+  }
 }
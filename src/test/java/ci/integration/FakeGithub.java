@@ -0,0 +1,156 @@
+package ci.integration;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * FakeGithub is a local HTTP server that answers like the statuses endpoint of GitHub, for the
+ * tests of the clients posting commit statuses.
+ *
+ * <p>Every request is recorded. A request with the token {@code bad} is rejected with 401, the
+ * others get the next scripted response, and 201 once the scripted responses are used up.
+ */
+final class FakeGithub {
+
+  private final HttpServer server;
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  // Every request received, in order
+  private final List<Request> received = new CopyOnWriteArrayList<>();
+  // Responses given to the next requests
+  private final ConcurrentLinkedQueue<Response> responses = new ConcurrentLinkedQueue<>();
+  // Delay before answering the status of a commit, by sha
+  private final Map<String, Long> delays = new ConcurrentHashMap<>();
+
+  /**
+   * A request the fake GitHub received.
+   *
+   * @param path the path of the request
+   * @param token the Authorization header
+   * @param body the request body
+   */
+  record Request(String path, String token, String body) {
+
+    /**
+     * Returns the commit the status was posted for.
+     *
+     * @return the last segment of the path
+     */
+    String sha() {
+      return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    /**
+     * Returns the state of the posted status.
+     *
+     * @return the value of the state field of the body
+     */
+    String state() {
+      return body.replaceAll(".*\"state\":\"(\\w+)\".*", "$1");
+    }
+  }
+
+  /**
+   * A scripted response of the fake GitHub.
+   *
+   * @param code the status code
+   * @param headers the headers of the response
+   */
+  private record Response(int code, Map<String, String> headers) {}
+
+  /**
+   * Starts a fake GitHub on a free local port.
+   *
+   * @throws IOException if the server cannot be started
+   */
+  FakeGithub() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.setExecutor(executor);
+    server.createContext("/", this::handle);
+    server.start();
+  }
+
+  /** Stops the server. */
+  void stop() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  /**
+   * Returns the url of the fake GitHub.
+   *
+   * @return the base url
+   */
+  String url() {
+    return "http://localhost:" + server.getAddress().getPort();
+  }
+
+  /**
+   * Returns every request received so far, in order.
+   *
+   * @return the received requests
+   */
+  List<Request> received() {
+    return received;
+  }
+
+  /**
+   * Adds a response given to the next request that is not rejected.
+   *
+   * @param code the status code
+   * @param headers the headers of the response
+   */
+  void respond(int code, Map<String, String> headers) {
+    responses.add(new Response(code, headers));
+  }
+
+  /**
+   * Makes the fake GitHub slow to answer the statuses of a commit.
+   *
+   * @param sha the commit SHA hash
+   * @param millis the time before the answer
+   */
+  void delay(String sha, long millis) {
+    delays.put(sha, millis);
+  }
+
+  /**
+   * Records a request and answers it.
+   *
+   * @param exchange the request
+   * @throws IOException if the response cannot be written
+   */
+  private void handle(HttpExchange exchange) throws IOException {
+    String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+    String token = exchange.getRequestHeaders().getFirst("Authorization");
+    Request request = new Request(exchange.getRequestURI().getPath(), token, body);
+    received.add(request);
+    Long delay = delays.get(request.sha());
+    if (delay != null) {
+      try {
+        Thread.sleep(delay);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    Response response = "Bearer bad".equals(token) ? new Response(401, Map.of()) : responses.poll();
+    if (response == null) {
+      response = new Response(201, Map.of());
+    }
+    exchange.getResponseHeaders().add("Content-Type", "application/json");
+    response.headers().forEach((name, value) -> exchange.getResponseHeaders().add(name, value));
+    byte[] bytes = "{}".getBytes(StandardCharsets.UTF_8);
+    exchange.sendResponseHeaders(response.code(), bytes.length);
+    exchange.getResponseBody().write(bytes);
+    exchange.close();
+  }
+}
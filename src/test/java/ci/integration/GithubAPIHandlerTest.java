@@ -1,13 +1,18 @@
 package ci.integration;
 
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
+import ci.util.BuildRequest;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.IOException;
 import java.util.Random;
+import java.util.concurrent.CompletionException;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.web.reactive.function.client.WebClientResponseException;
@@ -21,9 +26,24 @@ public class GithubAPIHandlerTest {
   @Value("${local.url:Invalid url}")
   private String targetUrl;
 
+  @Autowired private StatusOutbox statusOutbox;
+
+  /**
+   * Creates a handler for the commit of a push payload.
+   *
+   * @param root the push payload
+   * @return the handler posting statuses of the commit
+   * @throws IOException when the payload cannot be parsed
+   */
+  private GithubAPIHandler handlerFor(ObjectNode root) throws IOException {
+    // The handler gets the build request the webhook controller parses from the raw body
+    byte[] body = new ObjectMapper().writeValueAsBytes(root);
+    return new GithubAPIHandler(BuildRequest.parsePush(body, null), statusOutbox);
+  }
+
   @Test
   @Disabled
-  public void testSendPostSuccess() {
+  public void testSendPostSuccess() throws Exception {
     /**
      * Contract: Given the CI server running and ngrok is activated this test should always
      * successfully update the commit status to successful to a commit on the test/commit_status_api
@@ -44,7 +64,7 @@ public class GithubAPIHandlerTest {
     // System.out.println(root.toPrettyString());
     // System.out.println(authToken);
 
-    GithubAPIHandler testHandler = new GithubAPIHandler(root);
+    GithubAPIHandler testHandler = handlerFor(root);
     Random rand = new Random();
 
     int testId = rand.nextInt(0, 1000000);
@@ -53,13 +73,13 @@ public class GithubAPIHandlerTest {
 
     assertDoesNotThrow(
         () -> {
-          testHandler.sendPost(authToken, targetUrl, "success", "Test " + testId);
+          testHandler.sendPost(authToken, targetUrl, "success", "Test " + testId).join();
         });
   }
 
   @Test
   @Disabled
-  public void testSendPostFail() {
+  public void testSendPostFail() throws Exception {
     /**
      * Contract: Given the CI server running and ngrok is activated this test should always
      * successfully update the commit status to successful to a commit on the test/commit_status_api
@@ -80,7 +100,7 @@ public class GithubAPIHandlerTest {
     // System.out.println(root.toPrettyString());
     // System.out.println(authToken);
 
-    GithubAPIHandler testHandler = new GithubAPIHandler(root);
+    GithubAPIHandler testHandler = handlerFor(root);
     Random rand = new Random();
 
     int testId = rand.nextInt(0, 1000000);
@@ -89,13 +109,13 @@ public class GithubAPIHandlerTest {
 
     assertDoesNotThrow(
         () -> {
-          testHandler.sendPost(authToken, targetUrl, "failure", "Test " + testId);
+          testHandler.sendPost(authToken, targetUrl, "failure", "Test " + testId).join();
         });
   }
 
   @Test
   @Disabled
-  public void testSendPostPending() {
+  public void testSendPostPending() throws Exception {
     /**
      * Contract: Given the CI server running and ngrok is activated this test should always
      * successfully update the commit status to pending to a commit on the test/commit_status_api
@@ -116,7 +136,7 @@ public class GithubAPIHandlerTest {
     // System.out.println(root.toPrettyString());
     // System.out.println(authToken);
 
-    GithubAPIHandler testHandler = new GithubAPIHandler(root);
+    GithubAPIHandler testHandler = handlerFor(root);
     Random rand = new Random();
 
     int testId = rand.nextInt(0, 1000000);
@@ -125,13 +145,16 @@ public class GithubAPIHandlerTest {
 
     assertDoesNotThrow(
         () -> {
-          testHandler.sendPost(authToken, targetUrl, "pending", "Test " + testId);
+          testHandler.sendPost(authToken, targetUrl, "pending", "Test " + testId).join();
         });
   }
 
   @Test
-  public void testSendPostInvalid() {
-    /** Contract: The test should always fail as the auth token is invalid. */
+  public void testSendPostInvalid() throws Exception {
+    /**
+     * Contract: The test should always fail as the auth token is invalid, the returned future fails
+     * with the 401 response of GitHub.
+     */
     ObjectMapper mapper = new ObjectMapper();
 
     ObjectNode root = mapper.createObjectNode();
@@ -144,12 +167,16 @@ public class GithubAPIHandlerTest {
     repository.set("owner", owner);
     root.set("repository", repository);
 
-    GithubAPIHandler testHandler = new GithubAPIHandler(root);
-
-    assertThrows(
-        WebClientResponseException.Unauthorized.class,
-        () -> {
-          testHandler.sendPost("Fake token", targetUrl, "success", "This should never been shown");
-        });
+    GithubAPIHandler testHandler = handlerFor(root);
+
+    CompletionException e =
+        assertThrows(
+            CompletionException.class,
+            () -> {
+              testHandler
+                  .sendPost("Fake token", targetUrl, "success", "This should never been shown")
+                  .join();
+            });
+    assertInstanceOf(WebClientResponseException.Unauthorized.class, e.getCause());
   }
 }
@@ -0,0 +1,89 @@
+package ci.integration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.Map;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+public class GithubClientTest {
+
+  private FakeGithub github;
+  private GithubClient client;
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    github = new FakeGithub();
+    client = new GithubClient();
+    ReflectionTestUtils.setField(client, "apiUrl", github.url());
+    client.init();
+  }
+
+  @AfterEach
+  public void tearDown() {
+    client.shutdown();
+    github.stop();
+  }
+
+  @Test
+  public void statusesShareOnePooledConnection() {
+    /**
+     * Contract: A status is posted to the statuses url of its commit with the token, consecutive
+     * requests reuse the pooled connection instead of opening a new one, and a rejected status
+     * fails with the response of GitHub.
+     */
+    for (int i = 0; i < 3; i++) {
+      client.postStatus("token", "owner", "repo", "abc", Map.of("state", "success")).block();
+    }
+    assertEquals(
+        new FakeGithub.Request(
+            "/repos/owner/repo/statuses/abc", "Bearer token", "{\"state\":\"success\"}"),
+        github.received().get(0));
+
+    assertThrows(
+        WebClientResponseException.Unauthorized.class,
+        () -> client.postStatus("bad", "owner", "repo", "abc", Map.of()).block());
+
+    GithubClient.Stats stats = client.getStats();
+    assertEquals(4, stats.requests());
+    assertEquals(1, stats.failures());
+    assertEquals(0, stats.inFlight());
+    assertEquals(1, stats.connectionsOpened());
+    assertEquals(3, stats.reusedConnections());
+  }
+
+  @Test
+  public void refusedConnectionsAreNotCountedAsReused() throws IOException {
+    /**
+     * Contract: A request that never got a connection, because GitHub refused it, is a failure
+     * and is not counted as a request over a reused connection.
+     */
+    int closedPort;
+    try (ServerSocket socket = new ServerSocket(0)) {
+      closedPort = socket.getLocalPort();
+    }
+    GithubClient unreachable = new GithubClient();
+    ReflectionTestUtils.setField(unreachable, "apiUrl", "http://localhost:" + closedPort);
+    unreachable.init();
+    try {
+      for (int i = 0; i < 2; i++) {
+        assertThrows(
+            RuntimeException.class,
+            () -> unreachable.postStatus("token", "owner", "repo", "abc", Map.of()).block());
+      }
+      GithubClient.Stats stats = unreachable.getStats();
+      assertEquals(2, stats.requests());
+      assertEquals(2, stats.failures());
+      assertEquals(0, stats.connectionsOpened());
+      assertEquals(0, stats.reusedConnections());
+    } finally {
+      unreachable.shutdown();
+    }
+  }
+}
@@ -0,0 +1,226 @@
+package ci.integration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+public class StatusOutboxTest {
+
+  @TempDir Path temp;
+
+  private FakeGithub github;
+  private final List<GithubClient> clients = new CopyOnWriteArrayList<>();
+  private final List<StatusOutbox> outboxes = new CopyOnWriteArrayList<>();
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    github = new FakeGithub();
+    github.delay("busy", 300);
+  }
+
+  @AfterEach
+  public void tearDown() {
+    for (StatusOutbox outbox : outboxes) {
+      outbox.shutdown();
+    }
+    for (GithubClient client : clients) {
+      client.shutdown();
+    }
+    github.stop();
+  }
+
+  /**
+   * Returns the sha, token and state of every status the fake GitHub received, in order.
+   *
+   * @return the received statuses
+   */
+  private List<String> received() {
+    return github.received().stream()
+        .map(request -> request.sha() + " " + request.token() + " " + request.state())
+        .toList();
+  }
+
+  /**
+   * Creates and starts an outbox posting to the given url.
+   *
+   * @param apiUrl the url of the fake GitHub
+   * @param retryBaseMillis the backoff before the first retry
+   * @return the started outbox
+   */
+  private StatusOutbox outbox(String apiUrl, long retryBaseMillis) {
+    GithubClient client = new GithubClient();
+    ReflectionTestUtils.setField(client, "apiUrl", apiUrl);
+    client.init();
+    clients.add(client);
+    StatusOutbox outbox = new StatusOutbox(client);
+    ReflectionTestUtils.setField(
+        outbox, "outboxFile", temp.resolve("status-outbox.json").toString());
+    ReflectionTestUtils.setField(outbox, "retryBaseMillis", retryBaseMillis);
+    ReflectionTestUtils.setField(outbox, "authToken", "configured");
+    outbox.init();
+    outboxes.add(outbox);
+    return outbox;
+  }
+
+  /**
+   * Adds a status of a commit to the outbox.
+   *
+   * @param outbox the outbox
+   * @param sha the commit SHA hash
+   * @param state the state of the status
+   * @return the future of the status
+   */
+  private static CompletableFuture<Void> send(StatusOutbox outbox, String sha, String state) {
+    return outbox.enqueue("token", "owner", "repo", sha, state, "desc", "http://ci/history");
+  }
+
+  @Test
+  public void serverErrorsAreRetriedAndClientErrorsAreNot() {
+    /**
+     * Contract: A status answered with 5xx is retried until GitHub accepts it, a status answered
+     * with another 4xx is given up right away and its future fails with the response of GitHub.
+     */
+    StatusOutbox outbox = outbox(github.url(), 10);
+    github.respond(502, Map.of());
+    github.respond(503, Map.of());
+    send(outbox, "abc", "success").join();
+    assertEquals(List.of("abc Bearer token success"), received().stream().distinct().toList());
+    assertEquals(3, received().size());
+
+    github.respond(422, Map.of());
+    CompletionException e =
+        assertThrows(CompletionException.class, () -> send(outbox, "def", "success").join());
+    assertInstanceOf(WebClientResponseException.UnprocessableEntity.class, e.getCause());
+
+    StatusOutbox.Stats stats = outbox.getStats();
+    assertEquals(1, stats.posted());
+    assertEquals(2, stats.retried());
+    assertEquals(1, stats.failed());
+    assertEquals(0, stats.waiting());
+  }
+
+  @Test
+  public void exhaustedRateLimitPausesTheDispatcher() {
+    /**
+     * Contract: When GitHub answers with Retry-After the dispatcher waits that long before it
+     * posts again, without counting it as a failed attempt, and the rate limit headers of 403 and
+     * 429 responses are told apart from a missing permission.
+     */
+    StatusOutbox outbox = outbox(github.url(), 10);
+    github.respond(429, Map.of("Retry-After", "1"));
+    long start = System.currentTimeMillis();
+    send(outbox, "abc", "success").join();
+    assertTrue(System.currentTimeMillis() - start >= 1000);
+    assertEquals(2, received().size());
+    assertEquals(1, outbox.getStats().rateLimited());
+
+    HttpHeaders exhausted = new HttpHeaders();
+    exhausted.add("X-RateLimit-Remaining", "0");
+    exhausted.add("X-RateLimit-Reset", String.valueOf(System.currentTimeMillis() / 1000 + 60));
+    long wait = StatusOutbox.rateLimitMillis(HttpStatusCode.valueOf(403), exhausted);
+    assertTrue(wait > 50_000 && wait <= 60_000);
+    assertEquals(-1, StatusOutbox.rateLimitMillis(HttpStatusCode.valueOf(403), new HttpHeaders()));
+    assertEquals(-1, StatusOutbox.rateLimitMillis(HttpStatusCode.valueOf(500), exhausted));
+  }
+
+  @Test
+  public void waitingPendingStatusIsCollapsedIntoTheFinalOne() {
+    /**
+     * Contract: A status that is still waiting is replaced by a newer status of the same commit,
+     * so only the final state is posted, and the future of the replaced status completes.
+     */
+    StatusOutbox outbox = outbox(github.url(), 10);
+    CompletableFuture<Void> busy = send(outbox, "busy", "pending");
+    for (int i = 0; i < 500 && received().isEmpty(); i++) {
+      sleep(10);
+    }
+    CompletableFuture<Void> pending = send(outbox, "abc", "pending");
+    CompletableFuture<Void> success = send(outbox, "abc", "success");
+    CompletableFuture.allOf(busy, pending, success).join();
+
+    assertEquals(List.of("busy Bearer token pending", "abc Bearer token success"), received());
+    assertEquals(1, outbox.getStats().collapsed());
+  }
+
+  @Test
+  public void statusesSurviveARestart() throws IOException {
+    /**
+     * Contract: A status that could not be posted stays in the outbox file, and is posted with the
+     * configured token once the server is started again.
+     */
+    int closedPort;
+    try (ServerSocket socket = new ServerSocket(0)) {
+      closedPort = socket.getLocalPort();
+    }
+    StatusOutbox unreachable = outbox("http://localhost:" + closedPort, 60_000);
+    send(unreachable, "abc", "failure");
+    for (int i = 0; i < 500 && unreachable.getStats().retried() == 0; i++) {
+      sleep(10);
+    }
+    unreachable.shutdown();
+    assertTrue(Files.readString(temp.resolve("status-outbox.json")).contains("failure"));
+
+    StatusOutbox restarted = outbox(github.url(), 10);
+    for (int i = 0; i < 500 && restarted.getStats().posted() == 0; i++) {
+      sleep(10);
+    }
+    assertEquals(List.of("abc Bearer configured failure"), received());
+    assertEquals(0, restarted.getStats().waiting());
+  }
+
+  @Test
+  public void statusesAreWrittenWhileAPostIsSlow() throws IOException {
+    /**
+     * Contract: A status sent while GitHub is slow to answer another one is written to the outbox
+     * file before that post returns, so a crash meanwhile cannot lose it.
+     */
+    StatusOutbox outbox = outbox(github.url(), 10);
+    CompletableFuture<Void> busy = send(outbox, "busy", "pending");
+    for (int i = 0; i < 500 && received().isEmpty(); i++) {
+      sleep(10);
+    }
+    send(outbox, "abc", "success");
+    Path file = temp.resolve("status-outbox.json");
+    String written = "";
+    for (int i = 0; i < 200 && !written.contains("abc"); i++) {
+      sleep(1);
+      written = Files.exists(file) ? Files.readString(file) : "";
+    }
+
+    assertTrue(written.contains("abc"));
+    assertFalse(busy.isDone());
+  }
+
+  /**
+   * Sleeps without throwing.
+   *
+   * @param millis the time to sleep
+   */
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,169 @@
+package ci.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class BuildCacheTest {
+
+  @TempDir Path temp;
+
+  /**
+   * Creates a cache storing its entries in the temporary directory.
+   *
+   * @param maxSizeMb the disk budget in megabytes
+   * @return the initialized cache
+   */
+  private BuildCache cache(long maxSizeMb) {
+    BuildCache cache = new BuildCache();
+    ReflectionTestUtils.setField(cache, "repoParentDir", temp.toString());
+    ReflectionTestUtils.setField(cache, "maxSizeMb", maxSizeMb);
+    cache.init();
+    return cache;
+  }
+
+  /**
+   * Stores an entry of the given size.
+   *
+   * @param cache the cache to store in
+   * @param key the cache key
+   * @param size the size of the entry in bytes
+   * @return whether the entry was stored
+   * @throws Exception when the entry cannot be written
+   */
+  private static boolean store(BuildCache cache, String key, int size) throws Exception {
+    return cache.store(key, new ByteArrayInputStream(new byte[size]), size);
+  }
+
+  @Test
+  public void storedEntryIsLoadedAndCountedAsHit() throws Exception {
+    /* Contract: A stored entry is returned unchanged by load, unknown keys are misses. */
+    BuildCache cache = cache(1);
+    byte[] content = "task output".getBytes();
+    assertTrue(cache.store("abc123", new ByteArrayInputStream(content), content.length));
+
+    try (InputStream in = cache.load("abc123")) {
+      assertNotNull(in);
+      assertArrayEquals(content, in.readAllBytes());
+    }
+    assertNull(cache.load("def456"));
+
+    BuildCache.Stats stats = cache.getStats();
+    assertEquals(1, stats.entries());
+    assertEquals(1, stats.hits());
+    assertEquals(1, stats.misses());
+  }
+
+  @Test
+  public void storeEvictsLeastRecentlyUsedEntriesOverBudget() throws Exception {
+    /*
+     * Contract: When the entries exceed the disk budget, the least recently used entries are
+     * deleted first, and an entry that was loaded recently survives.
+     */
+    BuildCache cache = cache(1);
+    int third = 400 * 1024;
+    assertTrue(store(cache, "aa", third));
+    assertTrue(store(cache, "bb", third));
+    cache.load("aa").close();
+    assertTrue(store(cache, "cc", third));
+
+    assertNull(cache.load("bb"));
+    assertNotNull(cache.load("aa"));
+    assertFalse(Files.exists(temp.resolve("build-cache").resolve("entries").resolve("bb")));
+    assertEquals(1, cache.getStats().evicted());
+    assertTrue(cache.getStats().totalBytes() <= 1024 * 1024);
+  }
+
+  @Test
+  public void storeRejectsEntriesLargerThanLimit() throws Exception {
+    /* Contract: An entry larger than the entry limit is rejected and not stored. */
+    BuildCache cache = cache(1);
+    ReflectionTestUtils.setField(cache, "maxEntryMb", 0L);
+
+    assertFalse(store(cache, "aa", 10));
+    assertNull(cache.load("aa"));
+    assertEquals(1, cache.getStats().rejected());
+  }
+
+  @Test
+  public void storeStopsReadingEntriesOfUnknownSizeAtTheLimit() throws Exception {
+    /*
+     * Contract: An entry sent without a length is rejected once it passes the entry limit, without
+     * reading the rest of it.
+     */
+    BuildCache cache = cache(1);
+    ReflectionTestUtils.setField(cache, "maxEntryMb", 1L);
+    long[] read = new long[1];
+    InputStream endless =
+        new InputStream() {
+          @Override
+          public int read() {
+            read[0]++;
+            return 0;
+          }
+        };
+
+    assertFalse(cache.store("aa", endless, -1));
+    assertEquals(1024 * 1024 + 1, read[0]);
+    assertNull(cache.load("aa"));
+    assertEquals(1, cache.getStats().rejected());
+  }
+
+  @Test
+  public void initAdoptsEntriesOfPreviousRun() throws Exception {
+    /* Contract: Entries stored before a restart are served again after it. */
+    assertTrue(store(cache(1), "aa", 10));
+
+    BuildCache restarted = cache(1);
+    assertEquals(1, restarted.getStats().entries());
+    assertNotNull(restarted.load("aa"));
+  }
+
+  @Test
+  public void initScriptPointsGradleAtThisServer() throws Exception {
+    /* Contract: The init script enables a pushing remote HTTP cache on the server port. */
+    BuildCache cache = cache(1);
+    ReflectionTestUtils.setField(cache, "serverPort", 9090);
+
+    Path script = cache.initScript();
+    String content = Files.readString(script);
+    assertTrue(content.contains("url = 'http://localhost:9090/cache/'"));
+    assertTrue(content.contains("push = true"));
+
+    ReflectionTestUtils.setField(cache, "enabled", false);
+    assertNull(cache.initScript());
+  }
+
+  @Test
+  public void onlyTheCredentialsOfTheInitScriptAreAuthorized() throws Exception {
+    /*
+     * Contract: The init script carries the random credentials of this cache instance, which are
+     * authorized, while other credentials, missing ones and those of another instance are not.
+     */
+    BuildCache cache = cache(1);
+    String script = Files.readString(cache.initScript());
+    String password = script.replaceAll("(?s).*password = '([0-9a-f]+)'.*", "$1");
+    assertTrue(script.contains("username = 'ci'"));
+    assertEquals(64, password.length());
+
+    byte[] credentials = ("ci:" + password).getBytes(StandardCharsets.UTF_8);
+    String basic = "Basic " + Base64.getEncoder().encodeToString(credentials);
+    assertTrue(cache.isAuthorized(basic));
+    assertFalse(cache.isAuthorized(null));
+    assertFalse(cache.isAuthorized("Basic " + Base64.getEncoder().encodeToString(new byte[3])));
+    assertFalse(new BuildCache().isAuthorized(basic));
+  }
+}
@@ -0,0 +1,219 @@
+package ci.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import ci.util.BuildCancellation;
+import ci.util.BuildRequest;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class BuildSchedulerTest {
+
+  /**
+   * Creates the build request of a push.
+   *
+   * @param ref the pushed ref
+   * @param sha the commit SHA after the push
+   * @return the build request
+   */
+  private BuildRequest push(String ref, String sha) {
+    return new BuildRequest(
+        "daDevBoat",
+        "ContinuousIntegration",
+        "daDevBoat/ContinuousIntegration",
+        ref,
+        sha,
+        "",
+        "delivery-" + sha);
+  }
+
+  /**
+   * Creates a scheduler with the given limits.
+   *
+   * @param ciService the CiService the scheduler runs builds through
+   * @param executor the executor the workers are started on
+   * @param queueCapacity maximum number of waiting builds
+   * @param maxConcurrentBuilds maximum number of running builds
+   * @return the configured scheduler
+   */
+  private BuildScheduler scheduler(
+      CiService ciService, TaskExecutor executor, int queueCapacity, int maxConcurrentBuilds) {
+    return scheduler(
+        ciService, mock(MirrorRefresher.class), executor, queueCapacity, maxConcurrentBuilds);
+  }
+
+  /**
+   * Creates a scheduler with the given limits that prefetches through the given refresher.
+   *
+   * @param ciService the CiService the scheduler runs builds through
+   * @param mirrorRefresher the MirrorRefresher the scheduler prefetches commits through
+   * @param executor the executor the workers are started on
+   * @param queueCapacity maximum number of waiting builds
+   * @param maxConcurrentBuilds maximum number of running builds
+   * @return the configured scheduler
+   */
+  private BuildScheduler scheduler(
+      CiService ciService,
+      MirrorRefresher mirrorRefresher,
+      TaskExecutor executor,
+      int queueCapacity,
+      int maxConcurrentBuilds) {
+    BuildScheduler scheduler = new BuildScheduler(ciService, mirrorRefresher, executor);
+    ReflectionTestUtils.setField(scheduler, "queueCapacity", queueCapacity);
+    ReflectionTestUtils.setField(scheduler, "maxConcurrentBuilds", maxConcurrentBuilds);
+    return scheduler;
+  }
+
+  @Test
+  public void submitRejectsWhenQueueIsFull() {
+    /*
+     * Contract: When no worker picks up builds, submit admits builds until the queue capacity is
+     * reached and rejects every build after that, counting the rejections.
+     */
+    BuildScheduler scheduler = scheduler(mock(CiService.class), task -> {}, 2, 1);
+
+    assertTrue(scheduler.submit(push("refs/heads/a", "sha1")));
+    assertTrue(scheduler.submit(push("refs/heads/b", "sha2")));
+    assertFalse(scheduler.submit(push("refs/heads/c", "sha3")));
+
+    BuildScheduler.Stats stats = scheduler.getStats();
+    assertEquals(2, stats.queueDepth());
+    assertEquals(1, stats.running());
+    assertEquals(2, stats.accepted());
+    assertEquals(1, stats.rejected());
+  }
+
+  @Test
+  public void submitPrefetchesCommitBeforeBuildStarts() {
+    /*
+     * Contract: The commit of an admitted build is handed to the MirrorRefresher right away,
+     * while the build is still waiting in the queue.
+     */
+    CiService ciService = mock(CiService.class);
+    MirrorRefresher mirrorRefresher = mock(MirrorRefresher.class);
+    BuildScheduler scheduler = scheduler(ciService, mirrorRefresher, task -> {}, 2, 1);
+
+    assertTrue(scheduler.submit(push("refs/heads/main", "sha1")));
+
+    verify(mirrorRefresher).prefetch("sha1");
+    verify(ciService, never()).runBuild(any(), any());
+  }
+
+  @Test
+  public void submitWithdrawsBuildWhenNoWorkerCanStart() {
+    /*
+     * Contract: When the executor rejects the worker of a build and no other worker is running,
+     * the build is taken back out of the queue and submit returns false, so the webhook is not
+     * accepted for a build that would never run.
+     */
+    MirrorRefresher mirrorRefresher = mock(MirrorRefresher.class);
+    TaskExecutor rejecting =
+        task -> {
+          throw new TaskRejectedException("Executor is shut down");
+        };
+    BuildScheduler scheduler = scheduler(mock(CiService.class), mirrorRefresher, rejecting, 2, 1);
+
+    assertFalse(scheduler.submit(push("refs/heads/main", "sha1")));
+
+    BuildScheduler.Stats stats = scheduler.getStats();
+    assertEquals(0, stats.queueDepth());
+    assertEquals(0, stats.running());
+    assertEquals(0, stats.accepted());
+    assertEquals(1, stats.rejected());
+    verify(mirrorRefresher, never()).prefetch(any());
+  }
+
+  @Test
+  public void submitRunsBuildAndReleasesSlot() {
+    /*
+     * Contract: An admitted build is run through the CiService, and once the queue is drained the
+     * worker releases its build slot.
+     */
+    CiService ciService = mock(CiService.class);
+    BuildScheduler scheduler = scheduler(ciService, new SyncTaskExecutor(), 2, 1);
+    BuildRequest payload = push("refs/heads/main", "sha1");
+
+    assertTrue(scheduler.submit(payload));
+    assertTrue(scheduler.submit(payload));
+
+    verify(ciService, times(2)).runBuild(eq(payload), any());
+    BuildScheduler.Stats stats = scheduler.getStats();
+    assertEquals(0, stats.queueDepth());
+    assertEquals(0, stats.running());
+    assertEquals(0, stats.rejected());
+  }
+
+  @Test
+  public void newerPushSupersedesQueuedBuildOfSameRef() {
+    /*
+     * Contract: A push to a ref that already has a queued build replaces that build, even when the
+     * queue is full, and the replaced build is marked as superseded instead of being run.
+     */
+    CiService ciService = mock(CiService.class);
+    List<Runnable> workers = new ArrayList<>();
+    BuildScheduler scheduler = scheduler(ciService, workers::add, 1, 1);
+    BuildRequest first = push("refs/heads/main", "sha1");
+    BuildRequest second = push("refs/heads/main", "sha2");
+
+    assertTrue(scheduler.submit(first));
+    assertTrue(scheduler.submit(second));
+    assertEquals(1, scheduler.getStats().queueDepth());
+    assertEquals(1, scheduler.getStats().superseded());
+    verify(ciService).markSuperseded(first, "sha2");
+
+    workers.forEach(Runnable::run);
+    verify(ciService).runBuild(eq(second), any());
+    verify(ciService, never()).runBuild(eq(first), any());
+  }
+
+  @Test
+  public void newerPushCancelsRunningBuildWhenEnabled() throws Exception {
+    /*
+     * Contract: With cancelRunning enabled, a push to a ref whose build is running cancels the
+     * running build through its cancellation handle.
+     */
+    CiService ciService = mock(CiService.class);
+    BuildRequest first = push("refs/heads/main", "sha1");
+    doAnswer(
+            invocation -> {
+              BuildCancellation cancellation = invocation.getArgument(1);
+              while (!cancellation.isCancelled()) {
+                Thread.sleep(5);
+              }
+              return null;
+            })
+        .when(ciService)
+        .runBuild(eq(first), any());
+
+    List<Runnable> workers = new ArrayList<>();
+    BuildScheduler scheduler = scheduler(ciService, workers::add, 2, 1);
+    ReflectionTestUtils.setField(scheduler, "cancelRunning", true);
+
+    assertTrue(scheduler.submit(first));
+    Thread worker = new Thread(workers.get(0));
+    worker.start();
+    while (scheduler.getStats().queueDepth() != 0) {
+      Thread.sleep(5);
+    }
+
+    assertTrue(scheduler.submit(push("refs/heads/main", "sha2")));
+    worker.join(5000);
+
+    assertFalse(worker.isAlive());
+    assertEquals(1, scheduler.getStats().cancelled());
+  }
+}
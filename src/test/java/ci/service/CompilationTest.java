@@ -1,5 +1,6 @@
 package ci.service;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
@@ -15,11 +16,12 @@ import java.util.List;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.util.ReflectionTestUtils;
 
 @SpringBootTest
 public class CompilationTest {
 
-  private final CompilationService compilationService = new CompilationService();
+  private final CompilationService compilationService = new CompilationService(new BuildCache());
 
   @Test
   public void testCompileWithNullDirectory() {
@@ -92,4 +94,38 @@ public class CompilationTest {
     assertNotNull(success.getOutput());
     assertNotNull(failure.getOutput());
   }
+
+  @Test
+  public void testBuildCommandPerEngine() {
+    /* Contract: The cold engine starts the wrapper through a login shell with --no-daemon, while
+     * the daemon engine starts it directly with --daemon and the shared Gradle user home. */
+    CompilationService service = new CompilationService(new BuildCache());
+    assertArrayEquals(
+        new String[] {"bash", "-lc", "./gradlew --no-daemon build"}, service.buildCommand(null));
+
+    ReflectionTestUtils.setField(service, "engine", CompilationService.Engine.DAEMON);
+    ReflectionTestUtils.setField(service, "gradleUserHome", "/tmp/gradle-home");
+    assertArrayEquals(
+        new String[] {"./gradlew", "--daemon", "--gradle-user-home", "/tmp/gradle-home", "build"},
+        service.buildCommand(null));
+  }
+
+  @Test
+  public void testBuildCommandUsesBuildCacheInitScript() {
+    /* Contract: With an init script both engines enable the build cache and pass the script,
+     * quoting it for the login shell of the cold engine. */
+    CompilationService service = new CompilationService(new BuildCache());
+    Path script = Path.of("/tmp/ci dir/cache.init.gradle");
+    String[] cold = service.buildCommand(script);
+    assertEquals(
+        "./gradlew --no-daemon build --build-cache --init-script '/tmp/ci dir/cache.init.gradle'",
+        cold[2]);
+
+    ReflectionTestUtils.setField(service, "engine", CompilationService.Engine.DAEMON);
+    List<String> daemon = List.of(service.buildCommand(script));
+    assertEquals(
+        List.of("./gradlew", "--daemon", "build", "--build-cache", "--init-script"),
+        daemon.subList(0, 5));
+    assertEquals(script.toString(), daemon.get(5));
+  }
 }
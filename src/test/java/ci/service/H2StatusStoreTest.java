@@ -0,0 +1,126 @@
+package ci.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import ci.service.Status.CommitRecord;
+import ci.service.Status.HistoryFilter;
+import ci.service.Status.HistoryPage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class H2StatusStoreTest {
+
+  @TempDir Path tempDir;
+
+  @Test
+  public void appendedRecordsAreLoadedAgainAfterReopening() throws IOException {
+    /*
+     * Contract: Records appended to the database replace earlier records of the same commit, and
+     * are loaded again without logs as metadata and with their logs by a store opened later.
+     */
+    H2StatusStore store = new H2StatusStore(tempDir.resolve("commits"));
+    store.open();
+    store.append(
+        List.of(
+            new CommitRecord("sha1", "FAILURE", "2026-02-08 10:00:00", List.of("m1"), null, "main"),
+            new CommitRecord("sha2", "SUCCESS", "2026-02-08 11:00:00", null, "sha2.log", null)));
+    store.append(
+        List.of(
+            new CommitRecord(
+                "sha1", "SUCCESS", "2026-02-08 12:00:00", List.of("m2"), null, "main")));
+    store.close();
+
+    H2StatusStore reopened = new H2StatusStore(tempDir.resolve("commits"));
+    reopened.open();
+    List<CommitRecord> metadata = new ArrayList<>();
+    reopened.load(
+        new StatusStore.Loader() {
+          @Override
+          public void metadata(CommitRecord record) {
+            metadata.add(record);
+          }
+
+          @Override
+          public void commit(CommitRecord record) {
+            throw new AssertionError("The database has no journal to replay");
+          }
+
+          @Override
+          public void removed(String sha) {
+            throw new AssertionError("The database has no journal to replay");
+          }
+        });
+    List<CommitRecord> withLogs = new ArrayList<>();
+    reopened.loadLogs(withLogs::add);
+    reopened.close();
+
+    assertEquals(2, metadata.size());
+    assertTrue(metadata.stream().allMatch(record -> record.logs() == null));
+    assertTrue(
+        withLogs.contains(
+            new CommitRecord(
+                "sha1", "SUCCESS", "2026-02-08 12:00:00", List.of("m2"), null, "main")));
+    assertTrue(
+        withLogs.contains(
+            new CommitRecord("sha2", "SUCCESS", "2026-02-08 11:00:00", null, "sha2.log", null)));
+  }
+
+  @Test
+  public void findPagesThroughMatchingCommitsWithTheIndexes() throws IOException {
+    /*
+     * Contract: The database finds the commits matching the state, branch and sha prefix of a
+     * filter newest first without logs, and the cursor of a page leads to the older matches.
+     */
+    H2StatusStore store = new H2StatusStore(tempDir.resolve("commits"));
+    store.open();
+    store.append(
+        List.of(
+            new CommitRecord("aa1", "FAILURE", "2026-02-08 10:00:00", List.of("m"), null, "main"),
+            new CommitRecord("aa2", "FAILURE", "2026-02-08 11:00:00", List.of(), null, "main"),
+            new CommitRecord("ab3", "SUCCESS", "2026-02-08 12:00:00", List.of(), null, "main"),
+            new CommitRecord("ab4", "FAILURE", "2026-02-08 13:00:00", List.of(), null, "dev"),
+            new CommitRecord("a_5", "FAILURE", "2026-02-08 14:00:00", List.of(), null, "main")));
+
+    HistoryFilter failuresOnMain = new HistoryFilter("FAILURE", "main", null, null);
+    HistoryPage first = store.find(failuresOnMain, null, 2).get();
+    assertEquals(List.of("a_5", "aa2"), first.commits().stream().map(CommitRecord::sha).toList());
+    assertNull(first.commits().getFirst().logs());
+    HistoryPage second = store.find(failuresOnMain, first.next(), 2).get();
+    assertEquals(List.of("aa1"), second.commits().stream().map(CommitRecord::sha).toList());
+    assertNull(second.next());
+
+    // An underscore in the prefix is matched literally, not as a wildcard
+    HistoryPage prefix = store.find(new HistoryFilter(null, null, "a_", null), null, 10).get();
+    assertEquals(List.of("a_5"), prefix.commits().stream().map(CommitRecord::sha).toList());
+    store.close();
+  }
+
+  @Test
+  public void removedCommitsAreDeletedFromTheDatabase() throws IOException {
+    /*
+     * Contract: Removed commits are deleted from the database, so they are neither loaded again
+     * nor found by a filter, while the other commits are kept.
+     */
+    H2StatusStore store = new H2StatusStore(tempDir.resolve("commits"));
+    store.open();
+    store.append(
+        List.of(
+            new CommitRecord("sha1", "FAILURE", "2026-02-08 10:00:00", List.of("m1"), null, "main"),
+            new CommitRecord("sha2", "FAILURE", "2026-02-08 11:00:00", List.of(), null, "main")));
+    store.remove(List.of("sha1"));
+
+    List<CommitRecord> withLogs = new ArrayList<>();
+    store.loadLogs(withLogs::add);
+    assertEquals(List.of("sha2"), withLogs.stream().map(CommitRecord::sha).toList());
+    HistoryFilter failures = new HistoryFilter("FAILURE", null, null, null);
+    HistoryPage page = store.find(failures, null, 10).get();
+    assertEquals(List.of("sha2"), page.commits().stream().map(CommitRecord::sha).toList());
+    store.close();
+  }
+}
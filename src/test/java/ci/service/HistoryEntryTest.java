@@ -0,0 +1,77 @@
+package ci.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import ci.service.Status.CommitRecord;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class HistoryEntryTest {
+
+  @TempDir Path temp;
+
+  @Test
+  public void entryRendersLikeTheRecordItWasCreatedFrom() {
+    /*
+     * Contract: A record converted to its compact entry and back is equal to the original, for
+     * hex and other shas, known and unknown states, missing times and branches.
+     */
+    List<CommitRecord> records =
+        List.of(
+            new CommitRecord(
+                "0123456789abcdef0123456789abcdef01234567",
+                "SUCCESS",
+                "2026-02-08 10:00:00",
+                List.of("ok"),
+                "abc-1.log"),
+            new CommitRecord(
+                "fedcba9876543210fedcba9876543210fedcba98",
+                "SUPERSEDED",
+                "2026-02-08 10:00:01",
+                List.of(),
+                null),
+            new CommitRecord("dummy-sha", "pass", "2026-02-08 11:00:00", List.of("m"), null),
+            new CommitRecord("sha2", "FAILURE", "2026-02-08 12:00:00", List.of(), null, "main"),
+            new CommitRecord("sha1", "FAIL", null, null, null));
+
+    LogStore logStore = new LogStore(temp.resolve("logs"), 1024);
+    for (CommitRecord record : records) {
+      HistoryEntry entry = HistoryEntry.of(record, logStore);
+      assertEquals(record, entry.toRecord(logStore.read(entry.logs)));
+    }
+  }
+
+  @Test
+  public void entriesSortNewestFirstAndCursorFindsTheirPlace() {
+    /*
+     * Contract: Entries sort by time newest first and by sha within the same time, and the probe
+     * of an entry's cursor sorts exactly like the entry, while malformed cursors give no probe.
+     */
+    LogStore logStore = new LogStore(temp.resolve("logs"), 1024);
+    HistoryEntry older = entry("a", "2026-02-08 10:00:00", logStore);
+    HistoryEntry newer = entry("b", "2026-02-08 10:00:01", logStore);
+    HistoryEntry sameTime = entry("c", "2026-02-08 10:00:01", logStore);
+
+    assertTrue(HistoryEntry.NEWEST_FIRST.compare(newer, older) < 0);
+    assertTrue(HistoryEntry.NEWEST_FIRST.compare(sameTime, newer) < 0);
+    assertEquals(0, HistoryEntry.NEWEST_FIRST.compare(HistoryEntry.probe(newer.cursor()), newer));
+    assertNull(HistoryEntry.probe("not a cursor"));
+    assertNull(HistoryEntry.probe(null));
+  }
+
+  /**
+   * Creates the entry of a successful build without logs.
+   *
+   * @param sha the sha of the commit
+   * @param time the time of the build
+   * @param logStore the store the logs are written to
+   * @return the entry of the commit
+   */
+  private static HistoryEntry entry(String sha, String time, LogStore logStore) {
+    return HistoryEntry.of(new CommitRecord(sha, "SUCCESS", time, List.of(), null), logStore);
+  }
+}
@@ -0,0 +1,87 @@
+package ci.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class LogStoreTest {
+
+  @TempDir Path temp;
+
+  @Test
+  public void logsRoundTripThroughSegments() throws Exception {
+    /*
+     * Contract: Written logs are read back unchanged from the segment files, null and empty logs
+     * keep their meaning, and segments of an earlier run are removed.
+     */
+    Path dir = temp.resolve("logs");
+    Files.createDirectories(dir);
+    Files.writeString(dir.resolve("segment-00000.dat"), "stale");
+    LogStore logStore = new LogStore(dir, 1024);
+
+    long first = logStore.write(List.of("BUILD SUCCESSFUL", "in 3s", "\u00e5\u00e4\u00f6"));
+    long second = logStore.write(List.of("FAILURE"));
+
+    assertEquals(
+        List.of("BUILD SUCCESSFUL", "in 3s", "\u00e5\u00e4\u00f6"), logStore.readUncached(first));
+    assertEquals(List.of("FAILURE"), logStore.read(second));
+    assertNull(logStore.read(logStore.write(null)));
+    assertEquals(List.of(), logStore.read(logStore.write(List.of())));
+    try (Stream<Path> files = Files.list(dir)) {
+      assertEquals(1, files.count());
+    }
+  }
+
+  @Test
+  public void cacheKeepsRecentlyReadLogsWithinByteLimit() {
+    /*
+     * Contract: Reading logs again returns the cached copy, and the cache evicts the least
+     * recently read logs so it never holds more bytes than its limit.
+     */
+    LogStore logStore = new LogStore(temp.resolve("logs"), 300);
+    List<Long> refs = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      refs.add(logStore.write(List.of("line " + i + " " + "x".repeat(80))));
+    }
+
+    List<String> first = logStore.read(refs.get(0));
+    assertSame(first, logStore.read(refs.get(0)));
+    for (long ref : refs) {
+      logStore.read(ref);
+    }
+
+    assertTrue(logStore.getCacheBytes() <= 300);
+    assertTrue(logStore.getCacheBytes() > 0);
+    assertEquals(List.of("line 9 " + "x".repeat(80)), logStore.read(refs.get(9)));
+  }
+
+  @Test
+  public void freedLogsAreNoLongerLive() {
+    /*
+     * Contract: The live bytes count the logs that were written and not freed, freed logs leave the
+     * cache, and the other logs of their segment stay readable.
+     */
+    LogStore logStore = new LogStore(temp.resolve("logs"), 1024);
+    long first = logStore.write(List.of("BUILD FAILED", "x".repeat(100)));
+    long second = logStore.write(List.of("BUILD SUCCESSFUL"));
+    assertEquals(logStore.size(first) + logStore.size(second), logStore.getLiveBytes());
+
+    logStore.read(first);
+    logStore.free(first);
+    assertEquals(logStore.size(second), logStore.getLiveBytes());
+    assertEquals(0, logStore.getCacheBytes());
+    assertEquals(List.of("BUILD SUCCESSFUL"), logStore.read(second));
+
+    logStore.free(logStore.write(List.of()));
+    assertEquals(logStore.size(second), logStore.getLiveBytes());
+  }
+}
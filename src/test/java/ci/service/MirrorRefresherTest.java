@@ -0,0 +1,116 @@
+package ci.service;
+
+import static ci.util.GitTestRepos.git;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import ci.util.BuildCancellation;
+import ci.util.RepoSetup;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class MirrorRefresherTest {
+
+  @TempDir Path temp;
+
+  private static final String REPO_ID = "repo";
+
+  private Path origin;
+  private Path mirror;
+  private MirrorRefresher refresher;
+
+  /**
+   * Commits a change of the README in the origin.
+   *
+   * @param content the new content of the README
+   * @return the sha of the commit
+   * @throws Exception when the commit could not be created
+   */
+  private String commit(String content) throws Exception {
+    Files.writeString(origin.resolve("README.md"), content);
+    git(origin, "add", "README.md");
+    git(origin, "commit", "-q", "-m", content);
+    return git(origin, "rev-parse", "HEAD").trim();
+  }
+
+  /**
+   * Creates a local origin and starts a refresher mirroring it.
+   *
+   * @throws Exception when the origin could not be created
+   */
+  @BeforeEach
+  public void setUp() throws Exception {
+    origin = temp.resolve("origin");
+    Files.createDirectories(origin);
+    git(origin, "init", "-q");
+    mirror = temp.resolve("ci").resolve("mirror").resolve(REPO_ID + ".git");
+
+    refresher = new MirrorRefresher();
+    ReflectionTestUtils.setField(refresher, "repoParentDir", temp.resolve("ci").toString());
+    ReflectionTestUtils.setField(refresher, "repoSsh", origin.toString());
+    ReflectionTestUtils.setField(refresher, "repoID", REPO_ID);
+    refresher.init();
+  }
+
+  /** Stops the prefetch thread of the refresher. */
+  @AfterEach
+  public void tearDown() {
+    refresher.shutdown();
+  }
+
+  @Test
+  public void prefetchFetchesPushedCommitInBackground() throws Exception {
+    /* Contract: prefetch creates the mirror and fetches the pushed commit on its own thread. */
+    String sha = commit("first");
+
+    refresher.prefetch(sha);
+    for (int i = 0; i < 500 && refresher.getStats().prefetches() == 0; i++) {
+      Thread.sleep(10);
+    }
+
+    assertEquals(1, refresher.getStats().prefetches());
+    assertEquals("commit", git(mirror, "cat-file", "-t", sha));
+  }
+
+  @Test
+  public void fetchFetchesCommitOfBuildWithConfiguredStrategy() throws Exception {
+    /*
+     * Contract: fetch creates the mirror on the calling thread with the configured fetch strategy,
+     * even when the background refresh is disabled.
+     */
+    String sha = commit("first");
+    ReflectionTestUtils.setField(refresher, "enabled", false);
+    ReflectionTestUtils.setField(refresher, "fetchStrategy", RepoSetup.FetchStrategy.SINGLE_SHA);
+
+    refresher.fetch(sha, new BuildCancellation());
+
+    assertEquals("commit", git(mirror, "cat-file", "-t", sha));
+    assertEquals("", git(mirror, "for-each-ref").trim());
+  }
+
+  @Test
+  public void refreshFetchesNewCommitsIntoExistingMirror() throws Exception {
+    /*
+     * Contract: refresh does nothing before the mirror exists, and afterwards fetches commits
+     * pushed since the mirror was last updated.
+     */
+    String first = commit("first");
+    refresher.refresh();
+    assertFalse(Files.exists(mirror));
+
+    refresher.prefetch(first);
+    for (int i = 0; i < 500 && refresher.getStats().prefetches() == 0; i++) {
+      Thread.sleep(10);
+    }
+    String second = commit("second");
+    refresher.refresh();
+
+    assertEquals(1, refresher.getStats().refreshes());
+    assertEquals("commit", git(mirror, "cat-file", "-t", second));
+  }
+}
@@ -2,15 +2,28 @@ package ci.service;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import ci.service.Status.CommitRecord;
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.GZIPInputStream;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
 
 public class StatusTest {
 
@@ -25,13 +38,131 @@ public class StatusTest {
     Status status = new Status(tempDir.resolve("commits.json"));
     CommitRecord latestStatus = new CommitRecord("dummy-sha", "pass", Arrays.asList("message"));
 
-    status.put(latestStatus);
+    status.put(latestStatus).join();
 
     assertTrue(status.getLatest().isPresent());
     assertEquals("dummy-sha", status.getLatest().get().sha());
 
-    String json = Files.readString(tempDir.resolve("commits.json"));
-    assertTrue(json.contains("dummy-sha"));
+    String journal = Files.readString(tempDir.resolve("commits.journal"));
+    assertTrue(journal.contains("dummy-sha"));
+  }
+
+  @Test
+  public void putAppendsToJournalAndCompactionWritesSnapshot() throws IOException {
+    /**
+     * Contract: Every put appends one line to the journal without touching the snapshot, a restart
+     * replays the snapshot and the journal, and compaction moves the whole history into the
+     * snapshot and starts an empty journal.
+     */
+    Path commitsFilePath = tempDir.resolve("commits.json");
+    Status status = new Status(commitsFilePath);
+    status.init();
+    status.put(new CommitRecord("sha1", "SUCCESS", "2026-02-08 10:00:00", List.of("m1"), null));
+    status.put(new CommitRecord("sha2", "FAILURE", "2026-02-08 11:00:00", List.of("m2"), null));
+    status
+        .put(new CommitRecord("sha1", "FAILURE", "2026-02-08 12:00:00", List.of("m3"), null))
+        .join();
+
+    assertFalse(Files.exists(commitsFilePath));
+    assertEquals(3, Files.readAllLines(tempDir.resolve("commits.journal")).size());
+
+    Status restarted = new Status(commitsFilePath);
+    restarted.init();
+    assertEquals(2, restarted.getCommitsMap().size());
+    assertEquals("FAILURE", restarted.getCommitsMap().get("sha1").state());
+    assertEquals("2026-02-08 12:00:00", restarted.getLatest().get().time());
+
+    restarted.compact(1);
+    assertTrue(Files.readString(commitsFilePath).contains("sha2"));
+    assertFalse(Files.exists(tempDir.resolve("commits.journal")));
+
+    Status compacted = new Status(commitsFilePath);
+    compacted.init();
+    assertEquals(2, compacted.getCommitsMap().size());
+    assertEquals(List.of("m3"), compacted.getCommitsMap().get("sha1").logs());
+  }
+
+  @Test
+  public void failedCompactionsKeepTheJournalsTheyMovedAside() throws IOException {
+    /**
+     * Contract: A compaction that cannot write the snapshot leaves the journal it moved aside, and
+     * the next compaction appends its journal to it instead of replacing it, so a restart still
+     * replays the records of both.
+     */
+    Path commitsFilePath = tempDir.resolve("commits.json");
+    // A directory in place of the snapshot makes every compaction fail to write it
+    Files.createDirectories(commitsFilePath.resolve("blocked"));
+    Status status = new Status(commitsFilePath);
+    status.put(new CommitRecord("sha1", "SUCCESS", "2026-02-08 10:00:00", List.of("m1"), null));
+    status.put(new CommitRecord("sha2", "SUCCESS", "2026-02-08 11:00:00", List.of(), null)).join();
+    status.compact(1);
+    assertTrue(Files.exists(tempDir.resolve("commits.journal.compacting")));
+    status.put(new CommitRecord("sha3", "FAILURE", "2026-02-08 12:00:00", List.of(), null)).join();
+    status.compact(1);
+    assertFalse(Files.exists(tempDir.resolve("commits.journal")));
+    assertEquals(3, Files.readAllLines(tempDir.resolve("commits.journal.compacting")).size());
+
+    Files.delete(commitsFilePath.resolve("blocked"));
+    Files.delete(commitsFilePath);
+    Status restarted = new Status(commitsFilePath);
+    restarted.init();
+    assertEquals(3, restarted.getCommitsMap().size());
+    assertEquals(List.of("m1"), restarted.get("sha1").get().logs());
+    assertTrue(Files.exists(commitsFilePath));
+    assertFalse(Files.exists(tempDir.resolve("commits.journal.compacting")));
+  }
+
+  @Test
+  public void putsWithinBatchWindowAreWrittenAsOneBatch() throws IOException {
+    /**
+     * Contract: Records put within the batch window are written to the journal with one write and
+     * one fsync, their futures complete once they are on disk, and shutdown writes the rest.
+     */
+    Path commitsFilePath = tempDir.resolve("commits.json");
+    Status status = new Status(commitsFilePath);
+    ReflectionTestUtils.setField(status, "batchWindowMillis", 500L);
+    status.init();
+
+    List<CompletableFuture<Void>> futures = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      futures.add(status.put(new CommitRecord("sha" + i, "SUCCESS", List.of())));
+    }
+    CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+
+    assertEquals(1, status.getStats().batches());
+    assertEquals(5, status.getStats().records());
+    assertEquals(5, status.getStats().maxBatchSize());
+    assertEquals(5, Files.readAllLines(tempDir.resolve("commits.journal")).size());
+
+    status.put(new CommitRecord("sha5", "SUCCESS", List.of()));
+    status.shutdown();
+    Status restarted = new Status(commitsFilePath);
+    restarted.init();
+    assertEquals(6, restarted.getCommitsMap().size());
+  }
+
+  @Test
+  public void getCommitsPagesThroughHistoryByTime() {
+    /**
+     * Contract: Pages hold the newest commits first, the cursor of a page leads to the commits
+     * older than it, and a commit that is put again moves to its new time.
+     */
+    Status status = new Status(tempDir.resolve("commits.json"));
+    for (int i = 1; i <= 5; i++) {
+      String time = "2026-02-08 1" + i + ":00:00";
+      status.put(new CommitRecord("sha" + i, "SUCCESS", time, List.of(), null));
+    }
+    status.put(new CommitRecord("sha1", "FAILURE", "2026-02-08 16:00:00", List.of(), null));
+
+    Status.HistoryPage first = status.getCommits(null, 2);
+    assertEquals(List.of("sha1", "sha5"), first.commits().stream().map(CommitRecord::sha).toList());
+    Status.HistoryPage second = status.getCommits(first.next(), 2);
+    assertEquals(
+        List.of("sha4", "sha3"), second.commits().stream().map(CommitRecord::sha).toList());
+    Status.HistoryPage last = status.getCommits(second.next(), 2);
+    assertEquals(List.of("sha2"), last.commits().stream().map(CommitRecord::sha).toList());
+    assertNull(last.next());
+    assertEquals(5, status.getCommits().size());
   }
 
   @Test
@@ -162,4 +293,230 @@ public class StatusTest {
     status.init();
     assertTrue(status.getCommits().getFirst().logs().getFirst().equals("m1"));
   }
+
+  @Test
+  public void initLoadsSnapshotInBackgroundAndKeepsCommitsPutMeanwhile() throws IOException {
+    /**
+     * Contract: The snapshot is loaded in the background, with the journal replayed on top of it.
+     * Once loading has finished the logs of every commit are available, and a commit put while the
+     * history was loading is not replaced by its older record.
+     */
+    Path commitsFilePath = tempDir.resolve("commits.json");
+    Files.writeString(
+        commitsFilePath,
+        """
+        {
+          "sha1": {"sha": "sha1", "state": "SUCCESS", "time": "2026-02-08 10:00:00",
+                   "logs": ["m1", "m2"], "logFile": "sha1.log"},
+          "sha2": {"sha": "sha2", "state": "FAILURE", "time": "2026-02-08 11:00:00", "logs": []},
+          "sha3": {"sha": "sha3", "state": "SUCCESS", "time": "2026-02-08 12:00:00", "logs": null}
+        }
+        """);
+    Files.writeString(
+        tempDir.resolve("commits.journal"),
+        "{\"sha\":\"sha2\",\"state\":\"SUCCESS\",\"time\":\"2026-02-08 13:00:00\","
+            + "\"logs\":[\"m3\"]}\n");
+
+    Status status = new Status(commitsFilePath);
+    status.init();
+    status.put(new CommitRecord("sha3", "ERROR", "2026-02-08 14:00:00", List.of("m4"), null));
+
+    assertEquals(3, status.getCommitsMap().size());
+    assertFalse(status.isLoading());
+    assertEquals(List.of("m1", "m2"), status.get("sha1").get().logs());
+    assertEquals("sha1.log", status.get("sha1").get().logFile());
+    assertEquals(List.of("m3"), status.get("sha2").get().logs());
+    assertEquals("ERROR", status.get("sha3").get().state());
+    assertEquals("sha3", status.getLatest().get().sha());
+    assertEquals(
+        List.of("sha3", "sha2", "sha1"),
+        status.getCommits(null, 10).commits().stream().map(CommitRecord::sha).toList());
+  }
+
+  @Test
+  public void filteredHistoryMatchesStateBranchShaAndAge() {
+    /**
+     * Contract: A filtered page only holds the commits matching every field of the filter, newest
+     * first, its cursor leads to the older matching commits, and the branch of a commit is kept.
+     */
+    Status status = new Status(tempDir.resolve("commits.json"));
+    String now = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
+    status.put(new CommitRecord("aa1", "FAILURE", "2020-01-01 10:00:00", List.of(), null, "main"));
+    status.put(new CommitRecord("aa2", "FAILURE", now, List.of(), null, "main"));
+    status.put(new CommitRecord("ab3", "SUCCESS", now, List.of(), null, "main"));
+    status.put(new CommitRecord("ab4", "FAILURE", now, List.of(), null, "feature"));
+    status.put(new CommitRecord("ab5", "FAILURE", "2020-01-01 11:00:00", List.of(), null, "main"));
+
+    Status.HistoryFilter failuresOnMain = new Status.HistoryFilter("FAILURE", "main", null, null);
+    Status.HistoryPage first = status.getCommits(failuresOnMain, null, 2);
+    assertEquals(List.of("aa2", "ab5"), first.commits().stream().map(CommitRecord::sha).toList());
+    Status.HistoryPage second = status.getCommits(failuresOnMain, first.next(), 2);
+    assertEquals(List.of("aa1"), second.commits().stream().map(CommitRecord::sha).toList());
+    assertNull(second.next());
+
+    Status.HistoryFilter lastWeek =
+        new Status.HistoryFilter("FAILURE", "main", null, Instant.now().minus(Duration.ofDays(7)));
+    assertEquals(
+        List.of("aa2"),
+        status.getCommits(lastWeek, null, 10).commits().stream().map(CommitRecord::sha).toList());
+
+    Status.HistoryFilter prefix = new Status.HistoryFilter(null, null, "ab", null);
+    assertEquals(
+        List.of("ab4", "ab3", "ab5"),
+        status.getCommits(prefix, null, 10).commits().stream().map(CommitRecord::sha).toList());
+    assertEquals("feature", status.get("ab4").get().branch());
+  }
+
+  @Test
+  public void retentionEvictsOldAndSurplusCommitsIntoTheArchive() throws IOException {
+    /**
+     * Contract: Commits older than the retention and the oldest commits beyond the largest number
+     * of commits are evicted on put, the latest commit is kept, the evicted commits are appended
+     * with their logs to the compressed archive, and a restart does not bring them back.
+     */
+    Path commitsFilePath = tempDir.resolve("commits.json");
+    Status status = new Status(commitsFilePath);
+    ReflectionTestUtils.setField(status, "retentionDays", 30);
+    ReflectionTestUtils.setField(status, "maxCommits", 3);
+    ReflectionTestUtils.setField(status, "archive", true);
+    DateTimeFormatter fmt = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    LocalDateTime now = LocalDateTime.now();
+    status.put(
+        new CommitRecord("old", "FAILURE", now.minusDays(60).format(fmt), List.of("m0"), null));
+    assertTrue(status.get("old").isPresent());
+    for (int i = 1; i <= 4; i++) {
+      String time = now.minusMinutes(10 - i).format(fmt);
+      status.put(new CommitRecord("sha" + i, "SUCCESS", time, List.of("m" + i), null));
+    }
+
+    assertEquals(
+        List.of("sha4", "sha3", "sha2"),
+        status.getCommits(null, 10).commits().stream().map(CommitRecord::sha).toList());
+    assertEquals(2, status.getStats().evictedCommits());
+    status.shutdown();
+
+    Path archive = tempDir.resolve("commits-archive.jsonl.gz");
+    List<String> archived;
+    try (BufferedReader reader =
+        new BufferedReader(
+            new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(archive)), StandardCharsets.UTF_8))) {
+      archived = reader.lines().toList();
+    }
+    assertEquals(2, archived.size());
+    assertTrue(archived.get(0).contains("\"old\"") && archived.get(0).contains("m0"));
+    assertTrue(archived.get(1).contains("\"sha1\"") && archived.get(1).contains("m1"));
+
+    Status restarted = new Status(commitsFilePath);
+    restarted.init();
+    assertEquals(3, restarted.getCommitsMap().size());
+    assertFalse(restarted.get("old").isPresent());
+  }
+
+  @Test
+  public void evictedCommitsStayGoneAfterARestartWithoutCompaction() throws IOException {
+    /**
+     * Contract: An eviction is written to the journal as a tombstone, so a restart before the next
+     * compaction does not load the evicted commit again from the journal, and it is archived once.
+     */
+    Path commitsFilePath = tempDir.resolve("commits.json");
+    Status status = new Status(commitsFilePath);
+    ReflectionTestUtils.setField(status, "maxCommits", 2);
+    ReflectionTestUtils.setField(status, "archive", true);
+    for (int i = 1; i <= 3; i++) {
+      status.put(new CommitRecord("sha" + i, "SUCCESS", "2026-02-08 10:00:0" + i, List.of(), null));
+    }
+    // The eviction of sha1 is queued behind the put of sha3, so it is on disk after the next put
+    status.put(new CommitRecord("sha3", "SUCCESS", "2026-02-08 10:00:03", List.of(), null)).join();
+    assertTrue(
+        Files.readAllLines(tempDir.resolve("commits.journal")).contains("{\"removed\":\"sha1\"}"));
+
+    // Restarted without a shutdown, so no compaction dropped sha1 from the journal
+    Status restarted = new Status(commitsFilePath);
+    ReflectionTestUtils.setField(restarted, "maxCommits", 2);
+    ReflectionTestUtils.setField(restarted, "archive", true);
+    restarted.init();
+    assertEquals(2, restarted.getCommitsMap().size());
+    assertFalse(restarted.get("sha1").isPresent());
+    restarted.sweep();
+    restarted.shutdown();
+
+    List<String> archived;
+    try (BufferedReader reader =
+        new BufferedReader(
+            new InputStreamReader(
+                new GZIPInputStream(
+                    Files.newInputStream(tempDir.resolve("commits-archive.jsonl.gz"))),
+                StandardCharsets.UTF_8))) {
+      archived = reader.lines().toList();
+    }
+    assertEquals(1, archived.size());
+    assertTrue(archived.getFirst().contains("\"sha1\""));
+    assertEquals(1, restarted.getStats().evictedCommits() + status.getStats().evictedCommits());
+  }
+
+  @Test
+  public void logBudgetEvictsTheLogsOfTheOldestCommits() throws IOException {
+    /**
+     * Contract: While the logs exceed their budget the logs of the oldest commits are evicted, the
+     * commits themselves stay in the history without logs, and a restart keeps them that way.
+     */
+    Path commitsFilePath = tempDir.resolve("commits.json");
+    Status status = new Status(commitsFilePath);
+    ReflectionTestUtils.setField(status, "maxLogMb", 1L);
+    List<String> logs = List.of("x".repeat(300 * 1024));
+    for (int i = 0; i < 5; i++) {
+      status.put(new CommitRecord("sha" + i, "SUCCESS", "2026-02-08 10:00:0" + i, logs, null));
+    }
+
+    assertEquals(5, status.getCommitsMap().size());
+    assertNull(status.get("sha0").get().logs());
+    assertNull(status.get("sha1").get().logs());
+    assertEquals(logs, status.get("sha2").get().logs());
+    assertEquals(logs, status.get("sha4").get().logs());
+    assertEquals(2, status.getStats().evictedLogs());
+    assertTrue(status.getStats().logBytes() <= 1024 * 1024);
+    status.shutdown();
+
+    Status restarted = new Status(commitsFilePath);
+    restarted.init();
+    assertEquals(5, restarted.getCommitsMap().size());
+    assertNull(restarted.get("sha1").get().logs());
+    assertEquals(logs, restarted.get("sha2").get().logs());
+  }
+
+  @Test
+  public void switchingToH2ImportsTheJsonHistory() throws IOException {
+    /**
+     * Contract: A Status persisted by h2 whose database is still empty imports the json snapshot
+     * and the journal written before the switch, with the journal records winning, and does not
+     * import them again once the database holds commits.
+     */
+    Path commitsFilePath = tempDir.resolve("commits.json");
+    Status json = new Status(commitsFilePath);
+    json.init();
+    json.put(new CommitRecord("sha1", "SUCCESS", "2026-02-08 10:00:00", List.of("m1"), null));
+    json.put(new CommitRecord("sha2", "FAILURE", "2026-02-08 11:00:00", List.of("m2"), null));
+    json.getCommitsMap();
+    json.compact(1);
+    json.put(new CommitRecord("sha1", "FAILURE", "2026-02-08 12:00:00", List.of("m3"), null));
+    json.shutdown();
+    assertTrue(Files.exists(commitsFilePath));
+
+    Status h2 = new Status(commitsFilePath, StatusStore.create("h2", commitsFilePath));
+    h2.init();
+    assertEquals(2, h2.getCommitsMap().size());
+    assertEquals(List.of("m2"), h2.get("sha2").get().logs());
+    assertEquals("FAILURE", h2.get("sha1").get().state());
+    assertEquals(List.of("m3"), h2.get("sha1").get().logs());
+    h2.put(new CommitRecord("sha1", "SUCCESS", "2026-02-08 13:00:00", List.of("m4"), null)).join();
+    h2.shutdown();
+
+    // An import on this restart would bring back the older record of the json journal
+    Status restarted = new Status(commitsFilePath, StatusStore.create("h2", commitsFilePath));
+    restarted.init();
+    assertEquals(2, restarted.getCommitsMap().size());
+    assertEquals(List.of("m4"), restarted.get("sha1").get().logs());
+    restarted.shutdown();
+  }
 }
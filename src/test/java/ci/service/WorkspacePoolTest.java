@@ -0,0 +1,110 @@
+package ci.service;
+
+import static ci.util.GitTestRepos.git;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import ci.util.RepoSetup;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class WorkspacePoolTest {
+
+  @TempDir Path temp;
+
+  private static final String REPO_ID = "repo";
+
+  private String firstSha;
+  private String secondSha;
+  private WorkspacePool pool;
+
+  /**
+   * Creates a local origin with two commits, mirrors it and sets up a pool on top of the mirror.
+   *
+   * @throws Exception when the repositories could not be created
+   */
+  @BeforeEach
+  public void setUp() throws Exception {
+    Path origin = temp.resolve("origin");
+    Files.createDirectories(origin);
+    git(origin, "init", "-q");
+    Files.writeString(origin.resolve("README.md"), "one");
+    git(origin, "add", "README.md");
+    git(origin, "commit", "-q", "-m", "one");
+    firstSha = git(origin, "rev-parse", "HEAD").trim();
+    Files.writeString(origin.resolve("README.md"), "two");
+    git(origin, "commit", "-q", "-am", "two");
+    secondSha = git(origin, "rev-parse", "HEAD").trim();
+
+    String mirror = temp.resolve("mirror").resolve(REPO_ID + ".git").toString();
+    RepoSetup.updateMirror(mirror, origin.toString(), secondSha);
+
+    WorkspaceReaper reaper = new WorkspaceReaper();
+    ReflectionTestUtils.setField(reaper, "repoParentDir", temp.toString());
+    reaper.init();
+    pool = new WorkspacePool(reaper);
+    ReflectionTestUtils.setField(pool, "repoParentDir", temp.toString());
+    ReflectionTestUtils.setField(pool, "repoID", REPO_ID);
+    ReflectionTestUtils.setField(pool, "diskBudgetMb", 1024L);
+    ReflectionTestUtils.setField(pool, "preserve", List.of("build"));
+  }
+
+  @Test
+  public void leaseReusesReleasedWorkspaceAndKeepsPreservedDirs() throws Exception {
+    /*
+     * Contract: A released workspace is reused by the next lease. It is reset to the new commit,
+     * untracked files are removed and preserved directories are kept.
+     */
+    WorkspacePool.Workspace ws = pool.lease(firstSha);
+    Path dir = ws.getDir().toPath();
+    assertEquals("one", Files.readString(dir.resolve("README.md")));
+    Files.createDirectories(dir.resolve("build"));
+    Files.writeString(dir.resolve("build").resolve("output.txt"), "cached");
+    Files.writeString(dir.resolve("stray.txt"), "stray");
+    pool.release(ws);
+
+    WorkspacePool.Workspace reused = pool.lease(secondSha);
+
+    assertEquals(dir, reused.getDir().toPath());
+    assertEquals("two", Files.readString(dir.resolve("README.md")));
+    assertTrue(Files.exists(dir.resolve("build").resolve("output.txt")));
+    assertFalse(Files.exists(dir.resolve("stray.txt")));
+    assertEquals(1, pool.getStats().created());
+    assertEquals(1, pool.getStats().reused());
+  }
+
+  @Test
+  public void leaseCreatesNewWorkspaceWhileOtherIsLeased() {
+    /* Contract: A workspace is never leased to two builds at the same time. */
+    WorkspacePool.Workspace first = pool.lease(firstSha);
+    WorkspacePool.Workspace second = pool.lease(secondSha);
+
+    assertNotEquals(first.getDir(), second.getDir());
+    assertEquals(2, pool.getStats().leased());
+  }
+
+  @Test
+  public void releaseEvictsIdleWorkspacesOverBudget() throws Exception {
+    /*
+     * Contract: When the workspaces exceed the disk budget the idle workspaces are evicted, once
+     * the released workspace was measured in the background.
+     */
+    ReflectionTestUtils.setField(pool, "diskBudgetMb", 0L);
+    WorkspacePool.Workspace ws = pool.lease(firstSha);
+    pool.release(ws);
+    for (int i = 0; i < 500 && pool.getStats().evicted() == 0; i++) {
+      Thread.sleep(10);
+    }
+
+    assertFalse(ws.getDir().exists());
+    assertEquals(0, pool.getStats().workspaces());
+    assertEquals(1, pool.getStats().evicted());
+  }
+}
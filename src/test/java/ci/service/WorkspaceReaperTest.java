@@ -0,0 +1,89 @@
+package ci.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class WorkspaceReaperTest {
+
+  @TempDir Path temp;
+
+  private WorkspaceReaper reaper;
+
+  /**
+   * Creates and starts a reaper working in the temporary directory.
+   *
+   * @return the started reaper
+   */
+  private WorkspaceReaper startReaper() {
+    reaper = new WorkspaceReaper();
+    ReflectionTestUtils.setField(reaper, "repoParentDir", temp.toString());
+    reaper.init();
+    return reaper;
+  }
+
+  /**
+   * Waits until the reaper has no pending deletions left.
+   *
+   * @throws InterruptedException if interrupted while waiting
+   */
+  private void awaitIdle() throws InterruptedException {
+    for (int i = 0; i < 500 && reaper.getStats().pendingEntries() > 0; i++) {
+      Thread.sleep(10);
+    }
+  }
+
+  /** Stops the deleting threads of the reaper. */
+  @AfterEach
+  public void tearDown() {
+    if (reaper != null) {
+      reaper.shutdown();
+    }
+  }
+
+  @Test
+  public void reapMovesDirectoryAwayAndDeletesItInBackground() throws Exception {
+    /*
+     * Contract: After reap returns the directory no longer exists at its path, and the reaper
+     * eventually deletes it from the trash and counts the reclaimed bytes.
+     */
+    startReaper();
+    Path dir = temp.resolve("workspaces").resolve("ws-1");
+    Files.createDirectories(dir.resolve("build"));
+    Files.writeString(dir.resolve("build").resolve("output.txt"), "12345");
+
+    reaper.reap(dir, 5);
+    assertFalse(Files.exists(dir));
+
+    awaitIdle();
+    WorkspaceReaper.Stats stats = reaper.getStats();
+    assertEquals(0, stats.pendingEntries());
+    assertEquals(0, stats.pendingBytes());
+    assertEquals(1, stats.reclaimedEntries());
+    assertEquals(5, stats.reclaimedBytes());
+    try (var trash = Files.list(temp.resolve(".trash"))) {
+      assertEquals(0, trash.count());
+    }
+  }
+
+  @Test
+  public void initDeletesLeftoverTrash() throws Exception {
+    /* Contract: Trash left behind by a previous run is deleted when the reaper starts. */
+    Path leftover = temp.resolve(".trash").resolve("ws-1-old");
+    Files.createDirectories(leftover);
+    Files.writeString(leftover.resolve("file.txt"), "left over");
+
+    startReaper();
+    awaitIdle();
+
+    assertFalse(Files.exists(leftover));
+    assertTrue(reaper.getStats().reclaimedBytes() > 0);
+  }
+}
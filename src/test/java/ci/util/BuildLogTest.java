@@ -0,0 +1,84 @@
+package ci.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class BuildLogTest {
+
+  @TempDir Path temp;
+
+  @Test
+  public void appendWritesEveryLineAndKeepsBoundedTail() throws Exception {
+    /*
+     * Contract: Every appended line ends up in the log file, while only the configured number of
+     * last lines is kept in memory.
+     */
+    Path file = temp.resolve("abc-1.log");
+    try (BuildLog log = new BuildLog(file, "abc-1.log", 3)) {
+      for (int i = 1; i <= 10; i++) {
+        log.append("line " + i);
+      }
+      assertEquals(List.of("line 8", "line 9", "line 10"), log.tail());
+      assertEquals(10, log.getLineCount());
+      assertEquals("abc-1.log", log.getHandle());
+    }
+
+    List<String> lines = Files.readAllLines(file);
+    assertEquals(10, lines.size());
+    assertEquals("line 1", lines.get(0));
+    assertEquals("line 10", lines.get(9));
+  }
+
+  @Test
+  public void inMemoryLogOnlyKeepsTail() {
+    /* Contract: A log without a file keeps the tail and has no handle. */
+    BuildLog log = BuildLog.inMemory(2);
+    log.append("a");
+    log.append("b");
+    log.append("c");
+    log.close();
+    log.append("d");
+
+    assertEquals(List.of("c", "d"), log.tail());
+    assertNull(log.getHandle());
+  }
+
+  @Test
+  public void awaitReturnsLinesAfterOffsetFromSharedTail() throws Exception {
+    /*
+     * Contract: Every line is identified by the byte offset right after it in the log file, a
+     * viewer gets the lines after its offset, is told when lines have already left the tail, and
+     * is woken up when the log is closed.
+     */
+    Path file = temp.resolve("abc-1.log");
+    BuildLog log = new BuildLog(file, "abc-1.log", 2);
+    log.append("one");
+    log.append("two");
+
+    BuildLog.Batch first = log.await(0, 1000);
+    assertEquals(List.of(new BuildLog.Line(4, "one"), new BuildLog.Line(8, "two")), first.lines());
+    assertFalse(first.skipped());
+    assertFalse(first.closed());
+
+    log.append("three");
+    BuildLog.Batch resumed = log.await(8, 1000);
+    assertEquals(List.of(new BuildLog.Line(14, "three")), resumed.lines());
+    assertTrue(log.await(0, 1000).skipped());
+
+    Thread closer = new Thread(log::close);
+    closer.start();
+    BuildLog.Batch last = log.await(14, 5000);
+    closer.join();
+    assertTrue(last.lines().isEmpty());
+    assertTrue(last.closed());
+    assertEquals(14, Files.size(file));
+  }
+}
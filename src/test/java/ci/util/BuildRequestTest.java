@@ -0,0 +1,133 @@
+package ci.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+public class BuildRequestTest {
+
+  /**
+   * Parses a push event from its raw body.
+   *
+   * @param body the JSON body of the webhook
+   * @param deliveryId the delivery id of the webhook
+   * @return the build request of the push
+   * @throws IOException if the body is not a JSON object
+   */
+  private static BuildRequest parse(String body, String deliveryId) throws IOException {
+    return BuildRequest.parsePush(body.getBytes(StandardCharsets.UTF_8), deliveryId);
+  }
+
+  @Test
+  public void parsePushKeepsOnlyTheFieldsOfTheBuild() throws Exception {
+    /*
+     * Contract: The repository, ref, SHAs and delivery id are extracted from a push event, and the
+     * branch is the ref without its refs/heads/ prefix.
+     */
+    BuildRequest request =
+        parse(
+            """
+            {"ref": "refs/heads/main",
+             "before": "1111111111111111111111111111111111111111",
+             "after": "2222222222222222222222222222222222222222",
+             "commits": [{"id": "2222222222222222222222222222222222222222",
+                          "author": {"name": "someone"}}],
+             "repository": {"name": "ContinuousIntegration",
+                            "full_name": "daDevBoat/ContinuousIntegration",
+                            "owner": {"name": "daDevBoat", "login": "daDevBoat"}}}
+            """,
+            "delivery-1");
+
+    assertEquals(
+        new BuildRequest(
+            "daDevBoat",
+            "ContinuousIntegration",
+            "daDevBoat/ContinuousIntegration",
+            "refs/heads/main",
+            "2222222222222222222222222222222222222222",
+            "1111111111111111111111111111111111111111",
+            "delivery-1"),
+        request);
+    assertEquals("main", request.branch());
+    assertFalse(request.isDeletion());
+  }
+
+  @Test
+  public void parsePushToleratesMissingFields() throws Exception {
+    /*
+     * Contract: Missing fields are extracted as empty strings, a push that is not to a branch has
+     * no branch, and a push with an all zero after SHA is a deletion.
+     */
+    BuildRequest request =
+        parse(
+            """
+            {"ref": "refs/tags/v1", "after": "0000000000000000000000000000000000000000",
+             "repository": {"owner": {"login": "daDevBoat"}}}
+            """,
+            null);
+
+    assertEquals("daDevBoat", request.owner());
+    assertEquals("", request.repo());
+    assertEquals("", request.before());
+    assertNull(request.branch());
+    assertTrue(request.isDeletion());
+  }
+
+  @Test
+  public void parsePushFindsTheFieldsWhereverTheyAre() throws Exception {
+    /*
+     * Contract: The fields of the build are read whatever the order of the fields and whatever
+     * nested values surround them, a scalar of another type is read as text and a value that is
+     * not a scalar as an empty string, and a body that is not a JSON object is rejected.
+     */
+    assertEquals(
+        new BuildRequest(
+            "daDevBoat",
+            "ContinuousIntegration",
+            "daDevBoat/ContinuousIntegration",
+            "refs/heads/main",
+            "2",
+            "1",
+            "delivery-1"),
+        parse(
+            """
+            {"ref": "refs/heads/main", "before": "1", "after": "2",
+             "repository": {"id": 1, "name": "ContinuousIntegration",
+                            "owner": {"login": "daDevBoat", "name": "daDevBoat", "id": 2},
+                            "topics": ["ci", {"nested": [1, 2]}],
+                            "full_name": "daDevBoat/ContinuousIntegration"},
+             "commits": [{"id": "2", "author": {"name": "someone"}}]}
+            """,
+            "delivery-1"));
+    assertEquals(
+        new BuildRequest(
+            "daDevBoat", "ContinuousIntegration", "", "refs/tags/v1", "2", "", "delivery-1"),
+        parse(
+            """
+            {"commits": [{"id": "2", "ref": "refs/heads/other"}], "head_commit": null,
+             "repository": {"owner": {"login": "daDevBoat"}, "name": "ContinuousIntegration"},
+             "after": "2", "ref": "refs/tags/v1"}
+            """,
+            "delivery-1"));
+    assertEquals(
+        new BuildRequest("", "", "", "", "2", "", "delivery-1"),
+        parse(
+            """
+            {"repository": null, "after": 2, "before": {"unexpected": "object"}}
+            """,
+            "delivery-1"));
+
+    assertThrows(
+        IOException.class,
+        () -> BuildRequest.parsePush("[1, 2]".getBytes(StandardCharsets.UTF_8), null));
+    assertThrows(
+        IOException.class,
+        () -> BuildRequest.parsePush("{\"ref\": ".getBytes(StandardCharsets.UTF_8), null));
+  }
+}
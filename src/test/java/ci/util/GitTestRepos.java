@@ -0,0 +1,42 @@
+package ci.util;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.file.Path;
+
+/** GitTestRepos runs git in the repositories that tests create as origins and mirrors. */
+public final class GitTestRepos {
+
+  private GitTestRepos() {}
+
+  /**
+   * Runs a git command in the given directory and returns the first line of its output. Commits
+   * are made as a fixed test identity, so no git configuration of the machine is needed.
+   *
+   * @param dir the working directory
+   * @param args the git arguments
+   * @return the first output line, or null if there was no output
+   * @throws Exception when the command fails
+   */
+  public static String git(Path dir, String... args) throws Exception {
+    String[] command = new String[args.length + 5];
+    command[0] = "git";
+    command[1] = "-c";
+    command[2] = "user.name=ci";
+    command[3] = "-c";
+    command[4] = "user.email=ci@example.com";
+    System.arraycopy(args, 0, command, 5, args.length);
+    ProcessBuilder builder = new ProcessBuilder(command);
+    builder.directory(dir.toFile());
+    builder.redirectErrorStream(true);
+    Process p = builder.start();
+    String result;
+    try (BufferedReader r = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
+      result = r.readLine();
+    }
+    if (p.waitFor() != 0) {
+      throw new IllegalStateException("git " + String.join(" ", args) + " failed: " + result);
+    }
+    return result;
+  }
+}
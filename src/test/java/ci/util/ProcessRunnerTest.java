@@ -0,0 +1,109 @@
+package ci.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ProcessRunnerTest {
+
+  @TempDir Path temp;
+
+  @Test
+  public void runPassesOutputLinesAndRecordsPhase() throws Exception {
+    /*
+     * Contract: run() hands every output line to the consumer, returns the exit code and
+     * records the timing of the run under its phase name.
+     */
+    List<String> lines = new CopyOnWriteArrayList<>();
+    ProcessRunner.Result result =
+        new ProcessRunner("test-echo", temp.toFile(), "bash", "-c", "echo one; echo two >&2")
+            .onLine(lines::add)
+            .run();
+
+    assertTrue(result.isSuccess());
+    assertEquals(List.of("one", "two"), lines);
+    assertEquals("test-echo", result.timing().phase());
+    assertTrue(ProcessRunner.getPhaseStats().get("test-echo").count() >= 1);
+  }
+
+  @Test
+  public void runReportsNonZeroExitCode() throws Exception {
+    /* Contract: A failing command is not a success and its exit code is returned. */
+    ProcessRunner.Result result =
+        new ProcessRunner("test-exit", temp.toFile(), "bash", "-c", "exit 3")
+            .onLine(line -> {})
+            .run();
+
+    assertFalse(result.isSuccess());
+    assertFalse(result.timedOut());
+    assertEquals(3, result.exitCode());
+  }
+
+  @Test
+  public void runKillsCommandWithoutOutputAfterIdleTimeout() throws Exception {
+    /*
+     * Contract: A command that produces no output for longer than the idle timeout is killed
+     * together with its child processes, and the run is counted as a timeout of its phase.
+     */
+    long started = System.currentTimeMillis();
+    ProcessRunner.Result result =
+        new ProcessRunner("test-idle", temp.toFile(), "bash", "-c", "sleep 30 & wait")
+            .idleTimeout(Duration.ofMillis(500))
+            .onLine(line -> {})
+            .run();
+
+    assertTrue(result.timedOut());
+    assertFalse(result.isSuccess());
+    assertTrue(System.currentTimeMillis() - started < 10_000);
+    assertEquals(1, ProcessRunner.getPhaseStats().get("test-idle").timeouts());
+  }
+
+  @Test
+  public void runKillsCommandAfterWallTimeout() throws Exception {
+    /* Contract: A command that keeps printing is still killed once the wall timeout is exceeded. */
+    ProcessRunner.Result result =
+        new ProcessRunner("test-wall", temp.toFile(), "bash", "-c", "while true; do echo; done")
+            .wallTimeout(Duration.ofMillis(500))
+            .onLine(line -> {})
+            .run();
+
+    assertTrue(result.timedOut());
+    assertTrue(result.timeout().startsWith("wall-clock timeout"));
+  }
+
+  @Test
+  public void cancellingKillsRunningCommand() throws Exception {
+    /* Contract: Cancelling the attached BuildCancellation stops the running command. */
+    BuildCancellation cancellation = new BuildCancellation();
+    Thread canceller =
+        new Thread(
+            () -> {
+              try {
+                Thread.sleep(300);
+              } catch (InterruptedException e) {
+                return;
+              }
+              cancellation.cancel();
+            });
+    canceller.start();
+
+    long started = System.currentTimeMillis();
+    ProcessRunner.Result result =
+        new ProcessRunner("test-cancel", temp.toFile(), "sleep", "30")
+            .cancellation(cancellation)
+            .onLine(line -> {})
+            .run();
+    canceller.join();
+
+    assertFalse(result.isSuccess());
+    assertTrue(cancellation.isCancelled());
+    assertTrue(System.currentTimeMillis() - started < 10_000);
+  }
+}
@@ -1,8 +1,10 @@
 package ci.util;
 
+import static ci.util.GitTestRepos.git;
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -164,4 +166,103 @@ class RepoSetupTest {
         IllegalArgumentException.class,
         () -> RepoSetup.updateRepo(newDir.toString(), testRepo, sha));
   }
+
+  /**
+   * Creates a local origin repository with a single commit.
+   *
+   * @param dir the directory to create the origin in
+   * @return the sha of the commit
+   * @throws Exception when the repository could not be created
+   */
+  private static String createOrigin(Path dir) throws Exception {
+    Files.createDirectories(dir);
+    git(dir, "init", "-q");
+    Files.writeString(dir.resolve("README.md"), "hello");
+    git(dir, "add", "README.md");
+    git(dir, "commit", "-q", "-m", "initial");
+    return git(dir, "rev-parse", "HEAD").trim();
+  }
+
+  @Test
+  void updateMirror_and_addWorktree_checks_out_sha(@TempDir Path temp) throws Exception {
+    /* Contract: updateMirror creates a bare mirror containing the commit, addWorktree checks out
+     * the commit from the mirror and removeWorktree deletes the checkout again
+     */
+    Path origin = temp.resolve("origin");
+    String sha = createOrigin(origin);
+    Path mirror = temp.resolve("mirror").resolve("repo.git");
+    Path worktree = temp.resolve("test").resolve(sha).resolve("repo");
+    Files.createDirectories(worktree.getParent());
+
+    RepoSetup.updateMirror(mirror.toString(), origin.toString(), sha);
+    assertTrue(Files.isDirectory(mirror));
+
+    RepoSetup.addWorktree(mirror.toString(), worktree.toString(), sha);
+    assertTrue(Files.exists(worktree.resolve("README.md")));
+    assertEquals(sha, git(worktree, "rev-parse", "HEAD").trim());
+
+    RepoSetup.removeWorktree(mirror.toString(), worktree.toString());
+    assertFalse(Files.exists(worktree));
+  }
+
+  @Test
+  void updateMirror_single_sha_fetches_only_the_commit(@TempDir Path temp) throws Exception {
+    /* Contract: With the SINGLE_SHA strategy and a depth of 1 the mirror holds the pushed commit
+     * as a shallow commit without its parents or any branch, and the commit can be checked out
+     */
+    Path origin = temp.resolve("origin");
+    String first = createOrigin(origin);
+    Files.writeString(origin.resolve("README.md"), "second");
+    git(origin, "commit", "-q", "-a", "-m", "second");
+    String second = git(origin, "rev-parse", "HEAD").trim();
+    Path mirror = temp.resolve("mirror").resolve("repo.git");
+    Path worktree = temp.resolve("test").resolve("repo");
+    Files.createDirectories(worktree.getParent());
+
+    RepoSetup.updateMirror(
+        mirror.toString(), origin.toString(), second, RepoSetup.FetchStrategy.SINGLE_SHA, 1);
+
+    assertTrue(Files.exists(mirror.resolve("shallow")));
+    assertNull(git(mirror, "branch", "--list"));
+    assertThrows(IllegalStateException.class, () -> git(mirror, "cat-file", "-e", first));
+
+    RepoSetup.addWorktree(mirror.toString(), worktree.toString(), second);
+    assertEquals("second", Files.readString(worktree.resolve("README.md")));
+  }
+
+  @Test
+  void updateMirror_of_cancelled_build_leaves_no_mirror(@TempDir Path temp) throws Exception {
+    /* Contract: The git commands of a cancelled build are killed, updateMirror fails without
+     * leaving a partial mirror behind, and the next build clones the mirror anew
+     */
+    Path origin = temp.resolve("origin");
+    String sha = createOrigin(origin);
+    Path mirror = temp.resolve("mirror").resolve("repo.git");
+    BuildCancellation cancellation = new BuildCancellation();
+    cancellation.cancel();
+
+    assertThrows(
+        IllegalStateException.class,
+        () ->
+            RepoSetup.updateMirror(
+                mirror.toString(),
+                origin.toString(),
+                sha,
+                RepoSetup.FetchStrategy.ALL,
+                0,
+                cancellation));
+    assertFalse(Files.exists(mirror));
+
+    RepoSetup.updateMirror(mirror.toString(), origin.toString(), sha);
+    assertEquals("commit", git(mirror, "cat-file", "-t", sha));
+  }
+
+  @Test
+  void updateMirror_with_sha_out_of_zeros(@TempDir Path temp) {
+    /* Contract: updateMirror throws an exception when the sha is only 0's */
+    String sha = "0000000000000000000000000000000000000000";
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> RepoSetup.updateMirror(temp.resolve("mirror.git").toString(), "origin", sha));
+  }
 }
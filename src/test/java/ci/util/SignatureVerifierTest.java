@@ -0,0 +1,120 @@
+package ci.util;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import org.apache.tomcat.util.buf.HexUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class SignatureVerifierTest {
+
+  @TempDir Path temp;
+
+  private final byte[] body = "{\"after\": \"abc\"}".getBytes(StandardCharsets.UTF_8);
+
+  /**
+   * Creates a started verifier.
+   *
+   * @param sharedKey the configured secret
+   * @param graceMinutes how long the previous secret is accepted after a rotation
+   * @return the verifier
+   */
+  private static SignatureVerifier verifier(String sharedKey, long graceMinutes) {
+    SignatureVerifier verifier = new SignatureVerifier();
+    ReflectionTestUtils.setField(verifier, "sharedKey", sharedKey);
+    ReflectionTestUtils.setField(verifier, "rotationGraceMinutes", graceMinutes);
+    verifier.init();
+    return verifier;
+  }
+
+  /**
+   * Signs a body the way GitHub does.
+   *
+   * @param secret the secret
+   * @param body the body
+   * @return the signature header
+   * @throws Exception if the HMAC cannot be computed
+   */
+  private static String sign(String secret, byte[] body) throws Exception {
+    Mac mac = Mac.getInstance("HmacSHA256");
+    mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+    return "sha256=" + HexUtils.toHexString(mac.doFinal(body));
+  }
+
+  @Test
+  public void verifyAcceptsOnlyTheSignatureOfTheBody() throws Exception {
+    /*
+     * Contract: A signature is valid iff it is the HMAC of the body with the secret, in upper or
+     * lower case hex. A malformed signature is invalid and an empty body is rejected.
+     */
+    SignatureVerifier verifier = verifier("test-secret", 60);
+    String signature = sign("test-secret", body);
+
+    assertTrue(verifier.verify(body, signature));
+    assertTrue(verifier.verify(body, "sha256=" + signature.substring(7).toUpperCase()));
+    for (int i = 0; i < 3; i++) {
+      // The clones of the engine do not share state between webhooks
+      assertTrue(verifier.verify(body, signature));
+    }
+    byte[] tampered = "{\"after\": \"abd\"}".getBytes(StandardCharsets.UTF_8);
+    assertFalse(verifier.verify(tampered, signature));
+    assertFalse(verifier.verify(body, sign("other-secret", body)));
+    assertFalse(verifier.verify(body, signature.substring(7)));
+    assertFalse(verifier.verify(body, signature.substring(0, 20)));
+    assertFalse(verifier.verify(body, "sha256=not-hex"));
+    assertFalse(verifier.verify(body, null));
+    assertThrows(IllegalArgumentException.class, () -> verifier.verify(new byte[0], signature));
+  }
+
+  @Test
+  public void rotatedSecretIsAcceptedDuringTheGraceWindow() throws Exception {
+    /*
+     * Contract: After a rotation both the new and the previous secret are accepted until the grace
+     * window ends, and a secret from before the previous one is no longer accepted.
+     */
+    SignatureVerifier verifier = verifier("first", 60);
+    verifier.rotate("second");
+    assertTrue(verifier.verify(body, sign("first", body)));
+    assertTrue(verifier.verify(body, sign("second", body)));
+
+    verifier.rotate("third");
+    assertFalse(verifier.verify(body, sign("first", body)));
+    assertTrue(verifier.verify(body, sign("second", body)));
+    assertTrue(verifier.verify(body, sign("third", body)));
+
+    SignatureVerifier noGrace = verifier("first", 0);
+    noGrace.rotate("second");
+    Thread.sleep(5);
+    assertFalse(noGrace.verify(body, sign("first", body)));
+    assertTrue(noGrace.verify(body, sign("second", body)));
+  }
+
+  @Test
+  public void secretFileIsReloadedWithoutRestart() throws Exception {
+    /*
+     * Contract: A configured secret file overrides the shared key, and a new secret written to it
+     * is picked up by the next reload while the old one is still accepted.
+     */
+    Path file = temp.resolve("webhook-secret");
+    Files.writeString(file, "from-file\n");
+    SignatureVerifier verifier = new SignatureVerifier();
+    ReflectionTestUtils.setField(verifier, "sharedKey", "from-properties");
+    ReflectionTestUtils.setField(verifier, "secretFile", file.toString());
+    verifier.init();
+    assertTrue(verifier.verify(body, sign("from-file", body)));
+    assertFalse(verifier.verify(body, sign("from-properties", body)));
+
+    Files.writeString(file, "rotated\n");
+    verifier.reload();
+    assertTrue(verifier.verify(body, sign("rotated", body)));
+    assertTrue(verifier.verify(body, sign("from-file", body)));
+  }
+}
@@ -5,14 +5,13 @@ import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.nio.charset.StandardCharsets;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.util.ReflectionTestUtils;
 
 @ExtendWith(SpringExtension.class)
 @SpringBootTest
@@ -38,7 +37,7 @@ public class ValidationTest {
   }
 
   @Test
-  public void validateRepoNameTest() {
+  public void validateRepoNameTest() throws Exception {
     /*
      * Contract: validateRepoName returns true iff the repo is the given repo
      *  sat in application.resources
@@ -82,20 +81,14 @@ public class ValidationTest {
     }
     """;
 
-    ObjectMapper mapper = new ObjectMapper();
-    JsonNode payload = null;
-    try {
-      payload = mapper.readTree(testBody);
-    } catch (Exception e) {
-      // Add other error handling here with website
-      System.out.println(e);
-    }
-
-    assertTrue(ci.util.Validation.validateRepoName(payload, repoName));
+    BuildRequest request =
+        BuildRequest.parsePush(testBody.getBytes(StandardCharsets.UTF_8), "delivery-1");
+    assertTrue(ci.util.Validation.validateRepoName(request, repoName));
 
-    ObjectNode repository = (ObjectNode) payload.get("repository");
-    repository.put("full_name", "daDevBoat/test");
-    assertFalse(ci.util.Validation.validateRepoName(payload, repoName));
+    String otherBody = testBody.replace("daDevBoat/ContinuousIntegration", "daDevBoat/test");
+    BuildRequest otherRepo =
+        BuildRequest.parsePush(otherBody.getBytes(StandardCharsets.UTF_8), "delivery-1");
+    assertFalse(ci.util.Validation.validateRepoName(otherRepo, repoName));
   }
 
   @Test
@@ -112,7 +105,7 @@ public class ValidationTest {
     assertDoesNotThrow(
         () -> {
           boolean validSignature =
-              ci.util.Validation.validateSignature(sharedKey, body.getBytes("UTF-8"), signature);
+              verifier(sharedKey).verify(body.getBytes(StandardCharsets.UTF_8), signature);
           assertTrue(validSignature);
         });
   }
@@ -133,7 +126,7 @@ public class ValidationTest {
     assertDoesNotThrow(
         () -> {
           boolean validSignature =
-              ci.util.Validation.validateSignature(sharedKey, body.getBytes("UTF-8"), signature);
+              verifier(sharedKey).verify(body.getBytes(StandardCharsets.UTF_8), signature);
           assertFalse(validSignature);
         });
   }
@@ -148,8 +141,20 @@ public class ValidationTest {
     String sharedKey = "test1";
     String signature = "sha256=8235f5dde6be4a508848a58c377aaec2e954905cf9d40f1582d3e1a0f44e6771";
 
-    assertThrows(
-        IllegalArgumentException.class,
-        () -> ci.util.Validation.validateSignature(sharedKey, body, signature));
+    SignatureVerifier verifier = verifier(sharedKey);
+    assertThrows(IllegalArgumentException.class, () -> verifier.verify(body, signature));
+  }
+
+  /**
+   * Creates a started verifier of the given secret.
+   *
+   * @param sharedKey the shared key between Github and our program
+   * @return the verifier
+   */
+  private static SignatureVerifier verifier(String sharedKey) {
+    SignatureVerifier verifier = new SignatureVerifier();
+    ReflectionTestUtils.setField(verifier, "sharedKey", sharedKey);
+    verifier.init();
+    return verifier;
   }
 }